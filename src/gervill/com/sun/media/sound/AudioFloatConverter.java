@@ -361,25 +361,15 @@ public abstract class AudioFloatConverter {
     private static class AudioFloatConversion16SL extends AudioFloatConverter {
         public float[] toFloatArray(byte[] in_buff, int in_offset,
                                     float[] out_buff, int out_offset, int out_len) {
-            int ix = in_offset;
-            int len = out_offset + out_len;
-            for (int ox = out_offset; ox < len; ox++) {
-                out_buff[ox] = ((short) ((in_buff[ix++] & 0xFF) |
-                        (in_buff[ix++] << 8))) * (1.0f / 32767.0f);
-            }
-
+            SoftAudioKernels.toFloat16SL(in_buff, in_offset, out_buff,
+                    out_offset, out_len);
             return out_buff;
         }
 
         public byte[] toByteArray(float[] in_buff, int in_offset, int in_len,
                                   byte[] out_buff, int out_offset) {
-            int ox = out_offset;
-            int len = in_offset + in_len;
-            for (int ix = in_offset; ix < len; ix++) {
-                int x = (int) (in_buff[ix] * 32767.0);
-                out_buff[ox++] = (byte) x;
-                out_buff[ox++] = (byte) (x >>> 8);
-            }
+            SoftAudioKernels.toByte16SL(in_buff, in_offset, in_len, out_buff,
+                    out_offset);
             return out_buff;
         }
     }
@@ -26,11 +26,11 @@ package gervill.com.sun.media.sound;
 
 import gervill.javax.sound.sampled.AudioFormat;
 import gervill.javax.sound.sampled.AudioInputStream;
-import own.main.ImmutableList;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * This class is used to create AudioFloatInputStream from AudioInputStream and
@@ -45,21 +45,83 @@ public abstract class AudioFloatInputStream {
         return new DirectAudioFloatInputStream(stream);
     }
 
-    public static AudioFloatInputStream getInputStream(AudioFormat format, ImmutableList<Byte> buffer, int offset, int len) {
+    public static AudioFloatInputStream getInputStream(AudioFormat format, byte[] buffer, int offset, int len) {
         AudioFloatConverter converter = AudioFloatConverter
                 .getConverter(format);
 
-        byte[] realBuffer = ImmutableList.toArray(buffer);
         if (converter != null)
-            return new BytaArrayAudioFloatInputStream(converter, realBuffer, offset, len);
+            return new BytaArrayAudioFloatInputStream(converter, buffer, offset, len);
 
-        InputStream stream = new ByteArrayInputStream(realBuffer, offset, len);
+        InputStream stream = new ByteArrayInputStream(buffer, offset, len);
         long aLen = format.getFrameSize() == AudioInputStream.NOT_SPECIFIED
                 ? AudioInputStream.NOT_SPECIFIED : len / format.getFrameSize();
         AudioInputStream astream = new AudioInputStream(stream, format, aLen);
         return new DirectAudioFloatInputStream(astream);
     }
 
+    public static AudioFloatInputStream getInputStream(AudioFormat format, ByteBuffer buffer, int offset, int len) {
+        AudioFloatConverter converter = AudioFloatConverter
+                .getConverter(format);
+
+        if (converter != null)
+            return new ByteBufferAudioFloatInputStream(converter, buffer, offset, len);
+
+        byte[] data = new byte[len];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(data);
+        return getInputStream(format, data, 0, len);
+    }
+
+    /*
+     * Variants of the methods above taking a stream that is no longer in
+     * use. When it is a buffer stream decoding the same sample layout it
+     * is pointed at the new data instead of allocating a new stream.
+     */
+    public static AudioFloatInputStream getInputStream(AudioFormat format, byte[] buffer, int offset, int len, AudioFloatInputStream previous) {
+        if (previous instanceof BytaArrayAudioFloatInputStream) {
+            BytaArrayAudioFloatInputStream stream = (BytaArrayAudioFloatInputStream) previous;
+            if (isSameLayout(stream.format, format)) {
+                stream.open(format, buffer, offset, len);
+                return stream;
+            }
+        }
+        return getInputStream(format, buffer, offset, len);
+    }
+
+    public static AudioFloatInputStream getInputStream(AudioFormat format, ByteBuffer buffer, int offset, int len, AudioFloatInputStream previous) {
+        if (previous instanceof ByteBufferAudioFloatInputStream) {
+            ByteBufferAudioFloatInputStream stream = (ByteBufferAudioFloatInputStream) previous;
+            if (isSameLayout(stream.format, format)) {
+                stream.open(format, buffer, offset, len);
+                return stream;
+            }
+        }
+        return getInputStream(format, buffer, offset, len);
+    }
+
+    // Stream over samples already converted to floats, data is not copied.
+    public static AudioFloatInputStream getInputStream(AudioFormat format, float[] data, AudioFloatInputStream previous) {
+        if (previous instanceof FloatArrayAudioFloatInputStream) {
+            FloatArrayAudioFloatInputStream stream = (FloatArrayAudioFloatInputStream) previous;
+            stream.open(format, data);
+            return stream;
+        }
+        return new FloatArrayAudioFloatInputStream(format, data);
+    }
+
+    /*
+     * True when both formats get the same converter, which a reused stream
+     * keeps. AudioFloatConverter.getConverter only looks at these fields;
+     * AudioFormat has no byte order, every format is little-endian.
+     */
+    private static boolean isSameLayout(AudioFormat a, AudioFormat b) {
+        return a.getEncoding().equals(b.getEncoding())
+                && a.getSampleSizeInBits() == b.getSampleSizeInBits()
+                && a.getChannels() == b.getChannels()
+                && a.getFrameSize() == b.getFrameSize();
+    }
+
     public abstract AudioFormat getFormat();
 
     public abstract int read(float[] b, int off, int len) throws IOException;
@@ -72,27 +134,38 @@ public abstract class AudioFloatInputStream {
 
     public abstract void reset() throws IOException;
 
+    // Frames are read rate times faster than the frame rate of the format.
+    // Used by streams reading ahead of the reader.
+    public void setReadRate(double rate) {
+    }
+
     private static class BytaArrayAudioFloatInputStream
             extends AudioFloatInputStream {
 
         private final AudioFloatConverter converter;
-        private final AudioFormat format;
-        private final byte[] buffer;
-        private final int buffer_offset;
-        private final int buffer_len;
         private final int framesize_pc;
+        private AudioFormat format;
+        private byte[] buffer;
+        private int buffer_offset;
+        private int buffer_len;
         private int pos = 0;
         private int markpos = 0;
 
         BytaArrayAudioFloatInputStream(AudioFloatConverter converter,
                                        byte[] buffer, int offset, int len) {
             this.converter = converter;
-            this.format = converter.getFormat();
+            AudioFormat format = converter.getFormat();
+            framesize_pc = format.getFrameSize() / format.getChannels();
+            open(format, buffer, offset, len);
+        }
+
+        void open(AudioFormat format, byte[] buffer, int offset, int len) {
+            this.format = format;
             this.buffer = buffer;
             this.buffer_offset = offset;
-            framesize_pc = format.getFrameSize() / format.getChannels();
             this.buffer_len = len / framesize_pc;
-
+            pos = 0;
+            markpos = 0;
         }
 
         public AudioFormat getFormat() {
@@ -136,6 +209,147 @@ public abstract class AudioFloatInputStream {
         }
     }
 
+    private static class FloatArrayAudioFloatInputStream
+            extends AudioFloatInputStream {
+
+        private AudioFormat format;
+        private float[] data;
+        private int pos = 0;
+        private int markpos = 0;
+
+        FloatArrayAudioFloatInputStream(AudioFormat format, float[] data) {
+            open(format, data);
+        }
+
+        void open(AudioFormat format, float[] data) {
+            this.format = format;
+            this.data = data;
+            pos = 0;
+            markpos = 0;
+        }
+
+        public AudioFormat getFormat() {
+            return format;
+        }
+
+        public int read(float[] b, int off, int len) {
+            if (b == null)
+                throw new NullPointerException();
+            if (off < 0 || len < 0 || len > b.length - off)
+                throw new IndexOutOfBoundsException();
+            if (pos >= data.length)
+                return -1;
+            if (len == 0)
+                return 0;
+            if (pos + len > data.length)
+                len = data.length - pos;
+            System.arraycopy(data, pos, b, off, len);
+            pos += len;
+            return len;
+        }
+
+        public void skip(long len) {
+            if (pos >= data.length || len <= 0)
+                return;
+            if (pos + len > data.length)
+                len = data.length - pos;
+            pos += len;
+        }
+
+        public void close() {
+        }
+
+        public void mark(int readlimit) {
+            markpos = pos;
+        }
+
+        public void reset() {
+            pos = markpos;
+        }
+    }
+
+    private static class ByteBufferAudioFloatInputStream
+            extends AudioFloatInputStream {
+
+        private final AudioFloatConverter converter;
+        private final int framesize_pc;
+        private AudioFormat format;
+        private ByteBuffer buffer;
+        private ByteBuffer view;
+        private int buffer_offset;
+        private int buffer_len;
+        private byte[] bbuffer;
+        private int pos = 0;
+        private int markpos = 0;
+
+        ByteBufferAudioFloatInputStream(AudioFloatConverter converter,
+                                        ByteBuffer buffer, int offset, int len) {
+            this.converter = converter;
+            AudioFormat format = converter.getFormat();
+            framesize_pc = format.getFrameSize() / format.getChannels();
+            open(format, buffer, offset, len);
+        }
+
+        void open(AudioFormat format, ByteBuffer buffer, int offset, int len) {
+            this.format = format;
+            // The buffer is shared with other streams, so reads move the
+            // position of a private view. It is kept while the stream is
+            // reopened over the same buffer.
+            if (buffer != this.buffer) {
+                this.buffer = buffer;
+                view = buffer.duplicate();
+            }
+            this.buffer_offset = offset;
+            this.buffer_len = len / framesize_pc;
+            pos = 0;
+            markpos = 0;
+        }
+
+        public AudioFormat getFormat() {
+            return format;
+        }
+
+        public int read(float[] b, int off, int len) {
+            if (b == null)
+                throw new NullPointerException();
+            if (off < 0 || len < 0 || len > b.length - off)
+                throw new IndexOutOfBoundsException();
+            if (pos >= buffer_len)
+                return -1;
+            if (len == 0)
+                return 0;
+            if (pos + len > buffer_len)
+                len = buffer_len - pos;
+            int b_len = len * framesize_pc;
+            if (bbuffer == null || bbuffer.length < b_len)
+                bbuffer = new byte[b_len];
+            view.position(buffer_offset + pos * framesize_pc);
+            view.get(bbuffer, 0, b_len);
+            converter.toFloatArray(bbuffer, 0, b, off, len);
+            pos += len;
+            return len;
+        }
+
+        public void skip(long len) {
+            if (pos >= buffer_len || len <= 0)
+                return;
+            if (pos + len > buffer_len)
+                len = buffer_len - pos;
+            pos += len;
+        }
+
+        public void close() {
+        }
+
+        public void mark(int readlimit) {
+            markpos = pos;
+        }
+
+        public void reset() {
+            pos = markpos;
+        }
+    }
+
     private static class DirectAudioFloatInputStream
             extends AudioFloatInputStream {
 
@@ -73,6 +73,18 @@ public final class ModelStandardTransform implements ModelTransform {
         this.transform = transform;
     }
 
+    public boolean getDirection() {
+        return direction;
+    }
+
+    public boolean getPolarity() {
+        return polarity;
+    }
+
+    public int getTransform() {
+        return transform;
+    }
+
     public double transform(double value) {
         double s;
         double a;
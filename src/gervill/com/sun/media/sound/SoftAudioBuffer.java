@@ -24,6 +24,8 @@
  */
 package gervill.com.sun.media.sound;
 
+import gervill.javax.sound.sampled.AudioFormat;
+
 import java.util.Arrays;
 
 /**
@@ -33,10 +35,19 @@ import java.util.Arrays;
  */
 public final class SoftAudioBuffer {
 
+    private final int size;
+    private final AudioFormat format;
+    private final AudioFloatConverter converter;
     private float[] buffer;
     private boolean empty = true;
     private byte[] converter_buffer;
 
+    public SoftAudioBuffer(int size, AudioFormat format) {
+        this.size = size;
+        this.format = format;
+        converter = AudioFloatConverter.getConverter(format);
+    }
+
     public void swap(SoftAudioBuffer swap) {
         float[] bak_buffer = buffer;
         boolean bak_empty = empty;
@@ -65,23 +76,37 @@ public final class SoftAudioBuffer {
     public float[] array() {
         empty = false;
         if (buffer == null)
-            buffer = new float[300];
+            buffer = new float[size];
         return buffer;
     }
 
+    public int getSize() {
+        return size;
+    }
+
     public void get(byte[] buffer, int channel) {
 
-        if (converter_buffer == null)
-            converter_buffer = new byte[600];
-
-        SoftSynthesizer.SYNTH_CONVERTER.toByteArray(array(), 300, converter_buffer);
-        if (channel >= 2)
-            return;
-        for (int j = 0; j < 2; j++) {
-            int z = channel * 2 + j;
-            for (int i = 0; i < 300; i++) {
-                buffer[z] = converter_buffer[2 * i + j];
-                z += 4;
+        int framesize_pc = (format.getFrameSize() / format.getChannels());
+        int c_len = size * framesize_pc;
+        if (converter_buffer == null || converter_buffer.length < c_len)
+            converter_buffer = new byte[c_len];
+
+        if (format.getChannels() == 1) {
+            converter.toByteArray(array(), size, buffer);
+        } else {
+            converter.toByteArray(array(), size, converter_buffer);
+            if (channel >= format.getChannels())
+                return;
+            int z_stepover = format.getChannels() * framesize_pc;
+            int k_stepover = framesize_pc;
+            for (int j = 0; j < framesize_pc; j++) {
+                int k = j;
+                int z = channel * framesize_pc + j;
+                for (int i = 0; i < size; i++) {
+                    buffer[z] = converter_buffer[k];
+                    z += z_stepover;
+                    k += k_stepover;
+                }
             }
         }
 
@@ -0,0 +1,494 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.com.sun.media.sound;
+
+/**
+ * Float kernels used per block by the voices, the main mixer, the limiter
+ * and the 16 bit converter.
+ * <p>
+ * The system property {@code gervill.kernels} selects how they run:
+ * <ul>
+ * <li>{@code scalar}: plain counted loops.
+ * <li>{@code unrolled}, the default: the running maximum and the 16 bit
+ * conversions are unrolled by four. Element-wise kernels stay plain
+ * loops, which HotSpot already compiles to SIMD code.
+ * <li>{@code vector}: as {@code unrolled}, but the element-wise kernels
+ * with constant gains and the running maximum use the incubating Vector
+ * API. The implementation is SoftVectorKernels in the Java 17 part of
+ * the multi-release jar, and needs
+ * {@code --add-modules jdk.incubator.vector}. Where it cannot be loaded,
+ * {@code unrolled} is used.
+ * </ul>
+ * Every sample goes through exactly the same float operations in every
+ * mode, so the output is bit for bit identical. Gain ramps accumulate
+ * their gain sample by sample and are plain loops in all modes, as are
+ * the send mixes with fewer than four sends.
+ */
+final class SoftAudioKernels {
+
+    static final int SCALAR = 0;
+    static final int UNROLLED = 1;
+    static final int VECTOR = 2;
+
+    /*
+     * The kernels with a Vector API implementation.
+     */
+    interface Vectorized {
+
+        void mixSends(float[] in,
+                      float[] out1, float a1, float[] out2, float a2,
+                      float[] out3, float a3, float[] out4, float a4,
+                      int off, int len);
+
+        void mixSendsStereo(float[] inL, float[] inR,
+                            float[] out1, float a1, float[] out2, float a2,
+                            float[] out3, float a3, float[] out4, float a4,
+                            int off, int len);
+
+        void addTo2(float[] b, float[] a, float[] c, int len);
+
+        void scale(float[] buf, float amp, int len);
+
+        float peak(float[] a, float[] b, int len);
+    }
+
+    // Null when the Vector API implementation cannot be loaded
+    static final Vectorized VECTORIZED = loadVectorized();
+
+    static final int MODE = mode(System.getProperty("gervill.kernels"));
+
+    private SoftAudioKernels() {
+    }
+
+    private static Vectorized loadVectorized() {
+        try {
+            return (Vectorized) Class.forName(
+                    "gervill.com.sun.media.sound.SoftVectorKernels")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Before Java 17, or the incubator module was not added
+            return null;
+        }
+    }
+
+    private static int mode(String name) {
+        if ("scalar".equals(name))
+            return SCALAR;
+        if ("vector".equals(name) && VECTORIZED != null)
+            return VECTOR;
+        return UNROLLED;
+    }
+
+    /*
+     * Mixes one source into four sends in a single pass. Send k adds
+     * in[i] * ak to outk, with ak advanced by dk before each sample. A
+     * constant gain is a zero delta. Sends that should not be mixed are
+     * pointed at a scratch array by the caller; several of them may share
+     * it.
+     * When no gain ramps, a loop without the running sums is used, which
+     * can be vectorized.
+     */
+    static void mixSends(float[] in,
+                         float[] out1, float a1, float d1,
+                         float[] out2, float a2, float d2,
+                         float[] out3, float a3, float d3,
+                         float[] out4, float a4, float d4,
+                         int off, int len) {
+        mixSends(in, out1, a1, d1, out2, a2, d2, out3, a3, d3, out4, a4, d4,
+                off, len, MODE);
+    }
+
+    static void mixSends(float[] in,
+                         float[] out1, float a1, float d1,
+                         float[] out2, float a2, float d2,
+                         float[] out3, float a3, float d3,
+                         float[] out4, float a4, float d4,
+                         int off, int len, int mode) {
+        int end = off + len;
+        if (d1 == 0 && d2 == 0 && d3 == 0 && d4 == 0) {
+            if (mode == VECTOR) {
+                VECTORIZED.mixSends(in, out1, a1, out2, a2, out3, a3, out4, a4,
+                        off, len);
+                return;
+            }
+            for (int i = off; i < end; i++) {
+                float v = in[i];
+                out1[i] += v * a1;
+                out2[i] += v * a2;
+                out3[i] += v * a3;
+                out4[i] += v * a4;
+            }
+            return;
+        }
+        for (int i = off; i < end; i++) {
+            float v = in[i];
+            a1 += d1;
+            a2 += d2;
+            a3 += d3;
+            a4 += d4;
+            out1[i] += v * a1;
+            out2[i] += v * a2;
+            out3[i] += v * a3;
+            out4[i] += v * a4;
+        }
+    }
+
+    /*
+     * As mixSends for a stereo source: left goes to out1, right to out2
+     * and both to out3 and out4, left first.
+     */
+    static void mixSendsStereo(float[] inL, float[] inR,
+                               float[] out1, float a1, float d1,
+                               float[] out2, float a2, float d2,
+                               float[] out3, float a3, float d3,
+                               float[] out4, float a4, float d4,
+                               int off, int len) {
+        mixSendsStereo(inL, inR, out1, a1, d1, out2, a2, d2, out3, a3, d3,
+                out4, a4, d4, off, len, MODE);
+    }
+
+    static void mixSendsStereo(float[] inL, float[] inR,
+                               float[] out1, float a1, float d1,
+                               float[] out2, float a2, float d2,
+                               float[] out3, float a3, float d3,
+                               float[] out4, float a4, float d4,
+                               int off, int len, int mode) {
+        int end = off + len;
+        if (d1 == 0 && d2 == 0 && d3 == 0 && d4 == 0) {
+            if (mode == VECTOR) {
+                VECTORIZED.mixSendsStereo(inL, inR, out1, a1, out2, a2,
+                        out3, a3, out4, a4, off, len);
+                return;
+            }
+            for (int i = off; i < end; i++) {
+                float l = inL[i];
+                float r = inR[i];
+                out1[i] += l * a1;
+                out2[i] += r * a2;
+                out3[i] = out3[i] + l * a3 + r * a3;
+                out4[i] = out4[i] + l * a4 + r * a4;
+            }
+            return;
+        }
+        for (int i = off; i < end; i++) {
+            float l = inL[i];
+            float r = inR[i];
+            a1 += d1;
+            a2 += d2;
+            a3 += d3;
+            a4 += d4;
+            out1[i] += l * a1;
+            out2[i] += r * a2;
+            out3[i] = out3[i] + l * a3 + r * a3;
+            out4[i] = out4[i] + l * a4 + r * a4;
+        }
+    }
+
+    /*
+     * As mixSends with fewer sends, for voices whose other sends are
+     * silent. Each send gets the same operations as in mixSends.
+     */
+    static void mixSends1(float[] in,
+                          float[] out1, float a1, float d1,
+                          int off, int len) {
+        int end = off + len;
+        if (d1 == 0) {
+            for (int i = off; i < end; i++)
+                out1[i] += in[i] * a1;
+            return;
+        }
+        for (int i = off; i < end; i++) {
+            a1 += d1;
+            out1[i] += in[i] * a1;
+        }
+    }
+
+    static void mixSends2(float[] in,
+                          float[] out1, float a1, float d1,
+                          float[] out2, float a2, float d2,
+                          int off, int len) {
+        int end = off + len;
+        if (d1 == 0 && d2 == 0) {
+            for (int i = off; i < end; i++) {
+                float v = in[i];
+                out1[i] += v * a1;
+                out2[i] += v * a2;
+            }
+            return;
+        }
+        for (int i = off; i < end; i++) {
+            float v = in[i];
+            a1 += d1;
+            a2 += d2;
+            out1[i] += v * a1;
+            out2[i] += v * a2;
+        }
+    }
+
+    static void mixSends3(float[] in,
+                          float[] out1, float a1, float d1,
+                          float[] out2, float a2, float d2,
+                          float[] out3, float a3, float d3,
+                          int off, int len) {
+        int end = off + len;
+        if (d1 == 0 && d2 == 0 && d3 == 0) {
+            for (int i = off; i < end; i++) {
+                float v = in[i];
+                out1[i] += v * a1;
+                out2[i] += v * a2;
+                out3[i] += v * a3;
+            }
+            return;
+        }
+        for (int i = off; i < end; i++) {
+            float v = in[i];
+            a1 += d1;
+            a2 += d2;
+            a3 += d3;
+            out1[i] += v * a1;
+            out2[i] += v * a2;
+            out3[i] += v * a3;
+        }
+    }
+
+    // As mixSendsStereo without effect sends
+    static void mixSendsStereo2(float[] inL, float[] inR,
+                                float[] out1, float a1, float d1,
+                                float[] out2, float a2, float d2,
+                                int off, int len) {
+        int end = off + len;
+        if (d1 == 0 && d2 == 0) {
+            for (int i = off; i < end; i++) {
+                out1[i] += inL[i] * a1;
+                out2[i] += inR[i] * a2;
+            }
+            return;
+        }
+        for (int i = off; i < end; i++) {
+            a1 += d1;
+            a2 += d2;
+            out1[i] += inL[i] * a1;
+            out2[i] += inR[i] * a2;
+        }
+    }
+
+    // As mixSendsStereo with one effect send
+    static void mixSendsStereo3(float[] inL, float[] inR,
+                                float[] out1, float a1, float d1,
+                                float[] out2, float a2, float d2,
+                                float[] out3, float a3, float d3,
+                                int off, int len) {
+        int end = off + len;
+        if (d1 == 0 && d2 == 0 && d3 == 0) {
+            for (int i = off; i < end; i++) {
+                float l = inL[i];
+                float r = inR[i];
+                out1[i] += l * a1;
+                out2[i] += r * a2;
+                out3[i] = out3[i] + l * a3 + r * a3;
+            }
+            return;
+        }
+        for (int i = off; i < end; i++) {
+            float l = inL[i];
+            float r = inR[i];
+            a1 += d1;
+            a2 += d2;
+            a3 += d3;
+            out1[i] += l * a1;
+            out2[i] += r * a2;
+            out3[i] = out3[i] + l * a3 + r * a3;
+        }
+    }
+
+    // One effect send of a stereo source: both channels go to out
+    static void mixSendsSum(float[] inL, float[] inR,
+                            float[] out, float a, float d,
+                            int off, int len) {
+        int end = off + len;
+        if (d == 0) {
+            for (int i = off; i < end; i++)
+                out[i] = out[i] + inL[i] * a + inR[i] * a;
+            return;
+        }
+        for (int i = off; i < end; i++) {
+            a += d;
+            out[i] = out[i] + inL[i] * a + inR[i] * a;
+        }
+    }
+
+    // a[i] += b[i]; c[i] += b[i]
+    static void addTo2(float[] b, float[] a, float[] c, int len) {
+        addTo2(b, a, c, len, MODE);
+    }
+
+    static void addTo2(float[] b, float[] a, float[] c, int len, int mode) {
+        if (mode == VECTOR) {
+            VECTORIZED.addTo2(b, a, c, len);
+            return;
+        }
+        for (int i = 0; i < len; i++) {
+            float v = b[i];
+            a[i] += v;
+            c[i] += v;
+        }
+    }
+
+    // buf[i] *= amp
+    static void scale(float[] buf, float amp, int len) {
+        scale(buf, amp, len, MODE);
+    }
+
+    static void scale(float[] buf, float amp, int len, int mode) {
+        if (mode == VECTOR) {
+            VECTORIZED.scale(buf, amp, len);
+            return;
+        }
+        for (int i = 0; i < len; i++)
+            buf[i] *= amp;
+    }
+
+    // buf[i] *= amp, with amp advanced by amp_delta before each sample
+    static void scaleRamp(float[] buf, float amp, float amp_delta, int len) {
+        for (int i = 0; i < len; i++) {
+            amp += amp_delta;
+            buf[i] *= amp;
+        }
+    }
+
+    /*
+     * Swaps buf with the previous block kept in delay and scales the
+     * delayed samples by amp, advanced by amp_delta before each sample.
+     */
+    static void delayScaleRamp(float[] buf, float[] delay, float amp,
+                               float amp_delta, int len) {
+        for (int i = 0; i < len; i++) {
+            amp += amp_delta;
+            float d = delay[i];
+            delay[i] = buf[i];
+            buf[i] = d * amp;
+        }
+    }
+
+    /*
+     * Largest absolute value in a and b, at least 0. NaN samples are
+     * ignored. Taking the maximum does not depend on order, so partial
+     * maxima give the same result as one running maximum.
+     */
+    static float peak(float[] a, float[] b, int len) {
+        return peak(a, b, len, MODE);
+    }
+
+    static float peak(float[] a, float[] b, int len, int mode) {
+        if (mode == VECTOR)
+            return VECTORIZED.peak(a, b, len);
+        float m0 = 0;
+        int i = 0;
+        if (mode == UNROLLED) {
+            float m1 = 0;
+            float m2 = 0;
+            float m3 = 0;
+            for (int end = len & ~3; i < end; i += 4) {
+                m0 = max(m0, Math.abs(a[i]), Math.abs(b[i]));
+                m1 = max(m1, Math.abs(a[i + 1]), Math.abs(b[i + 1]));
+                m2 = max(m2, Math.abs(a[i + 2]), Math.abs(b[i + 2]));
+                m3 = max(m3, Math.abs(a[i + 3]), Math.abs(b[i + 3]));
+            }
+            if (m1 > m0)
+                m0 = m1;
+            if (m3 > m2)
+                m2 = m3;
+            if (m2 > m0)
+                m0 = m2;
+        }
+        for (; i < len; i++)
+            m0 = max(m0, Math.abs(a[i]), Math.abs(b[i]));
+        return m0;
+    }
+
+    static float max(float m, float x, float y) {
+        if (x > m)
+            m = x;
+        if (y > m)
+            m = y;
+        return m;
+    }
+
+    // Signed 16 bit little-endian samples to floats
+    static void toFloat16SL(byte[] in, int ix, float[] out, int ox, int len) {
+        toFloat16SL(in, ix, out, ox, len, MODE);
+    }
+
+    static void toFloat16SL(byte[] in, int ix, float[] out, int ox, int len,
+                            int mode) {
+        int end = ox + len;
+        if (mode != SCALAR) {
+            for (int end4 = ox + (len & ~3); ox < end4; ox += 4, ix += 8) {
+                out[ox] = ((short) ((in[ix] & 0xFF) | (in[ix + 1] << 8)))
+                        * (1.0f / 32767.0f);
+                out[ox + 1] = ((short) ((in[ix + 2] & 0xFF) | (in[ix + 3] << 8)))
+                        * (1.0f / 32767.0f);
+                out[ox + 2] = ((short) ((in[ix + 4] & 0xFF) | (in[ix + 5] << 8)))
+                        * (1.0f / 32767.0f);
+                out[ox + 3] = ((short) ((in[ix + 6] & 0xFF) | (in[ix + 7] << 8)))
+                        * (1.0f / 32767.0f);
+            }
+        }
+        for (; ox < end; ox++, ix += 2)
+            out[ox] = ((short) ((in[ix] & 0xFF) | (in[ix + 1] << 8)))
+                    * (1.0f / 32767.0f);
+    }
+
+    // Floats to signed 16 bit little-endian samples
+    static void toByte16SL(float[] in, int ix, int len, byte[] out, int ox) {
+        toByte16SL(in, ix, len, out, ox, MODE);
+    }
+
+    static void toByte16SL(float[] in, int ix, int len, byte[] out, int ox,
+                           int mode) {
+        int end = ix + len;
+        if (mode != SCALAR) {
+            for (int end4 = ix + (len & ~3); ix < end4; ix += 4, ox += 8) {
+                int x0 = (int) (in[ix] * 32767.0);
+                int x1 = (int) (in[ix + 1] * 32767.0);
+                int x2 = (int) (in[ix + 2] * 32767.0);
+                int x3 = (int) (in[ix + 3] * 32767.0);
+                out[ox] = (byte) x0;
+                out[ox + 1] = (byte) (x0 >>> 8);
+                out[ox + 2] = (byte) x1;
+                out[ox + 3] = (byte) (x1 >>> 8);
+                out[ox + 4] = (byte) x2;
+                out[ox + 5] = (byte) (x2 >>> 8);
+                out[ox + 6] = (byte) x3;
+                out[ox + 7] = (byte) (x3 >>> 8);
+            }
+        }
+        for (; ix < end; ix++, ox += 2) {
+            int x = (int) (in[ix] * 32767.0);
+            out[ox] = (byte) x;
+            out[ox + 1] = (byte) (x >>> 8);
+        }
+    }
+}
@@ -42,9 +42,10 @@ public final class SoftAudioPusher implements Runnable {
     private volatile boolean active = false;
     private Thread audiothread;
 
-    public SoftAudioPusher(SourceDataLine sourceDataLine, AudioInputStream ais) {
+    public SoftAudioPusher(SourceDataLine sourceDataLine, AudioInputStream ais,
+                           int bufferSize) {
         this.ais = ais;
-        this.buffer = new byte[1200];
+        this.buffer = new byte[bufferSize];
         this.sourceDataLine = sourceDataLine;
     }
 
@@ -99,37 +99,8 @@ public final class SoftChannel implements MidiChannel {
     private final int[] controller = new int[128];
     private final double[] co_midi_pitch = new double[1];
     private final double[] co_midi_channel_pressure = new double[1];
-    private final ImmutableList<MidiControlObject> co_midi = ImmutableList.create(128, index -> new MidiControlObject());
+    private final double[][] co_midi_poly_pressure = new double[128][1];
     private final double[][] co_midi_cc_cc = new double[128][1];
-    private final SoftControl co_midi_cc = new SoftControl() {
-        final double[][] cc = co_midi_cc_cc;
-
-        public double[] get(int instance, String name) {
-            if (name == null)
-                return null;
-            return cc[Integer.parseInt(name)];
-        }
-    };
-    private final SoftControl co_midi_rpn = new SoftControl() {
-        final Map<Integer, double[]> rpn = co_midi_rpn_rpn;
-
-        public double[] get(int instance, String name) {
-            if (name == null)
-                return null;
-            int iname = Integer.parseInt(name);
-            return rpn.computeIfAbsent(iname, k -> new double[1]);
-        }
-    };
-    private final SoftControl co_midi_nrpn = new SoftControl() {
-        final Map<Integer, double[]> nrpn = co_midi_nrpn_nrpn;
-
-        public double[] get(int instance, String name) {
-            if (name == null)
-                return null;
-            int iname = Integer.parseInt(name);
-            return nrpn.computeIfAbsent(iname, k -> new double[1]);
-        }
-    };
     private final int[] lastVelocity = new int[128];
     double portamento_time = 1; // keyschanges per control buffer time
     int portamento_lastnote_ix = 0;
@@ -153,6 +124,13 @@ public final class SoftChannel implements MidiChannel {
     private int play_noteNumber = 0;
     private int play_velocity = 0;
     private boolean play_releasetriggered = false;
+    // Active voices of this channel in start order, and the same voices
+    // grouped by note, linked through the SoftVoice list fields
+    private SoftVoice first_voice = null;
+    private SoftVoice last_voice = null;
+    private final SoftVoice[] note_voices = new SoftVoice[128];
+    // Voices being stolen to play a note on this channel
+    int stolen_voices = 0;
 
     public SoftChannel(SoftSynthesizer synth, int channel) {
         this.channel = channel;
@@ -181,52 +159,63 @@ public final class SoftChannel implements MidiChannel {
             // Therefore we have to return -1.
             return -1;
         }
-        for (int i = x; i < voices.length; i++)
-            if (!voices[i].active)
-                return i;
-
-        // No free voice was found, we must steal one
-
-        // Default Voice Allocation
-        //  * Find voice that is on
-        //    and Find voice which has lowest voiceID ( oldest voice)
-        //  * Or find voice that is off
-        //    and Find voice which has lowest voiceID ( oldest voice)
-
-        int voiceNo = -1;
-
-        SoftVoice v = null;
-        // Search for oldest voice in off state
-        for (int j = 0; j < voices.length; j++) {
-            if (voices[j].stealer_channel == null && !voices[j].on) {
-                if (v == null) {
-                    v = voices[j];
-                    voiceNo = j;
-                }
-                if (voices[j].voiceID < v.voiceID) {
-                    v = voices[j];
-                    voiceNo = j;
-                }
-            }
-        }
-        // Search for oldest voice in on state
-        if (voiceNo == -1) {
-
-            for (int j = 0; j < voices.length; j++) {
-                if (voices[j].stealer_channel == null) {
-                    if (v == null) {
-                        v = voices[j];
-                        voiceNo = j;
-                    }
-                    if (voices[j].voiceID < v.voiceID) {
-                        v = voices[j];
-                        voiceNo = j;
-                    }
-                }
-            }
-        }
+        SoftVoiceAllocator allocator = synthesizer.getVoiceAllocator();
+        int voiceNo = allocator.findFree(x);
+        if (voiceNo != -1)
+            return voiceNo;
+
+        // No free voice was found, we must steal the oldest one,
+        // preferring voices that are off
+        return allocator.findSteal();
+    }
+
+    void voiceStarted(SoftVoice voice) {
+        if (voice.listed_channel != null)
+            voice.listed_channel.voiceStopped(voice);
+        voice.listed_channel = this;
+        voice.channel_prev = last_voice;
+        voice.channel_next = null;
+        if (last_voice != null)
+            last_voice.channel_next = voice;
+        else
+            first_voice = voice;
+        last_voice = voice;
+        linkNote(voice);
+    }
+
+    void voiceStopped(SoftVoice voice) {
+        unlinkNote(voice);
+        if (voice.channel_prev != null)
+            voice.channel_prev.channel_next = voice.channel_next;
+        else
+            first_voice = voice.channel_next;
+        if (voice.channel_next != null)
+            voice.channel_next.channel_prev = voice.channel_prev;
+        else
+            last_voice = voice.channel_prev;
+        voice.channel_prev = null;
+        voice.channel_next = null;
+        voice.listed_channel = null;
+    }
 
-        return voiceNo;
+    void linkNote(SoftVoice voice) {
+        SoftVoice head = note_voices[voice.note];
+        voice.note_prev = null;
+        voice.note_next = head;
+        if (head != null)
+            head.note_prev = voice;
+        note_voices[voice.note] = voice;
+    }
+
+    void unlinkNote(SoftVoice voice) {
+        if (voice.note_prev != null)
+            voice.note_prev.note_next = voice.note_next;
+        else
+            note_voices[voice.note] = voice.note_next;
+        if (voice.note_next != null)
+            voice.note_next.note_prev = voice.note_prev;
+        voice.note_prev = null;
+        voice.note_next = null;
     }
 
     void initVoice(SoftVoice voice, SoftPerformer p, int voiceID,
@@ -235,14 +224,17 @@ public final class SoftChannel implements MidiChannel {
         if (voice.active) {
             // Voice is active , we must steal the voice
             voice.stealer_channel = this;
+            stolen_voices++;
+            synthesizer.getVoiceAllocator().voiceStolen(voice);
             voice.stealer_performer = p;
             voice.stealer_voiceID = voiceID;
             voice.stealer_noteNumber = noteNumber;
             voice.stealer_velocity = velocity;
             voice.stealer_extendedConnectionBlocks = connectionBlocks;
             voice.stealer_releaseTriggered = releaseTriggered;
-            for (SoftVoice softVoice : voices)
-                if (softVoice.active && softVoice.voiceID == voice.voiceID)
+            for (SoftVoice softVoice = voice.softchannel.first_voice;
+                 softVoice != null; softVoice = softVoice.channel_next)
+                if (softVoice.voiceID == voice.voiceID)
                     softVoice.soundOff();
             return;
         }
@@ -254,11 +246,6 @@ public final class SoftChannel implements MidiChannel {
         voice.softchannel = this;
         voice.channel = channel;
         voice.performer = p;
-        voice.objects.clear();
-        voice.objects.put("midi", co_midi.get(noteNumber));
-        voice.objects.put("midi_cc", co_midi_cc);
-        voice.objects.put("midi_rpn", co_midi_rpn);
-        voice.objects.put("midi_nrpn", co_midi_nrpn);
         voice.noteOn(noteNumber, velocity);
         voice.setMute(mute);
         voice.setSoloMute(solomute);
@@ -298,6 +285,29 @@ public final class SoftChannel implements MidiChannel {
         noteOn_internal(noteNumber, velocity);
     }
 
+    public void noteOn(int noteNumber, int velocity, long timeStamp) {
+        schedule(timeStamp, SoftQueuedChannel.NOTE_ON, noteNumber, velocity);
+    }
+
+    private void schedule(long timeStamp, int type, int data1, int data2) {
+        SoftMainMixer mainmixer = synthesizer.getMainMixer();
+        if (mainmixer != null)
+            mainmixer.schedule(timeStamp, (type << 4) | channel, data1, data2);
+    }
+
+    // Applies events inside a block to the voices already sounding
+    void updateVoiceControls() {
+        SoftVoice next;
+        for (SoftVoice voice = first_voice; voice != null; voice = next) {
+            // Starting a voice may unlink it
+            next = voice.channel_next;
+            if (voice.started)
+                voice.processControlLogic();
+            else
+                voice.updateControls();
+        }
+    }
+
     private void noteOn_internal(int noteNumber, int velocity) {
 
         if (velocity == 0) {
@@ -308,10 +318,9 @@ public final class SoftChannel implements MidiChannel {
         synchronized (control_mutex) {
             if (sustain) {
                 sustain = false;
-                for (SoftVoice voice : voices) {
-                    if ((voice.sustain || voice.on)
-                            && voice.channel == channel && voice.active
-                            && voice.note == noteNumber) {
+                for (SoftVoice voice = note_voices[noteNumber]; voice != null;
+                     voice = voice.note_next) {
+                    if (voice.sustain || voice.on) {
                         voice.sustain = false;
                         voice.on = true;
                         voice.noteOff();
@@ -323,10 +332,9 @@ public final class SoftChannel implements MidiChannel {
             if (mono) {
                 if (portamento) {
                     boolean n_found = false;
-                    for (SoftVoice voice : voices) {
-                        if (voice.on && voice.channel == channel
-                                && voice.active
-                                && !voice.releaseTriggered) {
+                    for (SoftVoice voice = first_voice; voice != null;
+                         voice = voice.channel_next) {
+                        if (voice.on && !voice.releaseTriggered) {
                             voice.portamento = true;
                             voice.setNote(noteNumber);
                             n_found = true;
@@ -340,11 +348,12 @@ public final class SoftChannel implements MidiChannel {
 
                 if (controller[84] != 0) {
                     boolean n_found = false;
-                    for (SoftVoice voice : voices) {
-                        if (voice.on && voice.channel == channel
-                                && voice.active
-                                && voice.note == controller[84]
-                                && !voice.releaseTriggered) {
+                    SoftVoice next;
+                    for (SoftVoice voice = note_voices[controller[84]];
+                         voice != null; voice = next) {
+                        // setNote moves the voice to the list of noteNumber
+                        next = voice.note_next;
+                        if (voice.on && !voice.releaseTriggered) {
                             voice.portamento = true;
                             voice.setNote(noteNumber);
                             n_found = true;
@@ -409,6 +418,10 @@ public final class SoftChannel implements MidiChannel {
 
     }
 
+    public void noteOff(int noteNumber, int velocity, long timeStamp) {
+        schedule(timeStamp, SoftQueuedChannel.NOTE_OFF, noteNumber, velocity);
+    }
+
     private void noteOff_internal(int noteNumber) {
         synchronized (control_mutex) {
 
@@ -421,14 +434,17 @@ public final class SoftChannel implements MidiChannel {
                 }
             }
 
-            for (SoftVoice voice : voices) {
-                if (voice.on && voice.channel == channel
-                        && voice.note == noteNumber
-                        && !voice.releaseTriggered) {
+            for (SoftVoice voice = note_voices[noteNumber]; voice != null;
+                 voice = voice.note_next) {
+                if (voice.on && !voice.releaseTriggered)
                     voice.noteOff();
-                }
-                // We must also check stolen voices
+            }
+
+            // We must also check stolen voices
+            for (int i = 0; stolen_voices != 0 && i < voices.length; i++) {
+                SoftVoice voice = voices[i];
                 if (voice.stealer_channel == this && voice.stealer_noteNumber == noteNumber) {
+                    stolen_voices--;
                     voice.stealer_releaseTriggered = false;
                     voice.stealer_channel = null;
                     voice.stealer_performer = null;
@@ -436,6 +452,7 @@ public final class SoftChannel implements MidiChannel {
                     voice.stealer_noteNumber = 0;
                     voice.stealer_velocity = 0;
                     voice.stealer_extendedConnectionBlocks = null;
+                    synthesizer.getVoiceAllocator().voiceReleased(voice);
                 }
             }
 
@@ -467,9 +484,9 @@ public final class SoftChannel implements MidiChannel {
             firstVoice = false;
             if (p.exclusiveClass != 0) {
                 int x = p.exclusiveClass;
-                for (SoftVoice voice : voices) {
-                    if (voice.active && voice.channel == channel
-                            && voice.exclusiveClass == x) {
+                for (SoftVoice voice = first_voice; voice != null;
+                     voice = voice.channel_next) {
+                    if (voice.exclusiveClass == x) {
                         if (!(p.selfNonExclusive && voice.note == noteNumber))
                             voice.shutdown();
                     }
@@ -496,12 +513,11 @@ public final class SoftChannel implements MidiChannel {
         pressure = restrict7Bit(pressure);
 
         synchronized (control_mutex) {
-            co_midi.get(noteNumber).get(0, "poly_pressure")[0] = pressure * (1.0 / 128.0);
+            co_midi_poly_pressure[noteNumber][0] = pressure * (1.0 / 128.0);
             polypressure[noteNumber] = pressure;
-            for (SoftVoice voice : voices) {
-                if (voice.active && voice.note == noteNumber)
-                    voice.setPolyPressure();
-            }
+            for (SoftVoice voice = note_voices[noteNumber]; voice != null;
+                 voice = voice.note_next)
+                voice.setPolyPressure();
         }
     }
 
@@ -522,10 +538,9 @@ public final class SoftChannel implements MidiChannel {
         synchronized (control_mutex) {
             co_midi_channel_pressure[0] = pressure * (1.0 / 128.0);
             channelpressure = pressure;
-            for (SoftVoice voice : voices) {
-                if (voice.active)
-                    voice.setChannelPressure();
-            }
+            for (SoftVoice voice = first_voice; voice != null;
+                 voice = voice.channel_next)
+                voice.setChannelPressure();
         }
     }
 
@@ -570,21 +585,25 @@ public final class SoftChannel implements MidiChannel {
         }
 
         if (controller < 120) {
-            for (SoftVoice voice : voices)
-                if (voice.active)
-                    voice.controlChange(controller);
+            for (SoftVoice voice = first_voice; voice != null;
+                 voice = voice.channel_next)
+                voice.controlChange(controller);
         } else if (controller == 120) {
-            for (SoftVoice voice : voices)
-                if (voice.active)
-                    voice.rpnChange(1);
+            for (SoftVoice voice = first_voice; voice != null;
+                 voice = voice.channel_next)
+                voice.rpnChange(1);
         } else if (controller == 121) {
-            for (SoftVoice voice : voices)
-                if (voice.active)
-                    voice.rpnChange(2);
+            for (SoftVoice voice = first_voice; voice != null;
+                 voice = voice.channel_next)
+                voice.rpnChange(2);
         }
 
     }
 
+    public void controlChange(int controller, int value, long timeStamp) {
+        schedule(timeStamp, SoftQueuedChannel.CONTROL_CHANGE, controller, value);
+    }
+
     public void controlChange(int controller, int value) {
         controller = restrict7Bit(controller);
         value = restrict7Bit(value);
@@ -606,7 +625,7 @@ public final class SoftChannel implements MidiChannel {
                     // Convert x from cent/msec to key/controlbuffertime
                     x = x / 100.0;                      // x is now keys/msec
                     x = x * 1000.0;                     // x is now keys/sec
-                    x = x / 147f; // x is now keys/controlbuffertime
+                    x = x / synthesizer.getConfig().getControlRate(); // x is now keys/controlbuffertime
                     portamento_time = x;
                     break;
                 case 6:
@@ -650,9 +669,9 @@ public final class SoftChannel implements MidiChannel {
                     if (sustain != on) {
                         sustain = on;
                         if (!on) {
-                            for (SoftVoice voice : voices) {
-                                if (voice.active && voice.sustain &&
-                                        voice.channel == channel) {
+                            for (SoftVoice voice = first_voice; voice != null;
+                                 voice = voice.channel_next) {
+                                if (voice.sustain) {
                                     voice.sustain = false;
                                     if (!voice.on) {
                                         voice.on = true;
@@ -661,9 +680,9 @@ public final class SoftChannel implements MidiChannel {
                                 }
                             }
                         } else {
-                            for (SoftVoice voice : voices)
-                                if (voice.active && voice.channel == channel)
-                                    voice.redamp();
+                            for (SoftVoice voice = first_voice; voice != null;
+                                 voice = voice.channel_next)
+                                voice.redamp();
                         }
                     }
                     break;
@@ -680,17 +699,17 @@ public final class SoftChannel implements MidiChannel {
                 case 66: // Sostenuto (cc#66)
                     on = value >= 64;
                     if (on) {
-                        for (SoftVoice voice : voices) {
-                            if (voice.active && voice.on &&
-                                    voice.channel == channel) {
+                        for (SoftVoice voice = first_voice; voice != null;
+                             voice = voice.channel_next) {
+                            if (voice.on) {
                                 voice.sostenuto = true;
                             }
                         }
                     }
                     if (!on) {
-                        for (SoftVoice voice : voices) {
-                            if (voice.active && voice.sostenuto &&
-                                    voice.channel == channel) {
+                        for (SoftVoice voice = first_voice; voice != null;
+                             voice = voice.channel_next) {
+                            if (voice.sostenuto) {
                                 voice.sostenuto = false;
                                 if (!voice.on) {
                                     voice.on = true;
@@ -753,9 +772,9 @@ public final class SoftChannel implements MidiChannel {
             if (controller < 0x20)
                 this.controller[controller + 0x20] = 0;
 
-            for (SoftVoice voice : voices)
-                if (voice.active)
-                    voice.controlChange(controller);
+            for (SoftVoice voice = first_voice; voice != null;
+                 voice = voice.channel_next)
+                voice.controlChange(controller);
 
         }
     }
@@ -779,14 +798,18 @@ public final class SoftChannel implements MidiChannel {
         }
     }
 
+    public void setPitchBend(int bend, long timeStamp) {
+        schedule(timeStamp, SoftQueuedChannel.PITCH_BEND, bend, 0);
+    }
+
     public void setPitchBend(int bend) {
         bend = restrict14Bit(bend);
         synchronized (control_mutex) {
             co_midi_pitch[0] = bend * (1.0 / 16384.0);
             pitchbend = bend;
-            for (SoftVoice voice : voices)
-                if (voice.active)
-                    voice.setPitchBend();
+            for (SoftVoice voice = first_voice; voice != null;
+                 voice = voice.channel_next)
+                voice.setPitchBend();
         }
     }
 
@@ -841,9 +864,9 @@ public final class SoftChannel implements MidiChannel {
         val_i[0] = value;
         val_d[0] = val_i[0] * (1.0 / 16384.0);
 
-        for (SoftVoice voice : voices)
-            if (voice.active)
-                voice.nrpnChange(controller);
+        for (SoftVoice voice = first_voice; voice != null;
+             voice = voice.channel_next)
+            voice.nrpnChange(controller);
 
     }
 
@@ -870,9 +893,9 @@ public final class SoftChannel implements MidiChannel {
         val_i[0] = value;
         val_d[0] = val_i[0] * (1.0 / 16384.0);
 
-        for (SoftVoice voice : voices)
-            if (voice.active)
-                voice.rpnChange(controller);
+        for (SoftVoice voice = first_voice; voice != null;
+             voice = voice.channel_next)
+            voice.rpnChange(controller);
     }
 
     public void resetAllControllers() {
@@ -937,9 +960,9 @@ public final class SoftChannel implements MidiChannel {
 
     public void allNotesOff() {
         synchronized (control_mutex) {
-            for (SoftVoice voice : voices)
-                if (voice.on && voice.channel == channel
-                        && !voice.releaseTriggered) {
+            for (SoftVoice voice = first_voice; voice != null;
+                 voice = voice.channel_next)
+                if (voice.on && !voice.releaseTriggered) {
                     voice.noteOff();
                 }
         }
@@ -947,8 +970,9 @@ public final class SoftChannel implements MidiChannel {
 
     public void allSoundOff() {
         synchronized (control_mutex) {
-            for (SoftVoice voice : voices)
-                if (voice.on && voice.channel == channel)
+            for (SoftVoice voice = first_voice; voice != null;
+                 voice = voice.channel_next)
+                if (voice.on)
                     voice.soundOff();
         }
     }
@@ -984,9 +1008,9 @@ public final class SoftChannel implements MidiChannel {
     public void setMute(boolean mute) {
         synchronized (control_mutex) {
             this.mute = mute;
-            for (SoftVoice voice : voices)
-                if (voice.active && voice.channel == channel)
-                    voice.setMute(mute);
+            for (SoftVoice voice = first_voice; voice != null;
+                 voice = voice.channel_next)
+                voice.setMute(mute);
         }
     }
 
@@ -995,9 +1019,9 @@ public final class SoftChannel implements MidiChannel {
             if (solomute == mute)
                 return;
             this.solomute = mute;
-            for (SoftVoice voice : voices)
-                if (voice.active && voice.channel == channel)
-                    voice.setSoloMute(solomute);
+            for (SoftVoice voice = first_voice; voice != null;
+                 voice = voice.channel_next)
+                voice.setSoloMute(solomute);
         }
     }
 
@@ -1033,21 +1057,28 @@ public final class SoftChannel implements MidiChannel {
 
     }
 
-    private final class MidiControlObject implements SoftControl {
-        private final double[] pitch = co_midi_pitch;
-        private final double[] channel_pressure = co_midi_channel_pressure;
-        private final double[] poly_pressure = new double[1];
-
-        public double[] get(int instance, String name) {
-            if (name == null)
+    // MIDI control value of a SoftControlSlot for the given note
+    double[] getControl(int object, int variable, int note) {
+        switch (object) {
+            case SoftControlSlot.OBJ_MIDI:
+                switch (variable) {
+                    case SoftControlSlot.MIDI_PITCH:
+                        return co_midi_pitch;
+                    case SoftControlSlot.MIDI_CHANNEL_PRESSURE:
+                        return co_midi_channel_pressure;
+                    case SoftControlSlot.MIDI_POLY_PRESSURE:
+                        return co_midi_poly_pressure[note];
+                    default:
+                        return null;
+                }
+            case SoftControlSlot.OBJ_MIDI_CC:
+                return co_midi_cc_cc[variable];
+            case SoftControlSlot.OBJ_MIDI_RPN:
+                return co_midi_rpn_rpn.computeIfAbsent(variable, k -> new double[1]);
+            case SoftControlSlot.OBJ_MIDI_NRPN:
+                return co_midi_nrpn_nrpn.computeIfAbsent(variable, k -> new double[1]);
+            default:
                 return null;
-            if (name.equals("pitch"))
-                return pitch;
-            if (name.equals("channel_pressure"))
-                return channel_pressure;
-            if (name.equals("poly_pressure"))
-                return poly_pressure;
-            return null;
         }
     }
 }
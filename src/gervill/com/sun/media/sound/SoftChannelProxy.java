@@ -59,6 +59,12 @@ public final class SoftChannelProxy implements MidiChannel {
         channel.controlChange(controller, value);
     }
 
+    public void controlChange(int controller, int value, long timeStamp) {
+        if (channel == null)
+            return;
+        channel.controlChange(controller, value, timeStamp);
+    }
+
     public int getChannelPressure() {
         if (channel == null)
             return 0;
@@ -125,6 +131,12 @@ public final class SoftChannelProxy implements MidiChannel {
         channel.setPitchBend(bend);
     }
 
+    public void setPitchBend(int bend, long timeStamp) {
+        if (channel == null)
+            return;
+        channel.setPitchBend(bend, timeStamp);
+    }
+
     public int getPolyPressure(int noteNumber) {
         if (channel == null)
             return 0;
@@ -155,12 +167,24 @@ public final class SoftChannelProxy implements MidiChannel {
         channel.noteOff(noteNumber, velocity);
     }
 
+    public void noteOff(int noteNumber, int velocity, long timeStamp) {
+        if (channel == null)
+            return;
+        channel.noteOff(noteNumber, velocity, timeStamp);
+    }
+
     public void noteOn(int noteNumber, int velocity) {
         if (channel == null)
             return;
         channel.noteOn(noteNumber, velocity);
     }
 
+    public void noteOn(int noteNumber, int velocity, long timeStamp) {
+        if (channel == null)
+            return;
+        channel.noteOn(noteNumber, velocity, timeStamp);
+    }
+
     public void instrumentChange(Instrument instrument) {
         if (channel == null)
             return;
@@ -35,15 +35,20 @@ public final class SoftChorus {
     private final SoftAudioBuffer inputA;
     private final SoftAudioBuffer left;
     private final SoftAudioBuffer right;
-    private final LFODelay vdelay1L = new LFODelay(0.5 * Math.PI);
-    private final LFODelay vdelay1R = new LFODelay(0);
+    private final LFODelay vdelay1L;
+    private final LFODelay vdelay1R;
+    private final float controlrate;
     double silentcounter = 1000;
     private boolean dirty = true;
 
-    public SoftChorus(SoftAudioBuffer inputA, SoftAudioBuffer left, SoftAudioBuffer right) {
+    public SoftChorus(SoftAudioBuffer inputA, SoftAudioBuffer left, SoftAudioBuffer right,
+                      float samplerate, float controlrate) {
         this.inputA = inputA;
         this.left = left;
         this.right = right;
+        this.controlrate = controlrate;
+        vdelay1L = new LFODelay(0.5 * Math.PI, samplerate, controlrate);
+        vdelay1R = new LFODelay(0, samplerate, controlrate);
     }
 
     public void processControlLogic() {
@@ -61,7 +66,7 @@ public final class SoftChorus {
     public void processAudio() {
 
         if (inputA.isSilent()) {
-            silentcounter += 1 / 147f;
+            silentcounter += 1 / controlrate;
 
             if (silentcounter > 1) {
                 return;
@@ -128,24 +133,27 @@ public final class SoftChorus {
 
     private static class LFODelay {
 
+        private final double samplerate;
+        private final double controlrate;
         private double phase;
         private double phase_step = 0;
         private double depth = 0;
         private VariableDelay vdelay;
 
-        LFODelay(double phase) {
+        LFODelay(double phase, double samplerate, double controlrate) {
             // vdelay = new VariableDelay((int)(samplerate*4));
             vdelay = new VariableDelay(20);
             this.phase = phase;
+            this.samplerate = samplerate;
+            this.controlrate = controlrate;
         }
 
         public void setDepth(double depth) {
-            this.depth = depth * 44100;
+            this.depth = depth * samplerate;
             vdelay = new VariableDelay((int) ((this.depth + 10) * 2));
         }
 
         public void setRate(double rate) {
-            double controlrate = 147;
             phase_step = (Math.PI * 2) * (rate / controlrate);
         }
 
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.com.sun.media.sound;
+
+/**
+ * Integer slot ids for the control values that connection blocks read
+ * and write. A slot packs the object, instance and variable of a
+ * ModelIdentifier so voices can bind it to its value array without
+ * string lookups.
+ */
+final class SoftControlSlot {
+
+    static final int NONE = -1;
+
+    static final int OBJ_NOTEON = 1;
+    static final int OBJ_MIXER = 2;
+    static final int OBJ_OSC = 3;
+    static final int OBJ_FILTER = 4;
+    static final int OBJ_EG = 5;
+    static final int OBJ_LFO = 6;
+    static final int OBJ_MASTER = 7;
+    static final int OBJ_MIDI = 8;
+    static final int OBJ_MIDI_CC = 9;
+    static final int OBJ_MIDI_RPN = 10;
+    static final int OBJ_MIDI_NRPN = 11;
+
+    static final int NOTEON_KEYNUMBER = 0;
+    static final int NOTEON_VELOCITY = 1;
+    static final int NOTEON_ON = 2;
+
+    static final int MIXER_ACTIVE = 0;
+    static final int MIXER_GAIN = 1;
+    static final int MIXER_PAN = 2;
+    static final int MIXER_BALANCE = 3;
+    static final int MIXER_REVERB = 4;
+    static final int MIXER_CHORUS = 5;
+
+    static final int OSC_PITCH = 0;
+
+    static final int FILTER_FREQ = 0;
+    static final int FILTER_TYPE = 1;
+    static final int FILTER_Q = 2;
+
+    // EG_OUT and LFO_OUT are the null variable, the generator output
+    static final int EG_OUT = 0;
+    static final int EG_ON = 1;
+    static final int EG_ACTIVE = 2;
+    static final int EG_DELAY = 3;
+    static final int EG_ATTACK = 4;
+    static final int EG_HOLD = 5;
+    static final int EG_DECAY = 6;
+    static final int EG_SUSTAIN = 7;
+    static final int EG_RELEASE = 8;
+    static final int EG_SHUTDOWN = 9;
+    static final int EG_ATTACK2 = 10;
+    static final int EG_DECAY2 = 11;
+    static final int EG_RELEASE2 = 12;
+
+    static final int LFO_OUT = 0;
+    static final int LFO_DELAY = 1;
+    static final int LFO_DELAY2 = 2;
+    static final int LFO_FREQ = 3;
+
+    static final int MASTER_BALANCE = 0;
+    static final int MASTER_VOLUME = 1;
+    static final int MASTER_COARSE_TUNING = 2;
+    static final int MASTER_FINE_TUNING = 3;
+
+    static final int MIDI_PITCH = 0;
+    static final int MIDI_CHANNEL_PRESSURE = 1;
+    static final int MIDI_POLY_PRESSURE = 2;
+
+    private static final String[] NOTEON_VARS = {"keynumber", "velocity", "on"};
+    private static final String[] MIXER_VARS = {"active", "gain", "pan", "balance", "reverb", "chorus"};
+    private static final String[] OSC_VARS = {"pitch"};
+    private static final String[] FILTER_VARS = {"freq", "type", "q"};
+    private static final String[] EG_VARS = {null, "on", "active", "delay", "attack", "hold",
+            "decay", "sustain", "release", "shutdown", "attack2", "decay2", "release2"};
+    private static final String[] LFO_VARS = {null, "delay", "delay2", "freq"};
+    private static final String[] MASTER_VARS = {"balance", "volume", "coarse_tuning", "fine_tuning"};
+    private static final String[] MIDI_VARS = {"pitch", "channel_pressure", "poly_pressure"};
+
+    private SoftControlSlot() {
+    }
+
+    static int object(int slot) {
+        return slot >>> 24;
+    }
+
+    static int instance(int slot) {
+        return (slot >>> 16) & 0xFF;
+    }
+
+    static int variable(int slot) {
+        return slot & 0xFFFF;
+    }
+
+    /*
+     * Returns the slot of the identifier, or NONE if it names no control.
+     */
+    static int compile(ModelIdentifier id) {
+        String variable = id.getVariable();
+        switch (id.getObject()) {
+            case "noteon":
+                return slot(OBJ_NOTEON, 0, indexOf(NOTEON_VARS, variable));
+            case "mixer":
+                return slot(OBJ_MIXER, 0, indexOf(MIXER_VARS, variable));
+            case "osc":
+                return slot(OBJ_OSC, 0, indexOf(OSC_VARS, variable));
+            case "filter":
+                return slot(OBJ_FILTER, 0, indexOf(FILTER_VARS, variable));
+            case "eg":
+                return slot(OBJ_EG, id.getInstance(), indexOf(EG_VARS, variable));
+            case "lfo":
+                return slot(OBJ_LFO, id.getInstance(), indexOf(LFO_VARS, variable));
+            case "master":
+                return slot(OBJ_MASTER, 0, indexOf(MASTER_VARS, variable));
+            case "midi":
+                return slot(OBJ_MIDI, 0, indexOf(MIDI_VARS, variable));
+            case "midi_cc": {
+                int cc = parseNumber(variable);
+                return cc < 128 ? slot(OBJ_MIDI_CC, 0, cc) : NONE;
+            }
+            case "midi_rpn":
+                return slot(OBJ_MIDI_RPN, 0, parseNumber(variable));
+            case "midi_nrpn":
+                return slot(OBJ_MIDI_NRPN, 0, parseNumber(variable));
+            default:
+                return NONE;
+        }
+    }
+
+    /*
+     * Returns the key-based controller overriding the identifier,
+     * or -1 if there is none.
+     */
+    static int keyBasedController(ModelIdentifier id) {
+        if (id.getObject().equals("midi_cc")) {
+            int ic = Integer.parseInt(id.getVariable());
+            if (ic != 0 && ic != 32) {
+                if (ic < 120)
+                    return ic;
+            }
+        } else if (id.getObject().equals("midi_rpn")) {
+            if (id.getVariable().equals("1"))
+                return 120; // Fine tuning
+            if (id.getVariable().equals("2"))
+                return 121; // Coarse tuning
+        }
+        return -1;
+    }
+
+    private static int slot(int object, int instance, int variable) {
+        if (variable < 0 || instance < 0 || instance > 0xFF)
+            return NONE;
+        return (object << 24) | (instance << 16) | variable;
+    }
+
+    private static int indexOf(String[] vars, String variable) {
+        for (int i = 0; i < vars.length; i++) {
+            if (variable == null ? vars[i] == null : variable.equals(vars[i]))
+                return i;
+        }
+        return -1;
+    }
+
+    private static int parseNumber(String variable) {
+        if (variable == null)
+            return -1;
+        try {
+            int n = Integer.parseInt(variable);
+            return n <= 0xFFFF ? n : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
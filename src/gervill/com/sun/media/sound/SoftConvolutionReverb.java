@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.com.sun.media.sound;
+
+import gervill.soundbanks.FFT;
+
+import java.util.Arrays;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Convolution reverb on the effect 1 bus, a replacement for SoftReverb
+ * when an impulse response is configured.
+ * <p>
+ * The impulse response is split into partitions of equal size, which are
+ * convolved with the input in the frequency domain (uniformly partitioned
+ * overlap-save). Every partition of input costs one real forward transform,
+ * a real inverse transform per output channel and one complex multiply-add
+ * per partition of the response and channel. Spectra are stored as packed
+ * real spectra in double precision, the precision of FFT, so no conversion
+ * is needed around the transforms. The latency is one partition, the
+ * smallest power of two that holds a block.
+ * <p>
+ * With a worker thread the convolution of a block runs while the next block
+ * is rendered, which adds one block of latency.
+ */
+final class SoftConvolutionReverb implements SoftAudioProcessor {
+
+    // Energy gain for white noise, matched to SoftReverb
+    private static final double ENERGY_GAIN = 0.1;
+
+    private final SoftAudioBuffer inputA;
+    private final SoftAudioBuffer left;
+    private final SoftAudioBuffer right;
+    private final Convolver convolver;
+    // Worker thread state, null without a worker
+    private final Phaser phaser;
+    private float[] worker_in;
+    private float[] worker_left;
+    private float[] worker_right;
+    private boolean worker_in_silent = true;
+    private volatile boolean closed = false;
+    // Failure of the worker, rethrown by processAudio
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    SoftConvolutionReverb(SoftAudioBuffer inputA, SoftAudioBuffer left,
+                          SoftAudioBuffer right, float samplerate, int bufferlen,
+                          SoftImpulseResponse impulseResponse, boolean worker) {
+        this.inputA = inputA;
+        this.left = left;
+        this.right = right;
+
+        int size = 1;
+        while (size < bufferlen)
+            size <<= 1;
+        convolver = new Convolver(size,
+                impulseResponse.getChannel(0, samplerate),
+                impulseResponse.getChannel(1, samplerate));
+
+        if (worker) {
+            worker_in = new float[bufferlen];
+            worker_left = new float[bufferlen];
+            worker_right = new float[bufferlen];
+            phaser = new Phaser(2);
+            Thread thread = new Thread(this::workerLoop, "Gervill convolution reverb");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            thread.start();
+        } else {
+            phaser = null;
+        }
+    }
+
+    public void processControlLogic() {
+    }
+
+    public void processAudio() {
+        if (phaser == null) {
+            boolean silent = inputA.isSilent();
+            convolver.process(inputA.array(), silent, left.array(), right.array());
+            return;
+        }
+        exchange();
+    }
+
+    private synchronized void exchange() {
+        if (closed)
+            return;
+        // Wait for the worker to finish the previous block, then hand it
+        // this one. The phaser advances publish the buffers either way.
+        phaser.arriveAndAwaitAdvance();
+        float[] left = this.left.array();
+        float[] right = this.right.array();
+        for (int i = 0; i < worker_left.length; i++) {
+            left[i] += worker_left[i];
+            right[i] += worker_right[i];
+        }
+        worker_in_silent = inputA.isSilent();
+        System.arraycopy(inputA.array(), 0, worker_in, 0, worker_in.length);
+        phaser.arriveAndAwaitAdvance();
+
+        Throwable t = failure.getAndSet(null);
+        if (t != null) {
+            if (t instanceof RuntimeException)
+                throw (RuntimeException) t;
+            if (t instanceof Error)
+                throw (Error) t;
+            throw new RuntimeException(t);
+        }
+    }
+
+    private void workerLoop() {
+        while (true) {
+            phaser.arriveAndAwaitAdvance();
+            if (closed) {
+                phaser.arriveAndDeregister();
+                return;
+            }
+            phaser.arriveAndAwaitAdvance();
+            // The worker must keep arriving at the phaser, a failure is
+            // handed to the render thread instead of ending the loop
+            try {
+                Arrays.fill(worker_left, 0);
+                Arrays.fill(worker_right, 0);
+                convolver.process(worker_in, worker_in_silent, worker_left, worker_right);
+            } catch (Throwable t) {
+                Arrays.fill(worker_left, 0);
+                Arrays.fill(worker_right, 0);
+                failure.set(t);
+            }
+        }
+    }
+
+    public synchronized void close() {
+        if (phaser == null || closed)
+            return;
+        closed = true;
+        phaser.arriveAndDeregister();
+    }
+
+    private static final class Convolver {
+
+        private final int size;
+        private final int partitions;
+        private final FFT fft;
+        private final FFT ifft;
+        // Packed spectra of the response partitions. Spectra are kept in
+        // double precision, the precision FFT works in.
+        private final double[][] spectra_left;
+        private final double[][] spectra_right;
+        // Spectra of the most recent input frames, a ring indexed by fdl_pos
+        private final double[][] fdl;
+        private final double[] accum_left;
+        private final double[] accum_right;
+        private final float[] last;
+        private final float[] input;
+        private final float[] out_left;
+        private final float[] out_right;
+        private final float scale;
+        private int fdl_pos = 0;
+        private int pos = 0;
+        private boolean input_silent = true;
+        private int silent_partitions = 0;
+
+        Convolver(int size, float[] left, float[] right) {
+            this.size = size;
+            int len = Math.max(left.length, right.length);
+            partitions = (len + size - 1) / size;
+            // Real transforms of 2 * size samples
+            fft = new FFT(size, -1);
+            ifft = new FFT(size, 1);
+            accum_left = new double[size * 2];
+            accum_right = new double[size * 2];
+            last = new float[size];
+            input = new float[size];
+            out_left = new float[size];
+            out_right = new float[size];
+
+            double energy = 0;
+            for (int i = 0; i < left.length; i++)
+                energy += left[i] * (double) left[i];
+            for (int i = 0; i < right.length; i++)
+                energy += right[i] * (double) right[i];
+            energy *= 0.5;
+            // Normalize the response and undo the 2 * size gain of the
+            // transform pair
+            scale = (float) ((energy > 0 ? Math.sqrt(ENERGY_GAIN / energy) : 0)
+                    / (size * 2));
+
+            spectra_left = new double[partitions][];
+            spectra_right = new double[partitions][];
+            fdl = new double[partitions][size * 2];
+            for (int p = 0; p < partitions; p++) {
+                spectra_left[p] = partitionSpectrum(left, p * size);
+                spectra_right[p] = partitionSpectrum(right, p * size);
+            }
+        }
+
+        private double[] partitionSpectrum(float[] response, int off) {
+            double[] spectrum = new double[size * 2];
+            int n = Math.max(0, Math.min(size, response.length - off));
+            for (int i = 0; i < n; i++)
+                spectrum[i] = response[off + i];
+            fft.transformReal(spectrum);
+            return spectrum;
+        }
+
+        /*
+         * Convolves a block of input and adds the result to left and right.
+         * Input samples are collected into partitions, the output of a
+         * partition is played while the next one is collected.
+         */
+        void process(float[] in, boolean silent, float[] left, float[] right) {
+            if (silent && silent_partitions > partitions + 1)
+                return;
+            if (!silent)
+                input_silent = false;
+            int len = in.length;
+            int ix = 0;
+            while (ix < len) {
+                int n = Math.min(size - pos, len - ix);
+                System.arraycopy(in, ix, input, pos, n);
+                for (int i = 0; i < n; i++) {
+                    left[ix + i] += out_left[pos + i];
+                    right[ix + i] += out_right[pos + i];
+                }
+                ix += n;
+                pos += n;
+                if (pos == size) {
+                    processPartition();
+                    pos = 0;
+                }
+            }
+        }
+
+        private void processPartition() {
+            if (input_silent)
+                silent_partitions++;
+            else
+                silent_partitions = 0;
+            input_silent = true;
+
+            // Overlap-save frame of the previous and the current partition
+            int size = this.size;
+            double[] frame = fdl[fdl_pos];
+            for (int i = 0; i < size; i++) {
+                frame[i] = last[i];
+                frame[size + i] = input[i];
+            }
+            System.arraycopy(input, 0, last, 0, size);
+            fft.transformReal(frame);
+
+            double[] accum_left = this.accum_left;
+            double[] accum_right = this.accum_right;
+            Arrays.fill(accum_left, 0);
+            Arrays.fill(accum_right, 0);
+            int k = fdl_pos;
+            for (int p = 0; p < partitions; p++) {
+                double[] x = fdl[k];
+                double[] hl = spectra_left[p];
+                double[] hr = spectra_right[p];
+                // DC and Nyquist bins are real
+                accum_left[0] += x[0] * hl[0];
+                accum_left[1] += x[1] * hl[1];
+                accum_right[0] += x[0] * hr[0];
+                accum_right[1] += x[1] * hr[1];
+                for (int i = 2; i < accum_left.length; i += 2) {
+                    double xr = x[i];
+                    double xi = x[i + 1];
+                    accum_left[i] += xr * hl[i] - xi * hl[i + 1];
+                    accum_left[i + 1] += xr * hl[i + 1] + xi * hl[i];
+                    accum_right[i] += xr * hr[i] - xi * hr[i + 1];
+                    accum_right[i + 1] += xr * hr[i + 1] + xi * hr[i];
+                }
+                if (--k < 0)
+                    k = partitions - 1;
+            }
+            if (++fdl_pos == partitions)
+                fdl_pos = 0;
+
+            ifft.transformReal(accum_left);
+            ifft.transformReal(accum_right);
+            double scale = this.scale;
+            for (int i = 0; i < size; i++) {
+                out_left[i] = (float) (accum_left[size + i] * scale);
+                out_right[i] = (float) (accum_right[size + i] * scale);
+            }
+        }
+    }
+}
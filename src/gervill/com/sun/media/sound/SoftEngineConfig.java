@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.com.sun.media.sound;
+
+import gervill.javax.sound.sampled.AudioFormat;
+
+/**
+ * Render engine configuration: output format, the number of frames
+ * rendered per block, the number of threads voices are rendered on and
+ * the maximum number of voices.
+ * When an impulse response is given the reverb is a convolution reverb,
+ * optionally running on its own thread with one block of added latency.
+ * The control rate of envelopes, LFOs and effects is one update per block.
+ */
+public final class SoftEngineConfig {
+
+    public static final SoftEngineConfig DEFAULT =
+            new SoftEngineConfig(new AudioFormat(44100, 16, 2, true), 300);
+
+    private final AudioFormat format;
+    private final int blockSize;
+    private final int renderThreads;
+    private final int polyphony;
+    private final SoftImpulseResponse impulseResponse;
+    private final boolean reverbThread;
+
+    public SoftEngineConfig(AudioFormat format, int blockSize) {
+        this(format, blockSize, 1);
+    }
+
+    public SoftEngineConfig(AudioFormat format, int blockSize, int renderThreads) {
+        this(format, blockSize, renderThreads, 64);
+    }
+
+    public SoftEngineConfig(AudioFormat format, int blockSize, int renderThreads,
+                            int polyphony) {
+        this(format, blockSize, renderThreads, polyphony, null, false);
+    }
+
+    public SoftEngineConfig(AudioFormat format, int blockSize, int renderThreads,
+                            int polyphony, SoftImpulseResponse impulseResponse,
+                            boolean reverbThread) {
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        if (!(format.getSampleRate() > 0))
+            throw new IllegalArgumentException("Invalid sample rate: " + format.getSampleRate());
+        if (format.getChannels() != 1 && format.getChannels() != 2)
+            throw new IllegalArgumentException("Only mono and stereo output is supported");
+        if (AudioFloatConverter.getConverter(format) == null)
+            throw new IllegalArgumentException("Unsupported format: " + format.getEncoding()
+                    + " " + format.getSampleSizeInBits() + " bit");
+        if (renderThreads <= 0)
+            throw new IllegalArgumentException("Invalid render thread count: " + renderThreads);
+        if (polyphony <= 0)
+            throw new IllegalArgumentException("Invalid polyphony: " + polyphony);
+        this.format = format;
+        this.blockSize = blockSize;
+        this.renderThreads = renderThreads;
+        this.polyphony = polyphony;
+        this.impulseResponse = impulseResponse;
+        this.reverbThread = reverbThread;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getRenderThreads() {
+        return renderThreads;
+    }
+
+    public int getPolyphony() {
+        return polyphony;
+    }
+
+    public SoftImpulseResponse getImpulseResponse() {
+        return impulseResponse;
+    }
+
+    public boolean isReverbThread() {
+        return reverbThread;
+    }
+
+    public float getSampleRate() {
+        return format.getSampleRate();
+    }
+
+    public float getControlRate() {
+        return format.getSampleRate() / blockSize;
+    }
+}
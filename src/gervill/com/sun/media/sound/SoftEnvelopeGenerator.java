@@ -58,8 +58,12 @@ public final class SoftEnvelopeGenerator implements SoftControl {
     private final double[][] release2 = new double[max_count][1];
     private final double[][] attack2 = new double[max_count][1];
     private final double[][] decay2 = new double[max_count][1];
+    private final double control_time;
     int used_count = 0;
-    private double control_time = 0;
+
+    public SoftEnvelopeGenerator(float controlrate) {
+        control_time = 1.0 / controlrate;
+    }
 
     public void reset() {
         for (int i = 0; i < used_count; i++) {
@@ -81,7 +85,6 @@ public final class SoftEnvelopeGenerator implements SoftControl {
     }
 
     public void init() {
-        control_time = 1.0 / 147f;
         processControlLogic();
     }
 
@@ -118,6 +121,42 @@ public final class SoftEnvelopeGenerator implements SoftControl {
         return null;
     }
 
+    // Same as get(int, String) for a SoftControlSlot variable
+    double[] get(int instance, int variable) {
+        if (instance >= used_count)
+            used_count = instance + 1;
+        switch (variable) {
+            case SoftControlSlot.EG_OUT:
+                return out[instance];
+            case SoftControlSlot.EG_ON:
+                return on[instance];
+            case SoftControlSlot.EG_ACTIVE:
+                return active[instance];
+            case SoftControlSlot.EG_DELAY:
+                return delay[instance];
+            case SoftControlSlot.EG_ATTACK:
+                return attack[instance];
+            case SoftControlSlot.EG_HOLD:
+                return hold[instance];
+            case SoftControlSlot.EG_DECAY:
+                return decay[instance];
+            case SoftControlSlot.EG_SUSTAIN:
+                return sustain[instance];
+            case SoftControlSlot.EG_RELEASE:
+                return release[instance];
+            case SoftControlSlot.EG_SHUTDOWN:
+                return shutdown[instance];
+            case SoftControlSlot.EG_ATTACK2:
+                return attack2[instance];
+            case SoftControlSlot.EG_DECAY2:
+                return decay2[instance];
+            case SoftControlSlot.EG_RELEASE2:
+                return release2[instance];
+            default:
+                return null;
+        }
+    }
+
     public void processControlLogic() {
         for (int i = 0; i < used_count; i++) {
 
@@ -127,8 +166,8 @@ public final class SoftEnvelopeGenerator implements SoftControl {
             if ((stage[i] > EG_OFF) && (stage[i] < EG_RELEASE)) {
                 if (on[i][0] < 0.5) {
                     if (on[i][0] < -0.5) {
-                        stage_count[i] = (int) (Math.pow(2,
-                                this.shutdown[i][0] / 1200.0) / control_time);
+                        stage_count[i] = (int) (SoftFastMath.centsToRatio(
+                                this.shutdown[i][0]) / control_time);
                         if (stage_count[i] < 0)
                             stage_count[i] = 0;
                         stage_v[i] = out[i][0];
@@ -143,8 +182,8 @@ public final class SoftEnvelopeGenerator implements SoftControl {
                             continue;
                         }
 
-                        stage_count[i] = (int) (Math.pow(2,
-                                this.release[i][0] / 1200.0) / control_time);
+                        stage_count[i] = (int) (SoftFastMath.centsToRatio(
+                                this.release[i][0]) / control_time);
                         stage_count[i]
                                 += (int) (this.release2[i][0] / (control_time * 1000));
                         if (stage_count[i] < 0)
@@ -166,8 +205,8 @@ public final class SoftEnvelopeGenerator implements SoftControl {
                     if (on[i][0] < 0.5)
                         break;
                     stage[i] = EG_DELAY;
-                    stage_ix[i] = (int) (Math.pow(2,
-                            this.delay[i][0] / 1200.0) / control_time);
+                    stage_ix[i] = (int) (SoftFastMath.centsToRatio(
+                            this.delay[i][0]) / control_time);
                     if (stage_ix[i] < 0)
                         stage_ix[i] = 0;
                 case EG_DELAY:
@@ -179,12 +218,12 @@ public final class SoftEnvelopeGenerator implements SoftControl {
                                 && (attack < 0 && Double.isInfinite(attack))) {
                             out[i][0] = 1;
                             stage[i] = EG_HOLD;
-                            stage_count[i] = (int) (Math.pow(2,
-                                    this.hold[i][0] / 1200.0) / control_time);
+                            stage_count[i] = (int) (SoftFastMath.centsToRatio(
+                                    this.hold[i][0]) / control_time);
                         } else {
                             stage[i] = EG_ATTACK;
-                            stage_count[i] = (int) (Math.pow(2,
-                                    attack / 1200.0) / control_time);
+                            stage_count[i] = (int) (SoftFastMath.centsToRatio(
+                                    attack) / control_time);
                             stage_count[i] += (int) (attack2 / (control_time * 1000));
                             if (stage_count[i] < 0)
                                 stage_count[i] = 0;
@@ -201,7 +240,7 @@ public final class SoftEnvelopeGenerator implements SoftControl {
                     } else {
                         // CONVEX attack
                         double a = ((double) stage_ix[i]) / ((double) stage_count[i]);
-                        a = 1 + ((40.0 / 96.0) / Math.log(10)) * Math.log(a);
+                        a = 1 + ((40.0 / 96.0) / Math.log(10)) * SoftFastMath.log(a);
                         if (a < 0)
                             a = 0;
                         else if (a > 1)
@@ -213,8 +252,8 @@ public final class SoftEnvelopeGenerator implements SoftControl {
                     stage_ix[i]++;
                     if (stage_ix[i] >= stage_count[i]) {
                         stage[i] = EG_DECAY;
-                        stage_count[i] = (int) (Math.pow(2,
-                                this.decay[i][0] / 1200.0) / control_time);
+                        stage_count[i] = (int) (SoftFastMath.centsToRatio(
+                                this.decay[i][0]) / control_time);
                         stage_count[i] += (int) (this.decay2[i][0] / (control_time * 1000));
                         if (stage_count[i] < 0)
                             stage_count[i] = 0;
@@ -248,8 +287,8 @@ public final class SoftEnvelopeGenerator implements SoftControl {
                         out[i][0] = (1 - m); // *stage_v[i];
 
                         if (on[i][0] < -0.5) {
-                            stage_count[i] = (int) (Math.pow(2,
-                                    this.shutdown[i][0] / 1200.0) / control_time);
+                            stage_count[i] = (int) (SoftFastMath.centsToRatio(
+                                    this.shutdown[i][0]) / control_time);
                             if (stage_count[i] < 0)
                                 stage_count[i] = 0;
                             stage_v[i] = out[i][0];
@@ -262,8 +301,8 @@ public final class SoftEnvelopeGenerator implements SoftControl {
                             sustain = this.sustain[i][0] * (1.0 / 1000.0);
                             if (out[i][0] > sustain) {
                                 stage[i] = EG_DECAY;
-                                stage_count[i] = (int) (Math.pow(2,
-                                        this.decay[i][0] / 1200.0) / control_time);
+                                stage_count[i] = (int) (SoftFastMath.centsToRatio(
+                                        this.decay[i][0]) / control_time);
                                 stage_count[i] +=
                                         (int) (this.decay2[i][0] / (control_time * 1000));
                                 if (stage_count[i] < 0)
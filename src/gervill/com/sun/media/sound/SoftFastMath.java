@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.com.sun.media.sound;
+
+/**
+ * Table based replacements for the transcendental functions evaluated per
+ * voice and block: cents and timecents to ratios, centibels to gain, sine
+ * and natural logarithm. All tables are built once and interpolated
+ * linearly.
+ * <p>
+ * Error bounds, for finite arguments in the supported ranges:
+ * <ul>
+ * <li>{@link #exp2}, {@link #exp}, {@link #centsToRatio},
+ * {@link #centibelsToGain}:
+ * relative error below 1.5e-8, under float precision, about 0.00003
+ * cents of pitch.
+ * <li>{@link #sin}, {@link #cos}: absolute error below 3e-7.
+ * <li>{@link #log}: absolute error below 1.2e-7.
+ * </ul>
+ * Arguments outside the table ranges, infinities and NaN fall back to
+ * {@link Math}, so limits such as a timecent value of minus infinity keep
+ * their meaning.
+ */
+final class SoftFastMath {
+
+    // 2^x for x in [0, 1]
+    private static final int EXP2_SIZE = 2048;
+    private static final double[] EXP2 = new double[EXP2_SIZE + 1];
+    // sin(x) for x in [0, 2 pi]
+    private static final int SIN_SIZE = 4096;
+    private static final double[] SIN = new double[SIN_SIZE + 1];
+    private static final double SIN_SCALE = SIN_SIZE / (2 * Math.PI);
+    // log2(m) for a mantissa m in [1, 2]
+    private static final int LOG2_SIZE = 1024;
+    private static final double[] LOG2 = new double[LOG2_SIZE + 1];
+
+    private static final double LN2 = Math.log(2);
+    private static final double LOG2_10 = Math.log(10) / Math.log(2);
+    private static final double LOG2_E = 1 / Math.log(2);
+
+    static {
+        for (int i = 0; i <= EXP2_SIZE; i++)
+            EXP2[i] = Math.pow(2, i / (double) EXP2_SIZE);
+        for (int i = 0; i <= SIN_SIZE; i++)
+            SIN[i] = Math.sin(i / SIN_SCALE);
+        for (int i = 0; i <= LOG2_SIZE; i++)
+            LOG2[i] = Math.log(1 + i / (double) LOG2_SIZE) / LN2;
+    }
+
+    private SoftFastMath() {
+    }
+
+    // 2^x
+    static double exp2(double x) {
+        if (!(x > -1000 && x < 1000))
+            return Math.pow(2, x);
+        double floor = Math.floor(x);
+        double t = (x - floor) * EXP2_SIZE;
+        // x - floor rounds to 1 for tiny negative x
+        int i = Math.min((int) t, EXP2_SIZE - 1);
+        double a = EXP2[i];
+        return Math.scalb(a + (EXP2[i + 1] - a) * (t - i), (int) floor);
+    }
+
+    // e^x
+    static double exp(double x) {
+        return exp2(x * LOG2_E);
+    }
+
+    // Frequency ratio of an interval in cents, also timecents to seconds
+    static double centsToRatio(double cents) {
+        return exp2(cents * (1.0 / 1200.0));
+    }
+
+    // Amplitude gain of a level in centibels
+    static double centibelsToGain(double centibels) {
+        return exp2(centibels * (LOG2_10 / 200.0));
+    }
+
+    static double sin(double x) {
+        double t = x * SIN_SCALE;
+        if (!(t > -1e15 && t < 1e15))
+            return Math.sin(x);
+        double floor = Math.floor(t);
+        int i = (int) ((long) floor & (SIN_SIZE - 1));
+        double a = SIN[i];
+        return a + (SIN[i + 1] - a) * (t - floor);
+    }
+
+    static double cos(double x) {
+        return sin(x + 0.5 * Math.PI);
+    }
+
+    // Natural logarithm
+    static double log(double x) {
+        if (!(x >= Double.MIN_NORMAL && x < Double.POSITIVE_INFINITY))
+            return Math.log(x);
+        int exponent = Math.getExponent(x);
+        double t = (Math.scalb(x, -exponent) - 1) * LOG2_SIZE;
+        int i = (int) t;
+        double a = LOG2[i];
+        return (exponent + a + (LOG2[i + 1] - a) * (t - i)) * LN2;
+    }
+}
@@ -126,24 +126,50 @@ public final class SoftFilter {
         this.filtertype = filtertype;
     }
 
+    /*
+     * Takes the coefficients from a filter that has already processed a
+     * block with the same type, cutoff and resonance, so the two channels
+     * of a voice compute them only once.
+     */
+    void copyCoefficients(SoftFilter filter) {
+        if (!dirty || filter.dirty || filtertype != filter.filtertype)
+            return;
+        cutoff = filter.cutoff;
+        resonancedB = filter.resonancedB;
+        a0 = filter.a0;
+        a1 = filter.a1;
+        a2 = filter.a2;
+        b1 = filter.b1;
+        b2 = filter.b2;
+        q = filter.q;
+        gain = filter.gain;
+        wet = filter.wet;
+        dirty = false;
+    }
+
     public void processAudio(SoftAudioBuffer sbuffer) {
+        processAudio(sbuffer, 0, sbuffer.array().length);
+    }
+
+    // Filters frames [off, off + len), the coefficients ramp over them
+    public void processAudio(SoftAudioBuffer sbuffer, int off, int len) {
         if (filtertype == FILTERTYPE_LP6)
-            filter1(sbuffer);
+            filter1(sbuffer, off, len);
         if (filtertype == FILTERTYPE_LP12)
-            filter2(sbuffer);
+            filter2(sbuffer, off, len);
         if (filtertype == FILTERTYPE_HP12)
-            filter2(sbuffer);
+            filter2(sbuffer, off, len);
         if (filtertype == FILTERTYPE_BP12)
-            filter2(sbuffer);
+            filter2(sbuffer, off, len);
         if (filtertype == FILTERTYPE_NP12)
-            filter2(sbuffer);
+            filter2(sbuffer, off, len);
         if (filtertype == FILTERTYPE_LP24)
-            filter4(sbuffer);
+            filter4(sbuffer, off, len);
         if (filtertype == FILTERTYPE_HP24)
-            filter4(sbuffer);
+            filter4(sbuffer, off, len);
     }
 
-    public void filter4(SoftAudioBuffer sbuffer) {
+    public void filter4(SoftAudioBuffer sbuffer, int off, int len) {
 
         float[] buffer = sbuffer.array();
 
@@ -164,7 +190,7 @@ public final class SoftFilter {
 
         if (wet > 0 || last_wet > 0) {
 
-            int len = buffer.length;
+            int end = off + len;
             float a0 = this.last_a0;
             float a1 = this.last_a1;
             float a2 = this.last_a2;
@@ -189,7 +215,7 @@ public final class SoftFilter {
             float yy2 = this.yy2;
 
             if (wet_delta != 0) {
-                for (int i = 0; i < len; i++) {
+                for (int i = off; i < end; i++) {
                     a0 += a0_delta;
                     a1 += a1_delta;
                     a2 += a2_delta;
@@ -213,7 +239,7 @@ public final class SoftFilter {
                 }
             } else if (a0_delta == 0 && a1_delta == 0 && a2_delta == 0
                     && b1_delta == 0 && b2_delta == 0) {
-                for (int i = 0; i < len; i++) {
+                for (int i = off; i < end; i++) {
                     float x = buffer[i];
                     float y = (a0 * x + a1 * x1 + a2 * x2 - b1 * y1 - b2 * y2);
                     float xx = (y * gain) * wet + (x) * (1 - wet);
@@ -229,7 +255,7 @@ public final class SoftFilter {
                     yy1 = yy;
                 }
             } else {
-                for (int i = 0; i < len; i++) {
+                for (int i = off; i < end; i++) {
                     a0 += a0_delta;
                     a1 += a1_delta;
                     a2 += a2_delta;
@@ -281,7 +307,7 @@ public final class SoftFilter {
     }
 
     private double sinh(double x) {
-        return (Math.exp(x) - Math.exp(-x)) * 0.5;
+        return (SoftFastMath.exp(x) - SoftFastMath.exp(-x)) * 0.5;
     }
 
     public void filter2calc() {
@@ -300,11 +326,12 @@ public final class SoftFilter {
             if (r > 0.45)
                 r = 0.45;
 
-            double bandwidth = Math.PI * Math.pow(10.0, -(resonancedB / 20));
+            double bandwidth = Math.PI
+                    * SoftFastMath.centibelsToGain(-10 * resonancedB);
 
             double omega = 2 * Math.PI * r;
-            double cs = Math.cos(omega);
-            double sn = Math.sin(omega);
+            double cs = SoftFilterTable.cos(r);
+            double sn = SoftFilterTable.sin(r);
             double alpha = sn * sinh((Math.log(2) * bandwidth * omega) / (sn * 2));
 
             double b1 = 0;
@@ -327,11 +354,12 @@ public final class SoftFilter {
             if (r > 0.45)
                 r = 0.45;
 
-            double bandwidth = Math.PI * Math.pow(10.0, -(resonancedB / 20));
+            double bandwidth = Math.PI
+                    * SoftFastMath.centibelsToGain(-10 * resonancedB);
 
             double omega = 2 * Math.PI * r;
-            double cs = Math.cos(omega);
-            double sn = Math.sin(omega);
+            double cs = SoftFilterTable.cos(r);
+            double sn = SoftFilterTable.sin(r);
             double alpha = sn * sinh((Math.log(2) * bandwidth * omega) / (sn * 2));
 
             double b0 = 1;
@@ -362,9 +390,9 @@ public final class SoftFilter {
             } else
                 wet = 1.0f;
 
-            double c = 1.0 / (Math.tan(Math.PI * r));
+            double c = 1.0 / SoftFilterTable.tan(r);
             double csq = c * c;
-            double resonance = Math.pow(10.0, -(resonancedB / 20));
+            double resonance = SoftFastMath.centibelsToGain(-10 * resonancedB);
             double q = Math.sqrt(2.0f) * resonance;
             double a0 = 1.0 / (1.0 + (q * c) + (csq));
             double a1 = 2.0 * a0;
@@ -386,9 +414,9 @@ public final class SoftFilter {
             if (r < 0.0001)
                 r = 0.0001;
             wet = 1.0f;
-            double c = (Math.tan(Math.PI * (r)));
+            double c = SoftFilterTable.tan(r);
             double csq = c * c;
-            double resonance = Math.pow(10.0, -(resonancedB / 20));
+            double resonance = SoftFastMath.centibelsToGain(-10 * resonancedB);
             double q = Math.sqrt(2.0f) * resonance;
             double a0 = 1.0 / (1.0 + (q * c) + (csq));
             double a1 = -2.0 * a0;
@@ -405,7 +433,7 @@ public final class SoftFilter {
 
     }
 
-    public void filter2(SoftAudioBuffer sbuffer) {
+    public void filter2(SoftAudioBuffer sbuffer, int off, int len) {
 
         float[] buffer = sbuffer.array();
 
@@ -427,7 +455,7 @@ public final class SoftFilter {
 
         if (wet > 0 || last_wet > 0) {
 
-            int len = buffer.length;
+            int end = off + len;
             float a0 = this.last_a0;
             float a1 = this.last_a1;
             float a2 = this.last_a2;
@@ -448,7 +476,7 @@ public final class SoftFilter {
             float y2 = this.y2;
 
             if (wet_delta != 0) {
-                for (int i = 0; i < len; i++) {
+                for (int i = off; i < end; i++) {
                     a0 += a0_delta;
                     a1 += a1_delta;
                     a2 += a2_delta;
@@ -466,7 +494,7 @@ public final class SoftFilter {
                 }
             } else if (a0_delta == 0 && a1_delta == 0 && a2_delta == 0
                     && b1_delta == 0 && b2_delta == 0) {
-                for (int i = 0; i < len; i++) {
+                for (int i = off; i < end; i++) {
                     float x = buffer[i];
                     float y = (a0 * x + a1 * x1 + a2 * x2 - b1 * y1 - b2 * y2);
                     buffer[i] = y * gain;
@@ -476,7 +504,7 @@ public final class SoftFilter {
                     y1 = y;
                 }
             } else {
-                for (int i = 0; i < len; i++) {
+                for (int i = off; i < end; i++) {
                     a0 += a0_delta;
                     a1 += a1_delta;
                     a2 += a2_delta;
@@ -524,19 +552,20 @@ public final class SoftFilter {
         double c = (7.0 / 6.0) * Math.PI * 2 * cutoff / samplerate;
         if (c > 1)
             c = 1;
-        a0 = (float) (Math.sqrt(1 - Math.cos(c)) * Math.sqrt(0.5 * Math.PI));
+        a0 = (float) SoftFilterTable.pole(cutoff / samplerate);
         if (resonancedB < 0)
             resonancedB = 0;
         if (resonancedB > 20)
             resonancedB = 20;
-        q = (float) (Math.sqrt(0.5) * Math.pow(10.0, -(resonancedB / 20)));
-        gain = (float) Math.pow(10, -((resonancedB)) / 40.0);
+        q = (float) (Math.sqrt(0.5)
+                * SoftFastMath.centibelsToGain(-10 * resonancedB));
+        gain = (float) SoftFastMath.centibelsToGain(-5 * resonancedB);
         if (wet == 0.0f)
             if (resonancedB > 0.00001 || c < 0.9999999)
                 wet = 1.0f;
     }
 
-    public void filter1(SoftAudioBuffer sbuffer) {
+    public void filter1(SoftAudioBuffer sbuffer, int off, int len) {
 
         if (dirty) {
             filter1calc();
@@ -553,7 +582,7 @@ public final class SoftFilter {
         if (wet > 0 || last_wet > 0) {
 
             float[] buffer = sbuffer.array();
-            int len = buffer.length;
+            int end = off + len;
             float a0 = this.last_a0;
             float q = this.last_q;
             float gain = this.last_gain;
@@ -566,7 +595,7 @@ public final class SoftFilter {
             float y1 = this.y1;
 
             if (wet_delta != 0) {
-                for (int i = 0; i < len; i++) {
+                for (int i = off; i < end; i++) {
                     a0 += a0_delta;
                     q += q_delta;
                     gain += gain_delta;
@@ -578,13 +607,13 @@ public final class SoftFilter {
                 }
             } else if (a0_delta == 0 && q_delta == 0) {
                 float ga0 = (1 - q * a0);
-                for (int i = 0; i < len; i++) {
+                for (int i = off; i < end; i++) {
                     y1 = ga0 * y1 + (a0) * (buffer[i] - y2);
                     y2 = ga0 * y2 + (a0) * y1;
                     buffer[i] = y2 * gain;
                 }
             } else {
-                for (int i = 0; i < len; i++) {
+                for (int i = off; i < end; i++) {
                     a0 += a0_delta;
                     q += q_delta;
                     gain += gain_delta;
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.com.sun.media.sound;
+
+/**
+ * Tables of the cutoff dependent terms of the filter coefficients, indexed
+ * by the ratio of cutoff to sample rate so one set serves every sample
+ * rate. Entries are spaced 2 cents apart between 0.0001 and 0.45 of the
+ * sample rate and interpolated linearly, which keeps the
+ * relative error below 3e-5 at the top of the range and below 3e-7 under
+ * a tenth of the sample rate. Cutoffs outside the range are computed
+ * directly.
+ * <p>
+ * The tables are built when the class is initialized and may be used from
+ * any thread.
+ */
+final class SoftFilterTable {
+
+    private static final double R_MIN = 0.0001;
+    private static final double R_MAX = 0.45;
+    private static final double STEP_CENTS = 2;
+    private static final double STEPS_PER_LN
+            = 1200.0 / (STEP_CENTS * Math.log(2));
+    private static final int SIZE
+            = (int) Math.ceil(Math.log(R_MAX / R_MIN) * STEPS_PER_LN) + 2;
+
+    // tan(pi * r), cos(2 * pi * r), sin(2 * pi * r) and the 1-pole term
+    private static final double[] TAN = new double[SIZE];
+    private static final double[] COS = new double[SIZE];
+    private static final double[] SIN = new double[SIZE];
+    private static final double[] POLE = new double[SIZE];
+
+    static {
+        for (int i = 0; i < SIZE; i++) {
+            double r = R_MIN * Math.exp(i / STEPS_PER_LN);
+            TAN[i] = Math.tan(Math.PI * r);
+            COS[i] = Math.cos(2 * Math.PI * r);
+            SIN[i] = Math.sin(2 * Math.PI * r);
+            POLE[i] = calcPole(r);
+        }
+    }
+
+    private SoftFilterTable() {
+    }
+
+    // Coefficient of the 1-pole filter for a cutoff/samplerate ratio r
+    private static double calcPole(double r) {
+        double c = (7.0 / 6.0) * Math.PI * 2 * r;
+        if (c > 1)
+            c = 1;
+        return Math.sqrt(1 - Math.cos(c)) * Math.sqrt(0.5 * Math.PI);
+    }
+
+    private static double lookup(double[] table, double r) {
+        double t = SoftFastMath.log(r * (1.0 / R_MIN)) * STEPS_PER_LN;
+        int i = (int) t;
+        double a = table[i];
+        return a + (table[i + 1] - a) * (t - i);
+    }
+
+    private static boolean inRange(double r) {
+        return r >= R_MIN && r <= R_MAX;
+    }
+
+    // tan(pi * r)
+    static double tan(double r) {
+        return inRange(r) ? lookup(TAN, r) : Math.tan(Math.PI * r);
+    }
+
+    // cos(2 * pi * r)
+    static double cos(double r) {
+        return inRange(r) ? lookup(COS, r) : Math.cos(2 * Math.PI * r);
+    }
+
+    // sin(2 * pi * r)
+    static double sin(double r) {
+        return inRange(r) ? lookup(SIN, r) : Math.sin(2 * Math.PI * r);
+    }
+
+    // Coefficient of the 1-pole filter
+    static double pole(double r) {
+        return inRange(r) ? lookup(POLE, r) : calcPole(r);
+    }
+}
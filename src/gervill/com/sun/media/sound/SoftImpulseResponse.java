@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.com.sun.media.sound;
+
+/**
+ * Impulse response of a room for the convolution reverb: one or two
+ * channels of float samples at a given sample rate. A mono response is
+ * used for both output channels.
+ */
+public final class SoftImpulseResponse {
+
+    private final float[][] data;
+    private final float samplerate;
+
+    public SoftImpulseResponse(float[][] data, float samplerate) {
+        if (data.length != 1 && data.length != 2)
+            throw new IllegalArgumentException(
+                    "Only mono and stereo impulse responses are supported");
+        if (!(samplerate > 0))
+            throw new IllegalArgumentException("Invalid sample rate: " + samplerate);
+        if (data[0].length == 0)
+            throw new IllegalArgumentException("Empty impulse response");
+        if (data.length == 2 && data[1].length != data[0].length)
+            throw new IllegalArgumentException("Channel lengths differ");
+        this.data = new float[data.length][];
+        for (int c = 0; c < data.length; c++)
+            this.data[c] = data[c].clone();
+        this.samplerate = samplerate;
+    }
+
+    public int getChannels() {
+        return data.length;
+    }
+
+    public int getLength() {
+        return data[0].length;
+    }
+
+    public float getSampleRate() {
+        return samplerate;
+    }
+
+    /*
+     * Returns a channel at the given sample rate, resampled with linear
+     * interpolation when the rates differ. The right channel of a mono
+     * response is its only channel.
+     */
+    float[] getChannel(int channel, float samplerate) {
+        float[] in = data[Math.min(channel, data.length - 1)];
+        if (samplerate == this.samplerate)
+            return in.clone();
+        double step = this.samplerate / (double) samplerate;
+        int len = (int) Math.ceil(in.length / step);
+        float[] out = new float[len];
+        for (int i = 0; i < len; i++) {
+            double pos = i * step;
+            int ix = (int) pos;
+            float a = in[ix];
+            float b = ix + 1 < in.length ? in[ix + 1] : 0;
+            out[i] = a + (b - a) * (float) (pos - ix);
+        }
+        return out;
+    }
+}
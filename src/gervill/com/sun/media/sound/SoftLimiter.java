@@ -34,20 +34,21 @@ public final class SoftLimiter {
 
     private final SoftAudioBuffer bufferL;
     private final SoftAudioBuffer bufferR;
+    private final float controlrate;
     private float lastmax = 0;
     private float gain = 1;
     private float[] temp_bufferL;
     private float[] temp_bufferR;
     private double silentcounter = 0;
 
-    public SoftLimiter(SoftAudioBuffer left, SoftAudioBuffer right) {
+    public SoftLimiter(SoftAudioBuffer left, SoftAudioBuffer right, float controlrate) {
         this.bufferL = left;
         this.bufferR = right;
+        this.controlrate = controlrate;
     }
 
     public void processAudio() {
         if (this.bufferL.isSilent() && this.bufferR.isSilent()) {
-            float controlrate = 147f;
             silentcounter += 1 / controlrate;
 
             if (silentcounter > 60) {
@@ -66,19 +67,8 @@ public final class SoftLimiter {
         if (temp_bufferR == null)
             temp_bufferR = new float[bufferR.length];
 
-        float max = 0;
         int len = bufferL.length;
-
-        for (int i = 0; i < len; i++) {
-            if (bufferL[i] > max)
-                max = bufferL[i];
-            if (bufferR[i] > max)
-                max = bufferR[i];
-            if (-bufferL[i] > max)
-                max = -bufferL[i];
-            if (-bufferR[i] > max)
-                max = -bufferR[i];
-        }
+        float max = SoftAudioKernels.peak(bufferL, bufferR, len);
 
         float lmax = lastmax;
         lastmax = max;
@@ -93,17 +83,8 @@ public final class SoftLimiter {
             newgain = (newgain + gain * 9) / 10f;
 
         float gaindelta = (newgain - gain) / len;
-        for (int i = 0; i < len; i++) {
-            gain += gaindelta;
-            float bL = bufferL[i];
-            float bR = bufferR[i];
-            float tL = temp_bufferL[i];
-            float tR = temp_bufferR[i];
-            temp_bufferL[i] = bL;
-            temp_bufferR[i] = bR;
-            bufferL[i] = tL * gain;
-            bufferR[i] = tR * gain;
-        }
+        SoftAudioKernels.delayScaleRamp(bufferL, temp_bufferL, gain, gaindelta, len);
+        SoftAudioKernels.delayScaleRamp(bufferR, temp_bufferR, gain, gaindelta, len);
 
         gain = newgain;
     }
@@ -43,10 +43,16 @@ public final class SoftLowFrequencyOscillator implements SoftControl {
     private final double[] sin_phase = new double[max_count];
     private final double[] sin_stepfreq = new double[max_count];
     private final double[] sin_step = new double[max_count];
+    // The phase advances every block, the output is only evaluated when
+    // refresh() is called before reading it
+    private final boolean[] pending = new boolean[max_count];
+    private final double control_time;
     private int used_count = 0;
+    private boolean any_pending = false;
     private double sin_factor = 0;
 
-    public SoftLowFrequencyOscillator() {
+    public SoftLowFrequencyOscillator(float controlrate) {
+        control_time = 1.0 / controlrate;
         // If sin_step is 0 then sin_stepfreq must be -INF
         Arrays.fill(sin_stepfreq, Double.NEGATIVE_INFINITY);
     }
@@ -62,19 +68,21 @@ public final class SoftLowFrequencyOscillator implements SoftControl {
             // If sin_step is 0 then sin_stepfreq must be -INF
             sin_stepfreq[i] = Double.NEGATIVE_INFINITY;
             sin_step[i] = 0;
+            pending[i] = false;
         }
         used_count = 0;
+        any_pending = false;
     }
 
     public void init() {
-        double control_time = 1.0 / 147f;
         sin_factor = control_time * 2 * Math.PI;
         for (int i = 0; i < used_count; i++) {
-            delay_counter[i] = (int) (Math.pow(2,
-                    this.delay[i][0] / 1200.0) / control_time);
+            delay_counter[i] = (int) (SoftFastMath.centsToRatio(
+                    this.delay[i][0]) / control_time);
             delay_counter[i] += (int) (delay2[i][0] / (control_time * 1000));
         }
         processControlLogic();
+        refresh();
     }
 
     public void processControlLogic() {
@@ -82,13 +90,13 @@ public final class SoftLowFrequencyOscillator implements SoftControl {
             if (delay_counter[i] > 0) {
                 delay_counter[i]--;
                 out[i][0] = 0.5;
+                pending[i] = false;
             } else {
                 double f = freq[i][0];
 
                 if (sin_stepfreq[i] != f) {
                     sin_stepfreq[i] = f;
-                    double fr = 440.0 * Math.exp(
-                            (f - 6900.0) * (Math.log(2) / 1200.0));
+                    double fr = 440.0 * SoftFastMath.centsToRatio(f - 6900.0);
                     sin_step[i] = fr * sin_factor;
                 }
                 /*
@@ -106,9 +114,25 @@ public final class SoftLowFrequencyOscillator implements SoftControl {
                 p += sin_step[i];
                 while (p > PI2)
                     p -= PI2;
-                out[i][0] = 0.5 + Math.sin(p) * 0.5;
                 sin_phase[i] = p;
+                pending[i] = true;
+                any_pending = true;
+            }
+        }
+    }
 
+    /*
+     * Evaluates the outputs whose phase moved since they were last read.
+     * Voices call this before a connection reads an LFO output.
+     */
+    void refresh() {
+        if (!any_pending)
+            return;
+        any_pending = false;
+        for (int i = 0; i < used_count; i++) {
+            if (pending[i]) {
+                pending[i] = false;
+                out[i][0] = 0.5 + SoftFastMath.sin(sin_phase[i]) * 0.5;
             }
         }
     }
@@ -126,4 +150,22 @@ public final class SoftLowFrequencyOscillator implements SoftControl {
             return freq[instance];
         return null;
     }
+
+    // Same as get(int, String) for a SoftControlSlot variable
+    double[] get(int instance, int variable) {
+        if (instance >= used_count)
+            used_count = instance + 1;
+        switch (variable) {
+            case SoftControlSlot.LFO_OUT:
+                return out[instance];
+            case SoftControlSlot.LFO_DELAY:
+                return delay[instance];
+            case SoftControlSlot.LFO_DELAY2:
+                return delay2[instance];
+            case SoftControlSlot.LFO_FREQ:
+                return freq[instance];
+            default:
+                return null;
+        }
+    }
 }
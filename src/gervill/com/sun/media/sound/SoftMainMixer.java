@@ -24,10 +24,12 @@
  */
 package gervill.com.sun.media.sound;
 
+import gervill.javax.sound.sampled.AudioFormat;
 import gervill.javax.sound.sampled.AudioInputStream;
 import own.main.ImmutableList;
 
 import java.io.InputStream;
+import java.util.Arrays;
 
 /**
  * Software synthesizer main audio mixer.
@@ -51,36 +53,37 @@ public final class SoftMainMixer {
     private final Object control_mutex;
     private final SoftSynthesizer synth;
     private final SoftVoice[] voicestatus;
+    private final int bufferlen;
+    private final int nrofchannels;
     private final ImmutableList<SoftAudioBuffer> buffers;
-    private final SoftReverb reverb;
+    private final SoftAudioProcessor reverb;
     private final SoftChorus chorus;
     private final SoftLimiter agc;
+    private final SoftVoiceRenderer renderer;
     private final double[] co_master_balance = new double[1];
     private final double[] co_master_volume = new double[1];
     private final double[] co_master_coarse_tuning = new double[1];
     private final double[] co_master_fine_tuning = new double[1];
-    final SoftControl co_master = new SoftControl() {
-
-        final double[] balance = co_master_balance;
-        final double[] volume = co_master_volume;
-        final double[] coarse_tuning = co_master_coarse_tuning;
-        final double[] fine_tuning = co_master_fine_tuning;
-
-        public double[] get(int instance, String name) {
-            if (name == null)
-                return null;
-            if (name.equals("balance"))
-                return balance;
-            if (name.equals("volume"))
-                return volume;
-            if (name.equals("coarse_tuning"))
-                return coarse_tuning;
-            if (name.equals("fine_tuning"))
-                return fine_tuning;
-            return null;
-        }
-    };
     private final AudioInputStream ais;
+    // Scheduled events as a binary heap ordered by output frame and then
+    // by arrival, guarded by control_mutex. Events are encoded as for
+    // SoftQueuedChannel.dispatch.
+    private long[] event_frame = new long[64];
+    private long[] event_seq = new long[64];
+    private int[] event_command = new int[64];
+    private int[] event_data1 = new int[64];
+    private int[] event_data2 = new int[64];
+    private int event_count = 0;
+    private long event_next_seq = 0;
+    // Events from SoftQueuedChannel, drained at the start of each block
+    private final SoftMidiQueue midiqueue = new SoftMidiQueue(4096);
+    private final SoftMidiQueue.Receiver midireceiver;
+    // Queued events that threw, written only by the render thread
+    private volatile long failed_events = 0;
+    private volatile RuntimeException last_event_failure;
+    // Output frame at which the next rendered block is heard. The limiter
+    // holds back one block, so this runs one block ahead of the stream.
+    private volatile long frame_pos;
     double last_volume_left = 1.0;
     double last_volume_right = 1.0;
 
@@ -93,31 +96,60 @@ public final class SoftMainMixer {
         co_master_fine_tuning[0] = 0.5;
 
         control_mutex = synth.control_mutex;
-        buffers = ImmutableList.create(14, i -> new SoftAudioBuffer());
+        midireceiver = (command, data1, data2, timeStamp, object) -> {
+            try {
+                SoftQueuedChannel.dispatch(synth.channels, command, data1, data2,
+                        timeStamp, object);
+            } catch (RuntimeException e) {
+                // There is no caller to report to, a failing event must
+                // not stop rendering. It is counted and kept instead.
+                last_event_failure = e;
+                failed_events++;
+            }
+        };
+        SoftEngineConfig config = synth.getConfig();
+        AudioFormat format = config.getFormat();
+        bufferlen = config.getBlockSize();
+        frame_pos = bufferlen;
+        nrofchannels = format.getChannels();
+        buffers = ImmutableList.create(14, i -> new SoftAudioBuffer(bufferlen, format));
         voicestatus = synth.getVoices();
+        renderer = config.getRenderThreads() > 1
+                ? new SoftVoiceRenderer(config.getRenderThreads(), voicestatus.length,
+                bufferlen, format)
+                : null;
 
         SoftAudioBuffer left = buffers.get(CHANNEL_LEFT);
         SoftAudioBuffer right = buffers.get(CHANNEL_RIGHT);
 
-        reverb = new SoftReverb(buffers.get(CHANNEL_EFFECT1), left, right);
-        chorus = new SoftChorus(buffers.get(CHANNEL_EFFECT2), left, right);
-        agc = new SoftLimiter(left, right);
+        float samplerate = config.getSampleRate();
+        float controlrate = config.getControlRate();
+        SoftImpulseResponse impulseResponse = config.getImpulseResponse();
+        if (impulseResponse != null)
+            reverb = new SoftConvolutionReverb(buffers.get(CHANNEL_EFFECT1), left, right,
+                    samplerate, bufferlen, impulseResponse, config.isReverbThread());
+        else
+            reverb = new SoftReverb(buffers.get(CHANNEL_EFFECT1), left, right, samplerate);
+        chorus = new SoftChorus(buffers.get(CHANNEL_EFFECT2), left, right,
+                samplerate, controlrate);
+        agc = new SoftLimiter(left, right, controlrate);
 
         InputStream in = new InputStream() {
 
-            private final byte[] bbuffer = new byte[1200];
-            private int bbuffer_pos = 0;
+            private final byte[] bbuffer = new byte[bufferlen * format.getFrameSize()];
+            // Starts empty so the first read renders a block
+            private int bbuffer_pos = bbuffer.length;
 
             public int read(byte[] b, int off, int len) {
                 int offlen = off + len;
                 while (off < offlen) {
-                    if (bbuffer_pos == 1200) {
+                    if (bbuffer_pos == bbuffer.length) {
                         processAudioBuffers();
-                        buffers.get(0).get(bbuffer, 0);
-                        buffers.get(1).get(bbuffer, 1);
+                        for (int i = 0; i < nrofchannels; i++)
+                            buffers.get(i).get(bbuffer, i);
                         bbuffer_pos = 0;
                     }
-                    while (off < offlen && bbuffer_pos < 1200)
+                    while (off < offlen && bbuffer_pos < bbuffer.length)
                         b[off++] = bbuffer[bbuffer_pos++];
                 }
                 return len;
@@ -132,7 +164,7 @@ public final class SoftMainMixer {
             }
         };
 
-        ais = new AudioInputStream(in, SoftSynthesizer.SYNTH_FORMAT, AudioInputStream.NOT_SPECIFIED);
+        ais = new AudioInputStream(in, format, AudioInputStream.NOT_SPECIFIED);
 
     }
 
@@ -166,9 +198,13 @@ public final class SoftMainMixer {
         double volume_left;
         double volume_right;
 
+
         // perform control logic
         synchronized (control_mutex) {
 
+            midiqueue.drain(midireceiver);
+            processEvents(frame_pos);
+
             for (SoftVoice softVoice : voicestatus)
                 if (softVoice.active)
                     softVoice.processControlLogic();
@@ -188,20 +224,35 @@ public final class SoftMainMixer {
 
         }
 
-        for (SoftVoice softVoice : voicestatus)
-            if (softVoice.active)
-                softVoice.processAudioLogic(buffers);
+        // Scheduled events split the block into segments. All voices
+        // are rendered segment by segment, and at each event the voices
+        // of the channels it touched pick up the new controls.
+        int start = 0;
+        while (true) {
+            int end = bufferlen;
+            synchronized (control_mutex) {
+                if (event_count != 0 && event_frame[0] < frame_pos + bufferlen)
+                    end = (int) Math.max(event_frame[0] - frame_pos, start);
+            }
+            if (end > start)
+                renderVoices(voicestatus, voicestatus.length, start, end);
+            if (end == bufferlen)
+                break;
+            synchronized (control_mutex) {
+                int touched = processEvents(frame_pos + end);
+                for (int c = 0; touched != 0; c++, touched >>>= 1)
+                    if ((touched & 1) != 0)
+                        synth.channels[c].updateVoiceControls();
+            }
+            start = end;
+        }
+        frame_pos += bufferlen;
 
         if (!buffers.get(CHANNEL_MONO).isSilent()) {
             float[] mono = buffers.get(CHANNEL_MONO).array();
             float[] left = buffers.get(CHANNEL_LEFT).array();
-            int bufferlen = 300;
             float[] right = buffers.get(CHANNEL_RIGHT).array();
-            for (int i = 0; i < bufferlen; i++) {
-                float v = mono[i];
-                left[i] += v;
-                right[i] += v;
-            }
+            SoftAudioKernels.addTo2(mono, left, right, bufferlen);
         }
 
         // Run effects
@@ -212,22 +263,15 @@ public final class SoftMainMixer {
         if (last_volume_left != volume_left || last_volume_right != volume_right) {
             float[] left = buffers.get(CHANNEL_LEFT).array();
             float[] right = buffers.get(CHANNEL_RIGHT).array();
-            int bufferlen = 300;
 
             float amp;
             float amp_delta;
             amp = (float) (last_volume_left * last_volume_left);
             amp_delta = (float) ((volume_left * volume_left - amp) / bufferlen);
-            for (int i = 0; i < bufferlen; i++) {
-                amp += amp_delta;
-                left[i] *= amp;
-            }
+            SoftAudioKernels.scaleRamp(left, amp, amp_delta, bufferlen);
             amp = (float) (last_volume_right * last_volume_right);
             amp_delta = (float) ((volume_right * volume_right - amp) / bufferlen);
-            for (int i = 0; i < bufferlen; i++) {
-                amp += amp_delta;
-                right[i] *= volume_right;
-            }
+            SoftAudioKernels.scaleRamp(right, amp, amp_delta, bufferlen);
             last_volume_left = volume_left;
             last_volume_right = volume_right;
 
@@ -235,20 +279,158 @@ public final class SoftMainMixer {
             if (volume_left != 1.0 || volume_right != 1.0) {
                 float[] left = buffers.get(CHANNEL_LEFT).array();
                 float[] right = buffers.get(CHANNEL_RIGHT).array();
-                int bufferlen = 300;
                 float amp;
                 amp = (float) (volume_left * volume_left);
-                for (int i = 0; i < bufferlen; i++)
-                    left[i] *= amp;
+                SoftAudioKernels.scale(left, amp, bufferlen);
                 amp = (float) (volume_right * volume_right);
-                for (int i = 0; i < bufferlen; i++)
-                    right[i] *= amp;
+                SoftAudioKernels.scale(right, amp, bufferlen);
 
             }
         }
 
         agc.processAudio();
 
+        if (nrofchannels == 1) {
+            float[] left = buffers.get(CHANNEL_LEFT).array();
+            float[] right = buffers.get(CHANNEL_RIGHT).array();
+            for (int i = 0; i < bufferlen; i++)
+                left[i] = (left[i] + right[i]) * 0.5f;
+        }
+
+    }
+
+    private void renderVoices(SoftVoice[] list, int count, int start, int end) {
+        if (renderer != null) {
+            renderer.render(list, count, start, end, buffers);
+            return;
+        }
+        for (int i = 0; i < count; i++)
+            if (list[i].active)
+                list[i].processAudioLogic(buffers, start, end);
+    }
+
+    SoftMidiQueue getMidiQueue() {
+        return midiqueue;
+    }
+
+    long getFailedEventCount() {
+        return failed_events;
+    }
+
+    RuntimeException getLastEventFailure() {
+        return last_event_failure;
+    }
+
+    // Master control value for a SoftControlSlot variable
+    double[] getMasterControl(int variable) {
+        switch (variable) {
+            case SoftControlSlot.MASTER_BALANCE:
+                return co_master_balance;
+            case SoftControlSlot.MASTER_VOLUME:
+                return co_master_volume;
+            case SoftControlSlot.MASTER_COARSE_TUNING:
+                return co_master_coarse_tuning;
+            case SoftControlSlot.MASTER_FINE_TUNING:
+                return co_master_fine_tuning;
+            default:
+                return null;
+        }
+    }
+
+    void close() {
+        if (renderer != null)
+            renderer.close();
+        reverb.close();
+    }
+
+    /*
+     * Runs the events scheduled at or before frame and returns a mask of
+     * the channels they were sent to.
+     */
+    private int processEvents(long frame) {
+        int touched = 0;
+        while (event_count != 0 && event_frame[0] <= frame) {
+            int command = event_command[0];
+            int data1 = event_data1[0];
+            int data2 = event_data2[0];
+            removeFirstEvent();
+            touched |= 1 << (command & 0xF);
+            SoftQueuedChannel.dispatch(synth.channels, command, data1, data2,
+                    SoftQueuedChannel.NO_TIMESTAMP, null);
+        }
+        return touched;
+    }
+
+    // Schedules an encoded channel event, see SoftQueuedChannel.dispatch
+    void schedule(long timeStamp, int command, int data1, int data2) {
+        synchronized (control_mutex) {
+            if (event_count == event_frame.length) {
+                int size = event_count * 2;
+                event_frame = Arrays.copyOf(event_frame, size);
+                event_seq = Arrays.copyOf(event_seq, size);
+                event_command = Arrays.copyOf(event_command, size);
+                event_data1 = Arrays.copyOf(event_data1, size);
+                event_data2 = Arrays.copyOf(event_data2, size);
+            }
+            int i = event_count++;
+            setEvent(i, timeStamp, event_next_seq++, command, data1, data2);
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!eventBefore(i, parent))
+                    break;
+                swapEvents(i, parent);
+                i = parent;
+            }
+        }
+    }
+
+    private void removeFirstEvent() {
+        int last = --event_count;
+        setEvent(0, event_frame[last], event_seq[last], event_command[last],
+                event_data1[last], event_data2[last]);
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= event_count)
+                break;
+            if (child + 1 < event_count && eventBefore(child + 1, child))
+                child++;
+            if (!eventBefore(child, i))
+                break;
+            swapEvents(i, child);
+            i = child;
+        }
+    }
+
+    private boolean eventBefore(int i, int j) {
+        if (event_frame[i] != event_frame[j])
+            return event_frame[i] < event_frame[j];
+        return event_seq[i] < event_seq[j];
+    }
+
+    private void setEvent(int i, long frame, long seq, int command,
+                          int data1, int data2) {
+        event_frame[i] = frame;
+        event_seq[i] = seq;
+        event_command[i] = command;
+        event_data1[i] = data1;
+        event_data2[i] = data2;
+    }
+
+    private void swapEvents(int i, int j) {
+        long frame = event_frame[i];
+        long seq = event_seq[i];
+        int command = event_command[i];
+        int data1 = event_data1[i];
+        int data2 = event_data2[i];
+        setEvent(i, event_frame[j], event_seq[j], event_command[j],
+                event_data1[j], event_data2[j]);
+        setEvent(j, frame, seq, command, data1, data2);
+    }
+
+    // Frames handed to the output stream so far
+    long getFramePosition() {
+        return frame_pos - bufferlen;
     }
 
     public AudioInputStream getInputStream() {
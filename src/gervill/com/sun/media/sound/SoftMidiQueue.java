@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.com.sun.media.sound;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue of encoded MIDI events. Any number of threads
+ * may offer events, a single thread drains them. Events offered while
+ * the queue is full are dropped and counted. An event may carry one
+ * object, such as the instrument of an instrument change.
+ */
+final class SoftMidiQueue {
+
+    interface Receiver {
+        void receive(int command, int data1, int data2, long timeStamp,
+                     Object object);
+    }
+
+    private final int mask;
+    private final int[] commands;
+    private final long[] data;
+    private final long[] timestamps;
+    private final Object[] objects;
+    // A slot may be written when its sequence equals the producer
+    // position, and read when it equals the consumer position + 1.
+    private final AtomicLongArray sequence;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private long head = 0;
+
+    SoftMidiQueue(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        mask = capacity - 1;
+        commands = new int[capacity];
+        data = new long[capacity];
+        timestamps = new long[capacity];
+        objects = new Object[capacity];
+        sequence = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+            sequence.set(i, i);
+    }
+
+    boolean offer(int command, int data1, int data2, long timeStamp) {
+        return offer(command, data1, data2, timeStamp, null);
+    }
+
+    boolean offer(int command, int data1, int data2, long timeStamp,
+                  Object object) {
+        long pos = tail.get();
+        int ix;
+        while (true) {
+            ix = (int) pos & mask;
+            long dif = sequence.get(ix) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1))
+                    break;
+                pos = tail.get();
+            } else if (dif < 0) {
+                dropped.incrementAndGet();
+                return false;
+            } else
+                pos = tail.get();
+        }
+        commands[ix] = command;
+        data[ix] = ((long) data1 << 32) | (data2 & 0xFFFFFFFFL);
+        timestamps[ix] = timeStamp;
+        objects[ix] = object;
+        sequence.lazySet(ix, pos + 1);
+        return true;
+    }
+
+    // Must only be called by the consumer thread.
+    void drain(Receiver receiver) {
+        while (true) {
+            int ix = (int) head & mask;
+            if (sequence.get(ix) != head + 1)
+                return;
+            int command = commands[ix];
+            long d = data[ix];
+            long timeStamp = timestamps[ix];
+            Object object = objects[ix];
+            // Do not keep the object alive until the slot is reused
+            objects[ix] = null;
+            sequence.lazySet(ix, head + mask + 1);
+            head++;
+            receiver.receive(command, (int) (d >> 32), (int) d, timeStamp,
+                    object);
+        }
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -307,6 +307,25 @@ public final class SoftPerformer {
     public final ImmutableList<ImmutableList<Integer>> midi_ctrl_connections;
     public final ImmutableList<ImmutableList<Integer>> midi_connections;
     public final ImmutableList<Integer> ctrl_connections;
+    // The connections compiled to control slots, indexed by connection.
+    // Sources and destinations index into slots, -1 is no destination.
+    final int[] slots;
+    final int[][] connection_src;
+    final int[][] connection_src_kc;
+    final ModelTransform[][] connection_src_transform;
+    final int[] connection_dst;
+    final ModelTransform[] connection_dst_transform;
+    final double[] connection_scale;
+    // ctrl_connections unboxed, for the per block loop of every voice
+    final int[] ctrl_connection_index;
+    // Connections that read an LFO output. Their other sources are checked
+    // first, an LFO scaled by a zero controller does not need evaluating.
+    final boolean[] connection_lfo;
+    // Stages the connections can drive, found at load time. Voices of a
+    // performer without them skip the LFOs or leave out the effect sends.
+    final boolean lfo_routes;
+    final boolean reverb_routes;
+    final boolean chorus_routes;
 
     public SoftPerformer(ModelPerformer performer) {
         exclusiveClass = performer.getExclusiveClass();
@@ -544,8 +563,74 @@ public final class SoftPerformer {
         this.midi_ctrl_connections = ImmutableList.create(midi_ctrl_connections);
         this.midi_connections = ImmutableList.create(midi_connections);
         ctrl_connections = ImmutableList.create(ctrl_connections_list.size(), ctrl_connections_list::get);
+        ctrl_connection_index = new int[ctrl_connections_list.size()];
+        for (int i = 0; i < ctrl_connection_index.length; i++)
+            ctrl_connection_index[i] = ctrl_connections_list.get(i);
         this.connections = ImmutableList.create(connections);
         oscillators = performer.getOscillators();
+
+        int count = connections.size();
+        Map<Integer, Integer> slotmap = new LinkedHashMap<>();
+        connection_src = new int[count][];
+        connection_src_kc = new int[count][];
+        connection_src_transform = new ModelTransform[count][];
+        connection_dst = new int[count];
+        connection_dst_transform = new ModelTransform[count];
+        connection_scale = new double[count];
+        connection_lfo = new boolean[count];
+        boolean lfo_routes = false;
+        boolean reverb_routes = false;
+        boolean chorus_routes = false;
+        for (int i = 0; i < count; i++) {
+            ModelConnectionBlock conn = connections.get(i);
+            ImmutableList<ModelSource> srcs = conn.getSources();
+            connection_src[i] = new int[srcs.size()];
+            connection_src_kc[i] = new int[srcs.size()];
+            connection_src_transform[i] = new ModelTransform[srcs.size()];
+            for (int j = 0; j < srcs.size(); j++) {
+                ModelIdentifier id = srcs.get(j).getIdentifier();
+                int slot = SoftControlSlot.compile(id);
+                connection_src[i][j] = slotIndex(slotmap, slot);
+                connection_src_kc[i][j] = SoftControlSlot.keyBasedController(id);
+                connection_src_transform[i][j] = srcs.get(j).getTransform();
+                if (SoftControlSlot.object(slot) == SoftControlSlot.OBJ_LFO
+                        && SoftControlSlot.variable(slot) == SoftControlSlot.LFO_OUT)
+                    connection_lfo[i] = true;
+            }
+            ModelDestination dest = conn.getDestination();
+            if (dest != null) {
+                int slot = SoftControlSlot.compile(dest.getIdentifier());
+                connection_dst[i] = slot == SoftControlSlot.NONE ? -1
+                        : slotIndex(slotmap, slot);
+                connection_dst_transform[i] = dest.getTransform();
+                if (conn.getScale() != 0
+                        && SoftControlSlot.object(slot) == SoftControlSlot.OBJ_MIXER) {
+                    if (SoftControlSlot.variable(slot) == SoftControlSlot.MIXER_REVERB)
+                        reverb_routes = true;
+                    if (SoftControlSlot.variable(slot) == SoftControlSlot.MIXER_CHORUS)
+                        chorus_routes = true;
+                }
+            } else
+                connection_dst[i] = -1;
+            connection_scale[i] = conn.getScale();
+            if (connection_lfo[i] && connection_dst[i] != -1 && conn.getScale() != 0)
+                lfo_routes = true;
+        }
+        this.lfo_routes = lfo_routes;
+        this.reverb_routes = reverb_routes;
+        this.chorus_routes = chorus_routes;
+        slots = new int[slotmap.size()];
+        for (Map.Entry<Integer, Integer> entry : slotmap.entrySet())
+            slots[entry.getValue()] = entry.getKey();
+    }
+
+    private static int slotIndex(Map<Integer, Integer> slotmap, int slot) {
+        Integer index = slotmap.get(slot);
+        if (index == null) {
+            index = slotmap.size();
+            slotmap.put(slot, index);
+        }
+        return index;
     }
 
     private static void processSource(ModelSource src, int ix, List<Integer> ctrl_connections_list, Map<Integer, ImmutableList<Integer>> midi_nrpn_connections, Map<Integer, ImmutableList<Integer>> midi_rpn_connections, List<ImmutableList<Integer>> midi_ctrl_connections, List<ImmutableList<Integer>> midi_connections) {
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.com.sun.media.sound;
+
+import gervill.javax.sound.midi.Instrument;
+import gervill.javax.sound.midi.MidiChannel;
+
+/**
+ * A MidiChannel that queues its events for the render thread instead of
+ * applying them under the synthesizer lock. Events are applied at the
+ * start of the next rendered block, in the order they were queued.
+ * Getters are passed to the channel directly.
+ */
+public final class SoftQueuedChannel implements MidiChannel {
+
+    static final int NOTE_ON = 1;
+    static final int NOTE_OFF = 2;
+    static final int NOTE_OFF_NO_VELOCITY = 3;
+    static final int POLY_PRESSURE = 4;
+    static final int CHANNEL_PRESSURE = 5;
+    static final int CONTROL_CHANGE = 6;
+    static final int PITCH_BEND = 7;
+    static final int RESET_ALL_CONTROLLERS = 8;
+    static final int ALL_NOTES_OFF = 9;
+    static final int ALL_SOUND_OFF = 10;
+    static final int MONO = 11;
+    static final int OMNI = 12;
+    static final int MUTE = 13;
+    static final int SOLO = 14;
+    static final int INSTRUMENT_CHANGE = 15;
+
+    static final long NO_TIMESTAMP = -1;
+
+    private final SoftSynthesizer synthesizer;
+    private final MidiChannel channel;
+    private final int channelNumber;
+
+    SoftQueuedChannel(SoftSynthesizer synthesizer, MidiChannel channel, int channelNumber) {
+        this.synthesizer = synthesizer;
+        this.channel = channel;
+        this.channelNumber = channelNumber;
+    }
+
+    /*
+     * Applies a queued event to its channel, called on the render thread.
+     * Only an instrument change carries an object, its instrument.
+     */
+    static void dispatch(SoftChannel[] channels, int command, int data1, int data2,
+                         long timeStamp, Object object) {
+        SoftChannel channel = channels[command & 0xF];
+        switch (command >>> 4) {
+            case NOTE_ON:
+                if (timeStamp == NO_TIMESTAMP)
+                    channel.noteOn(data1, data2);
+                else
+                    channel.noteOn(data1, data2, timeStamp);
+                break;
+            case NOTE_OFF:
+                if (timeStamp == NO_TIMESTAMP)
+                    channel.noteOff(data1, data2);
+                else
+                    channel.noteOff(data1, data2, timeStamp);
+                break;
+            case NOTE_OFF_NO_VELOCITY:
+                channel.noteOff(data1);
+                break;
+            case POLY_PRESSURE:
+                channel.setPolyPressure(data1, data2);
+                break;
+            case CHANNEL_PRESSURE:
+                channel.setChannelPressure(data1);
+                break;
+            case CONTROL_CHANGE:
+                if (timeStamp == NO_TIMESTAMP)
+                    channel.controlChange(data1, data2);
+                else
+                    channel.controlChange(data1, data2, timeStamp);
+                break;
+            case PITCH_BEND:
+                if (timeStamp == NO_TIMESTAMP)
+                    channel.setPitchBend(data1);
+                else
+                    channel.setPitchBend(data1, timeStamp);
+                break;
+            case RESET_ALL_CONTROLLERS:
+                channel.resetAllControllers();
+                break;
+            case ALL_NOTES_OFF:
+                channel.allNotesOff();
+                break;
+            case ALL_SOUND_OFF:
+                channel.allSoundOff();
+                break;
+            case MONO:
+                channel.setMono(data1 != 0);
+                break;
+            case OMNI:
+                channel.setOmni(data1 != 0);
+                break;
+            case MUTE:
+                channel.setMute(data1 != 0);
+                break;
+            case SOLO:
+                channel.setSolo(data1 != 0);
+                break;
+            case INSTRUMENT_CHANGE:
+                channel.instrumentChange((Instrument) object);
+                break;
+        }
+    }
+
+    private void queue(int command, int data1, int data2, long timeStamp) {
+        queue(command, data1, data2, timeStamp, null);
+    }
+
+    private void queue(int command, int data1, int data2, long timeStamp,
+                       Object object) {
+        SoftMidiQueue queue = synthesizer.getMidiQueue();
+        if (queue == null)
+            return;
+        queue.offer((command << 4) | channelNumber, data1, data2, timeStamp,
+                object);
+    }
+
+    public void noteOn(int noteNumber, int velocity) {
+        queue(NOTE_ON, noteNumber, velocity, NO_TIMESTAMP);
+    }
+
+    public void noteOn(int noteNumber, int velocity, long timeStamp) {
+        queue(NOTE_ON, noteNumber, velocity, timeStamp);
+    }
+
+    public void noteOff(int noteNumber, int velocity) {
+        queue(NOTE_OFF, noteNumber, velocity, NO_TIMESTAMP);
+    }
+
+    public void noteOff(int noteNumber, int velocity, long timeStamp) {
+        queue(NOTE_OFF, noteNumber, velocity, timeStamp);
+    }
+
+    public void noteOff(int noteNumber) {
+        queue(NOTE_OFF_NO_VELOCITY, noteNumber, 0, NO_TIMESTAMP);
+    }
+
+    public void setPolyPressure(int noteNumber, int pressure) {
+        queue(POLY_PRESSURE, noteNumber, pressure, NO_TIMESTAMP);
+    }
+
+    public int getPolyPressure(int noteNumber) {
+        return channel.getPolyPressure(noteNumber);
+    }
+
+    public int getChannelPressure() {
+        return channel.getChannelPressure();
+    }
+
+    public void setChannelPressure(int pressure) {
+        queue(CHANNEL_PRESSURE, pressure, 0, NO_TIMESTAMP);
+    }
+
+    public void controlChange(int controller, int value) {
+        queue(CONTROL_CHANGE, controller, value, NO_TIMESTAMP);
+    }
+
+    public void controlChange(int controller, int value, long timeStamp) {
+        queue(CONTROL_CHANGE, controller, value, timeStamp);
+    }
+
+    public int getController(int controller) {
+        return channel.getController(controller);
+    }
+
+    public void instrumentChange(Instrument instrument) {
+        queue(INSTRUMENT_CHANGE, 0, 0, NO_TIMESTAMP, instrument);
+    }
+
+    public int getPitchBend() {
+        return channel.getPitchBend();
+    }
+
+    public void setPitchBend(int bend) {
+        queue(PITCH_BEND, bend, 0, NO_TIMESTAMP);
+    }
+
+    public void setPitchBend(int bend, long timeStamp) {
+        queue(PITCH_BEND, bend, 0, timeStamp);
+    }
+
+    public void resetAllControllers() {
+        queue(RESET_ALL_CONTROLLERS, 0, 0, NO_TIMESTAMP);
+    }
+
+    public void allNotesOff() {
+        queue(ALL_NOTES_OFF, 0, 0, NO_TIMESTAMP);
+    }
+
+    public void allSoundOff() {
+        queue(ALL_SOUND_OFF, 0, 0, NO_TIMESTAMP);
+    }
+
+    public boolean getMono() {
+        return channel.getMono();
+    }
+
+    public void setMono(boolean on) {
+        queue(MONO, on ? 1 : 0, 0, NO_TIMESTAMP);
+    }
+
+    public boolean getOmni() {
+        return channel.getOmni();
+    }
+
+    public void setOmni(boolean on) {
+        queue(OMNI, on ? 1 : 0, 0, NO_TIMESTAMP);
+    }
+
+    public boolean getMute() {
+        return channel.getMute();
+    }
+
+    public void setMute(boolean mute) {
+        queue(MUTE, mute ? 1 : 0, 0, NO_TIMESTAMP);
+    }
+
+    public boolean getSolo() {
+        return channel.getSolo();
+    }
+
+    public void setSolo(boolean soloState) {
+        queue(SOLO, soloState ? 1 : 0, 0, NO_TIMESTAMP);
+    }
+}
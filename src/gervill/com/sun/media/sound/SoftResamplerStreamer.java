@@ -49,6 +49,8 @@ public class SoftResamplerStreamer {
     float loopstart;
     float looplen;
     float target_pitch;
+    // Pitch target_pitch was last computed for, NaN after open
+    private float last_pitch = Float.NaN;
     boolean started;
     boolean eof;
     int sector_pos = 0;
@@ -151,10 +153,11 @@ public class SoftResamplerStreamer {
             ibuffer = new float[nrofchannels][sector_size + pad2];
         }
 
-        stream = osc.openStream();
+        stream = osc.openStream(stream);
         streampos = 0;
         stream_eof = false;
         pitchcorrection = osc.getPitchcorrection();
+        last_pitch = Float.NaN;
         samplerateconv
                 = stream.getFormat().getSampleRate() / outputsamplerate;
         looplen = osc.getLoopLength();
@@ -201,9 +204,13 @@ public class SoftResamplerStreamer {
             (pitchcorrection + pitch) / 1200.0f)
              * samplerateconv;
              */
-        this.target_pitch = (float) Math.exp(
-                (pitchcorrection + pitch) * (Math.log(2.0) / 1200.0))
-                * samplerateconv;
+        if (pitch != last_pitch) {
+            last_pitch = pitch;
+            this.target_pitch = (float) SoftFastMath.centsToRatio(
+                    pitchcorrection + pitch)
+                    * samplerateconv;
+            stream.setReadRate(target_pitch / samplerateconv);
+        }
 
         if (!started)
             current_pitch[0] = this.target_pitch;
@@ -33,12 +33,13 @@ import own.main.ImmutableList;
  *
  * @author Karl Helgason
  */
-public final class SoftReverb {
+public final class SoftReverb implements SoftAudioProcessor {
 
     private final Delay delay = new Delay();
-    private final ImmutableList<Comb> combL = ImmutableList.create(new Comb(1116), new Comb(1188), new Comb(1277), new Comb(1356), new Comb(1422), new Comb(1491), new Comb(1557), new Comb(1617));
-    private final ImmutableList<Comb> combR = ImmutableList.create(new Comb(1139), new Comb(1211), new Comb(1300), new Comb(1379), new Comb(1445), new Comb(1514), new Comb(1580), new Comb(1640));
-    private final ImmutableList<AllPass> allpassL = ImmutableList.create(new AllPass(556, 0.5f), new AllPass(441, 0.5f), new AllPass(341, 0.5f), new AllPass(225, 0.5f));
+    private final ImmutableList<Comb> combL;
+    private final ImmutableList<Comb> combR;
+    private final ImmutableList<AllPass> allpassL;
+    private final float samplerate;
     private final SoftAudioBuffer inputA;
     private final SoftAudioBuffer left;
     private final SoftAudioBuffer right;
@@ -51,10 +52,18 @@ public final class SoftReverb {
     private boolean dirty = true;
     private boolean silent = true;
 
-    public SoftReverb(SoftAudioBuffer inputA, SoftAudioBuffer left, SoftAudioBuffer right) {
+    public SoftReverb(SoftAudioBuffer inputA, SoftAudioBuffer left, SoftAudioBuffer right,
+                      float samplerate) {
         this.inputA = inputA;
         this.left = left;
         this.right = right;
+        this.samplerate = samplerate;
+
+        // Filter lengths are tuned for 44100 Hz
+        double freqscale = samplerate / 44100.0;
+        combL = ImmutableList.create(new Comb(1116, freqscale), new Comb(1188, freqscale), new Comb(1277, freqscale), new Comb(1356, freqscale), new Comb(1422, freqscale), new Comb(1491, freqscale), new Comb(1557, freqscale), new Comb(1617, freqscale));
+        combR = ImmutableList.create(new Comb(1139, freqscale), new Comb(1211, freqscale), new Comb(1300, freqscale), new Comb(1379, freqscale), new Comb(1445, freqscale), new Comb(1514, freqscale), new Comb(1580, freqscale), new Comb(1640, freqscale));
+        allpassL = ImmutableList.create(new AllPass(556, freqscale, 0.5f), new AllPass(441, freqscale, 0.5f), new AllPass(341, freqscale, 0.5f), new AllPass(225, freqscale, 0.5f));
     }
 
     public void processAudio() {
@@ -140,6 +149,9 @@ public final class SoftReverb {
         }
     }
 
+    public void close() {
+    }
+
     public void setRoomSize(float value) {
         float roomsize = 1 - (0.17f / value);
 
@@ -150,7 +162,7 @@ public final class SoftReverb {
     }
 
     public void setPreDelay(float value) {
-        delay.setDelay((int) (value * 44100));
+        delay.setDelay((int) (value * samplerate));
     }
 
     public void setGain(float gain) {
@@ -158,7 +170,7 @@ public final class SoftReverb {
     }
 
     public void setDamp(float value) {
-        double x = (value / 44100) * (2 * Math.PI);
+        double x = (value / samplerate) * (2 * Math.PI);
         double cx = 2 - Math.cos(x);
         float damp = (float) (cx - Math.sqrt(cx * cx - 1));
         if (damp > 1)
@@ -216,7 +228,8 @@ public final class SoftReverb {
         private final float feedback;
         private int rovepos = 0;
 
-        AllPass(int size, float feedback) {
+        AllPass(int size, double freqscale, float feedback) {
+            size = (int) (size * freqscale);
             delaybuffer = new float[size];
             delaybuffersize = size;
             this.feedback = feedback;
@@ -249,7 +262,8 @@ public final class SoftReverb {
         private float filtercoeff1 = 0;
         private float filtercoeff2 = 1;
 
-        Comb(int size) {
+        Comb(int size, double freqscale) {
+            size = (int) (size * freqscale);
             delaybuffer = new float[size];
             delaybuffersize = size;
         }
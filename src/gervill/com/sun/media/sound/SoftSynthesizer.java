@@ -44,24 +44,27 @@ import java.util.*;
 public final class SoftSynthesizer implements AutoCloseable {
 
     public static final int NUMBER_OF_CHANNELS = 16;
-    public static final AudioFormat SYNTH_FORMAT = new AudioFormat(44100, 16, 2, true);
-    public static final AudioFloatConverter SYNTH_CONVERTER = AudioFloatConverter.getConverter(SYNTH_FORMAT);
-    private final static int MAX_POLY = 64;
     private static ImmutableList<Instrument> defaultInstruments = null;
     final Object control_mutex = this;
     final SoftChannelProxy[] external_channels = new SoftChannelProxy[NUMBER_OF_CHANNELS];
-    private final SourceDataLine sourceDataLine = new SourceDataLine();
-    private final SoftVoice[] voices = new SoftVoice[MAX_POLY];
+    private final SoftQueuedChannel[] queued_channels = new SoftQueuedChannel[NUMBER_OF_CHANNELS];
     private final Map<ModelInstrument, SoftInstrument> inslist = new HashMap<>();
     int voiceIDCounter = 0;
     SoftChannel[] channels;
+    private SoftVoice[] voices = new SoftVoice[0];
+    private SoftVoiceAllocator voiceallocator;
+    private SourceDataLine sourceDataLine = null;
     private SoftAudioPusher pusher = null;
     private boolean open = false;
     private SoftMainMixer mainmixer;
+    // Read without the lock by SoftQueuedChannel
+    private volatile SoftMidiQueue midiqueue;
+    private SoftEngineConfig config = SoftEngineConfig.DEFAULT;
 
     {
         for (int i = 0; i < NUMBER_OF_CHANNELS; i++) {
             external_channels[i] = new SoftChannelProxy();
+            queued_channels[i] = new SoftQueuedChannel(this, external_channels[i], i);
         }
     }
 
@@ -94,10 +97,24 @@ public final class SoftSynthesizer implements AutoCloseable {
         return inslist.get(instrument);
     }
 
+    SoftEngineConfig getConfig() {
+        return config;
+    }
+
     SoftVoice[] getVoices() {
         return voices;
     }
 
+    SoftVoiceAllocator getVoiceAllocator() {
+        return voiceallocator;
+    }
+
+    public int getMaxPolyphony() {
+        synchronized (control_mutex) {
+            return config.getPolyphony();
+        }
+    }
+
     public MidiChannel[] getChannels() {
 
         synchronized (control_mutex) {
@@ -105,6 +122,44 @@ public final class SoftSynthesizer implements AutoCloseable {
         }
     }
 
+    /*
+     * Returns channels whose events are queued without taking the
+     * synthesizer lock, and applied by the render thread at the start
+     * of the next block. Events queued while the queue is full are
+     * dropped, see getDroppedEventCount(). Events that throw when they
+     * are applied are skipped, see getFailedEventCount().
+     */
+    public MidiChannel[] getQueuedChannels() {
+        return queued_channels;
+    }
+
+    public long getDroppedEventCount() {
+        SoftMidiQueue queue = midiqueue;
+        return queue == null ? 0 : queue.getDroppedCount();
+    }
+
+    /*
+     * Returns the number of queued events that threw when the render
+     * thread applied them, since the synthesizer was opened.
+     */
+    public long getFailedEventCount() {
+        SoftMainMixer mainmixer = getMainMixer();
+        return mainmixer == null ? 0 : mainmixer.getFailedEventCount();
+    }
+
+    /*
+     * Returns the exception of the last queued event that failed, or null
+     * if none has.
+     */
+    public RuntimeException getLastEventFailure() {
+        SoftMainMixer mainmixer = getMainMixer();
+        return mainmixer == null ? null : mainmixer.getLastEventFailure();
+    }
+
+    SoftMidiQueue getMidiQueue() {
+        return midiqueue;
+    }
+
     public boolean loadInstrument(Instrument instrument) {
         if ((!(instrument instanceof ModelInstrument))) {
             throw new IllegalArgumentException("Unsupported instrument: " +
@@ -150,26 +205,59 @@ public final class SoftSynthesizer implements AutoCloseable {
     }
 
     public void open() {
+        open(SoftEngineConfig.DEFAULT);
+    }
+
+    public void open(SoftEngineConfig config) {
         if (isOpen()) {
             return;
         }
         synchronized (control_mutex) {
-            AudioInputStream ais = openStream();
-            sourceDataLine.open(SYNTH_FORMAT, 21168);
+            // Acquire the line first so a missing audio device leaves
+            // the synthesizer closed.
+            AudioFormat format = config.getFormat();
+            SourceDataLine line = new SourceDataLine();
+            // Roughly 120 ms of line buffer
+            line.open(format, Math.round(format.getSampleRate() * 0.12f)
+                    * format.getFrameSize());
+            sourceDataLine = line;
+            AudioInputStream ais = openStreamInternal(config);
             sourceDataLine.start();
-            pusher = new SoftAudioPusher(sourceDataLine, ais);
+            pusher = new SoftAudioPusher(sourceDataLine, ais,
+                    config.getBlockSize() * format.getFrameSize());
             pusher.start();
         }
     }
 
-    private AudioInputStream openStream() {
+    /*
+     * Opens the synthesizer without an audio line. Audio is rendered as
+     * it is read from the returned stream, as fast as the caller reads it.
+     * Closing the stream closes the synthesizer.
+     */
+    public AudioInputStream openStream() {
+        return openStream(SoftEngineConfig.DEFAULT);
+    }
+
+    public AudioInputStream openStream(SoftEngineConfig config) {
+        synchronized (control_mutex) {
+            if (open)
+                throw new IllegalStateException("Synthesizer is already open");
+            return openStreamInternal(config);
+        }
+    }
+
+    private AudioInputStream openStreamInternal(SoftEngineConfig config) {
 
         open = true;
+        this.config = config;
 
-        for (int i = 0; i < MAX_POLY; i++)
-            voices[i] = new SoftVoice(this);
+        voices = new SoftVoice[config.getPolyphony()];
+        for (int i = 0; i < voices.length; i++)
+            voices[i] = new SoftVoice(this, i);
+        voiceallocator = new SoftVoiceAllocator(voices);
 
         mainmixer = new SoftMainMixer(this);
+        midiqueue = mainmixer.getMidiQueue();
 
         channels = new SoftChannel[NUMBER_OF_CHANNELS];
         for (int i = 0; i < NUMBER_OF_CHANNELS; i++) {
@@ -211,18 +299,38 @@ public final class SoftSynthesizer implements AutoCloseable {
 
         synchronized (control_mutex) {
             open = false;
+            if (mainmixer != null)
+                mainmixer.close();
             mainmixer = null;
-            Arrays.fill(voices, null);
+            midiqueue = null;
+            voices = new SoftVoice[0];
+            voiceallocator = null;
             channels = null;
 
             for (SoftChannelProxy external_channel : external_channels) external_channel.setChannel(null);
 
-            sourceDataLine.close();
+            if (sourceDataLine != null) {
+                sourceDataLine.close();
+                sourceDataLine = null;
+            }
 
             inslist.clear();
         }
     }
 
+    /*
+     * Returns the number of frames output since the synthesizer was
+     * opened, the time base of the timestamped MidiChannel methods. The
+     * next block is already rendered, so events less than one block
+     * after this position start late, at the following block.
+     */
+    public long getFramePosition() {
+        SoftMainMixer mainmixer = getMainMixer();
+        if (mainmixer == null)
+            return 0;
+        return mainmixer.getFramePosition();
+    }
+
     public boolean isOpen() {
         synchronized (control_mutex) {
             return open;
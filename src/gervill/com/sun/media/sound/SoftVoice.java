@@ -29,8 +29,6 @@ import own.main.ImmutableList;
 
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Software synthesizer voice class.
@@ -39,97 +37,28 @@ import java.util.Map;
  */
 public final class SoftVoice {
 
-    final Map<String, SoftControl> objects =
-            new HashMap<>();
     final SoftSynthesizer synthesizer;
+    // Position in the synthesizer voice array
+    final int index;
     final double[] co_noteon_keynumber = new double[1];
     final double[] co_noteon_velocity = new double[1];
     final double[] co_noteon_on = new double[1];
     private final SoftFilter filter_left;
     private final SoftFilter filter_right;
-    private final SoftEnvelopeGenerator eg = new SoftEnvelopeGenerator();
-    private final SoftLowFrequencyOscillator lfo = new SoftLowFrequencyOscillator();
-    private final SoftControl co_noteon = new SoftControl() {
-        final double[] keynumber = co_noteon_keynumber;
-        final double[] velocity = co_noteon_velocity;
-        final double[] on = co_noteon_on;
-
-        public double[] get(int instance, String name) {
-            if (name == null)
-                return null;
-            if (name.equals("keynumber"))
-                return keynumber;
-            if (name.equals("velocity"))
-                return velocity;
-            if (name.equals("on"))
-                return on;
-            return null;
-        }
-    };
+    private final SoftEnvelopeGenerator eg;
+    private final SoftLowFrequencyOscillator lfo;
+    private final float samplerate;
+    private final int bufferlen;
     private final double[] co_mixer_active = new double[1];
     private final double[] co_mixer_gain = new double[1];
     private final double[] co_mixer_pan = new double[1];
     private final double[] co_mixer_balance = new double[1];
     private final double[] co_mixer_reverb = new double[1];
     private final double[] co_mixer_chorus = new double[1];
-    private final SoftControl co_mixer = new SoftControl() {
-        final double[] active = co_mixer_active;
-        final double[] gain = co_mixer_gain;
-        final double[] pan = co_mixer_pan;
-        final double[] balance = co_mixer_balance;
-        final double[] reverb = co_mixer_reverb;
-        final double[] chorus = co_mixer_chorus;
-
-        public double[] get(int instance, String name) {
-            if (name == null)
-                return null;
-            if (name.equals("active"))
-                return active;
-            if (name.equals("gain"))
-                return gain;
-            if (name.equals("pan"))
-                return pan;
-            if (name.equals("balance"))
-                return balance;
-            if (name.equals("reverb"))
-                return reverb;
-            if (name.equals("chorus"))
-                return chorus;
-            return null;
-        }
-    };
     private final double[] co_osc_pitch = new double[1];
-    private final SoftControl co_osc = new SoftControl() {
-        final double[] pitch = co_osc_pitch;
-
-        public double[] get(int instance, String name) {
-            if (name == null)
-                return null;
-            if (name.equals("pitch"))
-                return pitch;
-            return null;
-        }
-    };
     private final double[] co_filter_freq = new double[1];
     private final double[] co_filter_type = new double[1];
     private final double[] co_filter_q = new double[1];
-    private final SoftControl co_filter = new SoftControl() {
-        final double[] freq = co_filter_freq;
-        final double[] ftype = co_filter_type;
-        final double[] q = co_filter_q;
-
-        public double[] get(int instance, String name) {
-            if (name == null)
-                return null;
-            if (name.equals("freq"))
-                return freq;
-            if (name.equals("type"))
-                return ftype;
-            if (name.equals("q"))
-                return q;
-            return null;
-        }
-    };
     public int exclusiveClass = 0;
     public boolean releaseTriggered = false;
     /**
@@ -170,16 +99,30 @@ public final class SoftVoice {
     boolean portamento = false;
     SoftPerformer performer;
     SoftChannel softchannel = null;
+    // Links in the active voice lists kept by softchannel
+    SoftChannel listed_channel = null;
+    SoftVoice channel_prev = null;
+    SoftVoice channel_next = null;
+    SoftVoice note_prev = null;
+    SoftVoice note_next = null;
     boolean on = false;
     ModelConnectionBlock[] extendedConnectionBlocks = null;
     SoftResamplerStreamer resampler;
     private boolean audiostarted = false;
-    private boolean started = false;
+    boolean started = false;
     private boolean stopping = false;
     private float osc_attenuation = 0.0f;
     private SoftResamplerStreamer osc_stream;
     private int osc_stream_nrofchannels;
     private float[][] osc_buff = new float[2][];
+    // Stages the performer can drive, see SoftPerformer.lfo_routes
+    private boolean lfo_live = true;
+    private boolean reverb_live = true;
+    private boolean chorus_live = true;
+    // Outputs, gains and gain steps of the audible sends of a segment
+    private final float[][] send_out = new float[4][];
+    private final float[] send_from = new float[4];
+    private final float[] send_delta = new float[4];
     private boolean osc_stream_off_transmitted = false;
     private boolean out_mixer_end = false;
     private float out_mixer_left = 0;
@@ -190,58 +133,97 @@ public final class SoftVoice {
     private float last_out_mixer_right = 0;
     private float last_out_mixer_effect1 = 0;
     private float last_out_mixer_effect2 = 0;
-    private ImmutableList<ModelConnectionBlock> connections;
+    // Inputs of the last gain, pan and filter calculations, NaN forces
+    // the next block to calculate them
+    private double last_gain_input = Double.NaN;
+    private float last_gain = 0;
+    private double last_pan = Double.NaN;
+    private float pan_left = 0;
+    private float pan_right = 0;
+    private double last_filter_freq = Double.NaN;
+    private double last_filter_q = Double.NaN;
+    private double last_filter_type = Double.NaN;
     // Last value added to destination
     private double[] connections_last = new double[50];
-    // Pointer to source value
-    private double[][][] connections_src = new double[50][3][];
-    // Key-based override (if any)
-    private int[][] connections_src_kc = new int[50][3];
-    // Pointer to destination value
-    private double[][] connections_dst = new double[50][];
+    // Values of the performer control slots
+    private double[][] slot_values = new double[50][];
     private boolean soundoff = false;
     private float lastMuteValue = 0;
     private float lastSoloMuteValue = 0;
 
-    public SoftVoice(SoftSynthesizer synth) {
+    public SoftVoice(SoftSynthesizer synth, int index) {
         synthesizer = synth;
-        filter_left = new SoftFilter(44100);
-        filter_right = new SoftFilter(44100);
-    }
-
-    private int getValueKC(ModelIdentifier id) {
-        if (id.getObject().equals("midi_cc")) {
-            int ic = Integer.parseInt(id.getVariable());
-            if (ic != 0 && ic != 32) {
-                if (ic < 120)
-                    return ic;
-            }
-        } else if (id.getObject().equals("midi_rpn")) {
-            if (id.getVariable().equals("1"))
-                return 120; // Fine tuning
-            if (id.getVariable().equals("2"))
-                return 121; // Coarse tuning
-        }
-        return -1;
+        this.index = index;
+        SoftEngineConfig config = synth.getConfig();
+        samplerate = config.getSampleRate();
+        bufferlen = config.getBlockSize();
+        eg = new SoftEnvelopeGenerator(config.getControlRate());
+        lfo = new SoftLowFrequencyOscillator(config.getControlRate());
+        filter_left = new SoftFilter(samplerate);
+        filter_right = new SoftFilter(samplerate);
     }
 
-    private double[] getValue(ModelIdentifier id) {
-        SoftControl o = objects.get(id.getObject());
-        if (o == null)
+    private double[] bindSlot(int slot, int noteNumber) {
+        if (slot == SoftControlSlot.NONE)
             return null;
-        return o.get(id.getInstance(), id.getVariable());
-    }
-
-    private double transformValue(double value, ModelSource src) {
-        if (src.getTransform() != null)
-            return src.getTransform().transform(value);
-        else
-            return value;
+        int variable = SoftControlSlot.variable(slot);
+        switch (SoftControlSlot.object(slot)) {
+            case SoftControlSlot.OBJ_NOTEON:
+                switch (variable) {
+                    case SoftControlSlot.NOTEON_KEYNUMBER:
+                        return co_noteon_keynumber;
+                    case SoftControlSlot.NOTEON_VELOCITY:
+                        return co_noteon_velocity;
+                    case SoftControlSlot.NOTEON_ON:
+                        return co_noteon_on;
+                    default:
+                        return null;
+                }
+            case SoftControlSlot.OBJ_MIXER:
+                switch (variable) {
+                    case SoftControlSlot.MIXER_ACTIVE:
+                        return co_mixer_active;
+                    case SoftControlSlot.MIXER_GAIN:
+                        return co_mixer_gain;
+                    case SoftControlSlot.MIXER_PAN:
+                        return co_mixer_pan;
+                    case SoftControlSlot.MIXER_BALANCE:
+                        return co_mixer_balance;
+                    case SoftControlSlot.MIXER_REVERB:
+                        return co_mixer_reverb;
+                    case SoftControlSlot.MIXER_CHORUS:
+                        return co_mixer_chorus;
+                    default:
+                        return null;
+                }
+            case SoftControlSlot.OBJ_OSC:
+                return variable == SoftControlSlot.OSC_PITCH ? co_osc_pitch : null;
+            case SoftControlSlot.OBJ_FILTER:
+                switch (variable) {
+                    case SoftControlSlot.FILTER_FREQ:
+                        return co_filter_freq;
+                    case SoftControlSlot.FILTER_TYPE:
+                        return co_filter_type;
+                    case SoftControlSlot.FILTER_Q:
+                        return co_filter_q;
+                    default:
+                        return null;
+                }
+            case SoftControlSlot.OBJ_EG:
+                return eg.get(SoftControlSlot.instance(slot), variable);
+            case SoftControlSlot.OBJ_LFO:
+                return lfo.get(SoftControlSlot.instance(slot), variable);
+            case SoftControlSlot.OBJ_MASTER:
+                return synthesizer.getMainMixer().getMasterControl(variable);
+            default:
+                return softchannel.getControl(SoftControlSlot.object(slot),
+                        variable, noteNumber);
+        }
     }
 
-    private double transformValue(double value, ModelDestination dst) {
-        if (dst.getTransform() != null)
-            return dst.getTransform().transform(value);
+    private static double transformValue(double value, ModelTransform transform) {
+        if (transform != null)
+            return transform.transform(value);
         else
             return value;
     }
@@ -266,37 +248,78 @@ public final class SoftVoice {
     }
 
     private void processConnection(int ix) {
-        ModelConnectionBlock conn = connections.get(ix);
-        double[][] src = connections_src[ix];
-        double[] dst = connections_dst[ix];
+        SoftPerformer performer = this.performer;
+        int dst_ix = performer.connection_dst[ix];
+        if (dst_ix == -1)
+            return;
+        double[] dst = slot_values[dst_ix];
         if (dst == null || Double.isInfinite(dst[0]))
             return;
 
-        double value = conn.getScale();
-        ImmutableList<ModelSource> srcs = conn.getSources();
-        if (softchannel.keybasedcontroller_active == null) {
-            for (int i = 0; i < srcs.size(); i++) {
-                value *= transformValue(src[i][0], srcs.get(i));
+        double value = performer.connection_scale[ix];
+        int[] src = performer.connection_src[ix];
+        ModelTransform[] src_transform = performer.connection_src_transform[ix];
+        if (performer.connection_lfo[ix]) {
+            if (lfoGated(ix))
+                value = 0;
+            else
+                lfo.refresh();
+        }
+        if (value == 0) {
+            // Nothing to multiply
+        } else if (softchannel.keybasedcontroller_active == null) {
+            for (int i = 0; i < src.length; i++) {
+                value *= transformValue(slot_values[src[i]][0], src_transform[i]);
                 if (value == 0)
                     break;
             }
         } else {
-            int[] src_kc = connections_src_kc[ix];
-            for (int i = 0; i < srcs.size(); i++) {
-                value *= transformValue(processKeyBasedController(src[i][0],
-                        src_kc[i]), srcs.get(i));
+            int[] src_kc = performer.connection_src_kc[ix];
+            for (int i = 0; i < src.length; i++) {
+                value *= transformValue(processKeyBasedController(
+                        slot_values[src[i]][0], src_kc[i]), src_transform[i]);
                 if (value == 0)
                     break;
             }
         }
 
-        value = transformValue(value, conn.getDestination());
+        value = transformValue(value, performer.connection_dst_transform[ix]);
         dst[0] = dst[0] - connections_last[ix] + value;
         connections_last[ix] = value;
         // co_mixer_gain[0] = 0;
     }
 
+    /*
+     * True when a source other than the LFO output of the connection is
+     * zero after its transform, so the product is zero whatever the LFO
+     * gives. Modulation wheel, pressure and depth controllers gate most LFO
+     * routes and are usually at zero.
+     */
+    private boolean lfoGated(int ix) {
+        int[] src = performer.connection_src[ix];
+        int[] src_kc = performer.connection_src_kc[ix];
+        ModelTransform[] src_transform = performer.connection_src_transform[ix];
+        int[] slots = performer.slots;
+        boolean keybased = softchannel.keybasedcontroller_active != null;
+        for (int i = 0; i < src.length; i++) {
+            int slot = slots[src[i]];
+            if (SoftControlSlot.object(slot) == SoftControlSlot.OBJ_LFO)
+                continue;
+            double x = slot_values[src[i]][0];
+            if (keybased)
+                x = processKeyBasedController(x, src_kc[i]);
+            if (transformValue(x, src_transform[i]) == 0)
+                return true;
+        }
+        return false;
+    }
+
     void setNote(int noteNumber) {
+        if (listed_channel != null && note != noteNumber) {
+            listed_channel.unlinkNote(this);
+            note = noteNumber;
+            listed_channel.linkNote(this);
+        }
         note = noteNumber;
         assert noteNumber >= 0 && noteNumber < 128;
         tunedKey = noteNumber;
@@ -312,12 +335,14 @@ public final class SoftVoice {
         on = true;
         active = true;
         started = true;
+        synthesizer.getVoiceAllocator().voiceStarted(this);
         // volume = velocity;
 
         lastMuteValue = 0;
         lastSoloMuteValue = 0;
 
         setNote(noteNumber);
+        softchannel.voiceStarted(this);
 
         if (performer.forcedKeynumber)
             co_noteon_keynumber[0] = 0;
@@ -343,53 +368,22 @@ public final class SoftVoice {
         lfo.reset();
         filter_left.reset();
         filter_right.reset();
-
-        objects.put("master", synthesizer.getMainMixer().co_master);
-        objects.put("eg", eg);
-        objects.put("lfo", lfo);
-        objects.put("noteon", co_noteon);
-        objects.put("osc", co_osc);
-        objects.put("mixer", co_mixer);
-        objects.put("filter", co_filter);
-
-        connections = performer.connections;
-
-        if (connections_last == null
-                || connections_last.length < connections.length) {
-            connections_last = new double[connections.length];
-        }
-        if (connections_src == null
-                || connections_src.length < connections.length) {
-            connections_src = new double[connections.length][][];
-            connections_src_kc = new int[connections.length][];
-        }
-        if (connections_dst == null
-                || connections_dst.length < connections.length) {
-            connections_dst = new double[connections.length][];
-        }
-        for (int i = 0; i < connections.length; i++) {
-            ModelConnectionBlock conn = connections.get(i);
-            connections_last[i] = 0;
-            ImmutableList<ModelSource> srcs = conn.getSources();
-            if (connections_src[i] == null
-                    || connections_src[i].length < srcs.size()) {
-                connections_src[i] = new double[srcs.size()][];
-                connections_src_kc[i] = new int[srcs.size()];
-            }
-            int[] src_kc = connections_src_kc[i];
-            for (int j = 0; j < srcs.size(); j++) {
-                src_kc[j] = getValueKC(srcs.get(j).getIdentifier());
-                connections_src[i][j] = getValue(srcs.get(j).getIdentifier());
-            }
-
-            if (conn.getDestination() != null)
-                connections_dst[i] = getValue(conn.getDestination()
-                        .getIdentifier());
-            else
-                connections_dst[i] = null;
-        }
-
-        for (int i = 0; i < connections.length; i++)
+        last_filter_freq = Double.NaN;
+        last_filter_q = Double.NaN;
+        last_filter_type = Double.NaN;
+
+        int[] slots = performer.slots;
+        if (slot_values.length < slots.length)
+            slot_values = new double[slots.length][];
+        for (int i = 0; i < slots.length; i++)
+            slot_values[i] = bindSlot(slots[i], noteNumber);
+
+        int count = performer.connection_dst.length;
+        if (connections_last.length < count)
+            connections_last = new double[count];
+        Arrays.fill(connections_last, 0, count, 0);
+
+        for (int i = 0; i < count; i++)
             processConnection(i);
 
         if (extendedConnectionBlocks != null) {
@@ -398,7 +392,8 @@ public final class SoftVoice {
 
                 if (softchannel.keybasedcontroller_active == null) {
                     for (ModelSource src : connection.getSources()) {
-                        double x = getValue(src.getIdentifier())[0];
+                        double x = bindSlot(SoftControlSlot.compile(
+                                src.getIdentifier()), noteNumber)[0];
                         ModelTransform t = src.getTransform();
                         if (t == null)
                             value += x;
@@ -407,9 +402,10 @@ public final class SoftVoice {
                     }
                 } else {
                     for (ModelSource src : connection.getSources()) {
-                        double x = getValue(src.getIdentifier())[0];
+                        double x = bindSlot(SoftControlSlot.compile(
+                                src.getIdentifier()), noteNumber)[0];
                         x = processKeyBasedController(x,
-                                getValueKC(src.getIdentifier()));
+                                SoftControlSlot.keyBasedController(src.getIdentifier()));
                         ModelTransform t = src.getTransform();
                         if (t == null)
                             value += x;
@@ -422,10 +418,17 @@ public final class SoftVoice {
                 ModelTransform t = dest.getTransform();
                 if (t != null)
                     value = t.transform(value);
-                getValue(dest.getIdentifier())[0] += value;
+                bindSlot(SoftControlSlot.compile(dest.getIdentifier()),
+                        noteNumber)[0] += value;
             }
         }
 
+        // Extended connections are not known to the performer
+        boolean extended = extendedConnectionBlocks != null;
+        lfo_live = extended || performer.lfo_routes;
+        reverb_live = extended || performer.reverb_routes;
+        chorus_live = extended || performer.chorus_routes;
+
         eg.init();
         lfo.init();
 
@@ -501,6 +504,7 @@ public final class SoftVoice {
         if (co_noteon_on[0] < -0.5)
             return;
         on = false;
+        synthesizer.getVoiceAllocator().voiceReleased(this);
 
         co_noteon_on[0] = -1;
 
@@ -515,12 +519,14 @@ public final class SoftVoice {
     void soundOff() {
         on = false;
         soundoff = true;
+        synthesizer.getVoiceAllocator().voiceReleased(this);
     }
 
     void noteOff() {
         if (!on)
             return;
         on = false;
+        synthesizer.getVoiceAllocator().voiceReleased(this);
 
         if (softchannel.sustain) {
             sustain = true;
@@ -559,10 +565,11 @@ public final class SoftVoice {
     void processControlLogic() {
         if (stopping) {
             active = false;
+            if (listed_channel != null)
+                listed_channel.voiceStopped(this);
             stopping = false;
             audiostarted = false;
             performer = null;
-            connections = null;
             extendedConnectionBlocks = null;
             if (osc_stream != null)
                 try {
@@ -572,6 +579,7 @@ public final class SoftVoice {
                 }
 
             if (stealer_channel != null) {
+                stealer_channel.stolen_voices--;
                 stealer_channel.initVoice(this, stealer_performer,
                         stealer_voiceID, stealer_noteNumber, stealer_velocity,
                         stealer_extendedConnectionBlocks,
@@ -584,6 +592,8 @@ public final class SoftVoice {
                 stealer_velocity = 0;
                 stealer_extendedConnectionBlocks = null;
             }
+            if (!active)
+                synthesizer.getVoiceAllocator().voiceStopped(this);
         }
         if (started) {
             audiostarted = true;
@@ -593,7 +603,7 @@ public final class SoftVoice {
             osc_stream_off_transmitted = false;
             if (osc != null) {
                 try {
-                    resampler.open(osc, 44100);
+                    resampler.open(osc, samplerate);
                     osc_stream = resampler;
                 } catch (IOException e) {
                     //e.printStackTrace();
@@ -628,12 +638,41 @@ public final class SoftVoice {
             }
 
             eg.processControlLogic();
-            lfo.processControlLogic();
+            if (lfo_live)
+                lfo.processControlLogic();
 
-            for (int i = 0; i < performer.ctrl_connections.length; i++)
-                processConnection(performer.ctrl_connections.get(i));
+            updateControls();
+        }
+        if (started) {
+            last_out_mixer_left = out_mixer_left;
+            last_out_mixer_right = out_mixer_right;
+            last_out_mixer_effect1 = out_mixer_effect1;
+            last_out_mixer_effect2 = out_mixer_effect2;
+            started = false;
+        }
 
-            osc_stream.setPitch((float) co_osc_pitch[0]);
+    }
+
+    /*
+     * Recomputes pitch, filter and mixer gains from the controllers
+     * without stepping envelopes, LFOs or portamento. Events inside a
+     * block call this to take effect at their frame.
+     */
+    void updateControls() {
+        if (!audiostarted)
+            return;
+        for (int ix : performer.ctrl_connection_index)
+            processConnection(ix);
+
+        osc_stream.setPitch((float) co_osc_pitch[0]);
+
+        // Filter parameters mostly change only on MIDI events
+        if (co_filter_freq[0] != last_filter_freq
+                || co_filter_q[0] != last_filter_q
+                || co_filter_type[0] != last_filter_type) {
+            last_filter_freq = co_filter_freq[0];
+            last_filter_q = co_filter_q[0];
+            last_filter_type = co_filter_type[0];
 
             int filter_type = (int) co_filter_type[0];
             double filter_freq;
@@ -641,9 +680,8 @@ public final class SoftVoice {
             if (co_filter_freq[0] == 13500.0)
                 filter_freq = 19912.126958213175;
             else
-                filter_freq = 440.0 * Math.exp(
-                        ((co_filter_freq[0]) - 6900.0) *
-                                (Math.log(2.0) / 1200.0));
+                filter_freq = 440.0 * SoftFastMath.centsToRatio(
+                        co_filter_freq[0] - 6900.0);
             /*
             filter_freq = 440.0 * Math.pow(2.0,
             ((co_filter_freq[0]) - 6900.0) / 1200.0);*/
@@ -659,115 +697,168 @@ public final class SoftVoice {
             filter_right.setFilterType(filter_type);
             filter_right.setFrequency(filter_freq);
             filter_right.setResonance(q);
-            /*
-            float gain = (float) Math.pow(10,
-            (-osc_attenuation + co_mixer_gain[0]) / 200.0);
-             */
-            float gain = (float) Math.exp(
-                    (-osc_attenuation + co_mixer_gain[0]) * (Math.log(10) / 200.0));
+        }
+        /*
+        float gain = (float) Math.pow(10,
+        (-osc_attenuation + co_mixer_gain[0]) / 200.0);
+         */
+        double gain_input = -osc_attenuation + co_mixer_gain[0];
+        if (gain_input != last_gain_input) {
+            last_gain_input = gain_input;
+            last_gain = (float) SoftFastMath.centibelsToGain(gain_input);
+        }
+        float gain = last_gain;
 
-            if (co_mixer_gain[0] <= -960)
-                gain = 0;
+        if (co_mixer_gain[0] <= -960)
+            gain = 0;
 
-            if (soundoff) {
-                stopping = true;
-                gain = 0;
-                /*
-                 * if(co_mixer_gain[0] > -960)
-                 *   co_mixer_gain[0] -= 960;
-                 */
-            }
+        if (soundoff) {
+            stopping = true;
+            gain = 0;
+            /*
+             * if(co_mixer_gain[0] > -960)
+             *   co_mixer_gain[0] -= 960;
+             */
+        }
 
-            // gain *= 0.2;
+        // gain *= 0.2;
 
-            double pan = co_mixer_pan[0] * (1.0 / 1000.0);
-            // System.out.println("pan = " + pan);
-            if (pan < 0)
-                pan = 0;
-            else if (pan > 1)
-                pan = 1;
+        double pan = co_mixer_pan[0] * (1.0 / 1000.0);
+        // System.out.println("pan = " + pan);
+        if (pan < 0)
+            pan = 0;
+        else if (pan > 1)
+            pan = 1;
 
-            if (pan == 0.5) {
-                out_mixer_left = gain * 0.7071067811865476f;
-                out_mixer_right = out_mixer_left;
-            } else {
-                out_mixer_left = gain * (float) Math.cos(pan * Math.PI * 0.5);
-                out_mixer_right = gain * (float) Math.sin(pan * Math.PI * 0.5);
+        if (pan == 0.5) {
+            out_mixer_left = gain * 0.7071067811865476f;
+            out_mixer_right = out_mixer_left;
+        } else {
+            if (pan != last_pan) {
+                last_pan = pan;
+                pan_left = (float) SoftFastMath.cos(pan * Math.PI * 0.5);
+                pan_right = (float) SoftFastMath.sin(pan * Math.PI * 0.5);
             }
+            out_mixer_left = gain * pan_left;
+            out_mixer_right = gain * pan_right;
+        }
 
-            double balance = co_mixer_balance[0] * (1.0 / 1000.0);
-            if (balance != 0.5) {
-                if (balance > 0.5)
-                    out_mixer_left *= (1 - balance) * 2;
-                else
-                    out_mixer_right *= balance * 2;
-            }
+        double balance = co_mixer_balance[0] * (1.0 / 1000.0);
+        if (balance != 0.5) {
+            if (balance > 0.5)
+                out_mixer_left *= (1 - balance) * 2;
+            else
+                out_mixer_right *= balance * 2;
+        }
 
+        if (reverb_live) {
             out_mixer_effect1 = (float) (co_mixer_reverb[0] * (1.0 / 1000.0));
             out_mixer_effect1 *= gain;
+        } else
+            out_mixer_effect1 = 0;
+        if (chorus_live) {
             out_mixer_effect2 = (float) (co_mixer_chorus[0] * (1.0 / 1000.0));
             out_mixer_effect2 *= gain;
-            out_mixer_end = co_mixer_active[0] < 0.5;
-
-            if (!on)
-                if (!osc_stream_off_transmitted) {
-                    osc_stream_off_transmitted = true;
-                    if (osc_stream != null)
-                        osc_stream.noteOff();
-                }
-
-        }
-        if (started) {
-            last_out_mixer_left = out_mixer_left;
-            last_out_mixer_right = out_mixer_right;
-            last_out_mixer_effect1 = out_mixer_effect1;
-            last_out_mixer_effect2 = out_mixer_effect2;
-            started = false;
-        }
+        } else
+            out_mixer_effect2 = 0;
+        out_mixer_end = co_mixer_active[0] < 0.5;
 
+        if (!on)
+            if (!osc_stream_off_transmitted) {
+                osc_stream_off_transmitted = true;
+                if (osc_stream != null)
+                    osc_stream.noteOff();
+            }
     }
 
-    void mixAudioStream(SoftAudioBuffer in, SoftAudioBuffer out,
-                        float amp_from,
-                        float amp_to) {
-        int bufferlen = 300;
+    /*
+     * Appends the send to out at index n of the send arrays unless it is
+     * silent over the whole segment, and returns the new send count.
+     */
+    private int addSend(int n, SoftAudioBuffer out, float amp_from,
+                        float amp_to, int len) {
         if (amp_from < 0.000000001 && amp_to < 0.000000001)
-            return;
-        if (amp_from == amp_to) {
-            float[] fout = out.array();
-            float[] fin = in.array();
-            for (int i = 0; i < bufferlen; i++)
-                fout[i] += fin[i] * amp_to;
-        } else {
-            float amp = amp_from;
-            float amp_delta = (amp_to - amp_from) / bufferlen;
-            float[] fout = out.array();
-            float[] fin = in.array();
-            for (int i = 0; i < bufferlen; i++) {
-                amp += amp_delta;
-                fout[i] += fin[i] * amp;
-            }
+            return n;
+        send_out[n] = out.array();
+        send_from[n] = amp_from;
+        send_delta[n] = (amp_to - amp_from) / len;
+        return n + 1;
+    }
+
+    // Mixes in to the first n sends
+    private void mixSends(float[] in, int n, int start, int len) {
+        float[][] o = send_out;
+        float[] a = send_from;
+        float[] d = send_delta;
+        switch (n) {
+            case 0:
+                break;
+            case 1:
+                SoftAudioKernels.mixSends1(in, o[0], a[0], d[0], start, len);
+                break;
+            case 2:
+                SoftAudioKernels.mixSends2(in, o[0], a[0], d[0],
+                        o[1], a[1], d[1], start, len);
+                break;
+            case 3:
+                SoftAudioKernels.mixSends3(in, o[0], a[0], d[0],
+                        o[1], a[1], d[1], o[2], a[2], d[2], start, len);
+                break;
+            default:
+                SoftAudioKernels.mixSends(in, o[0], a[0], d[0],
+                        o[1], a[1], d[1], o[2], a[2], d[2],
+                        o[3], a[3], d[3], start, len);
         }
+    }
 
+    /*
+     * Mixes a stereo source. The dry sends take one channel each, the
+     * effect sends from index 2 on take both.
+     */
+    private void mixSendsStereo(float[] inL, float[] inR, int n,
+                                int start, int len) {
+        float[][] o = send_out;
+        float[] a = send_from;
+        float[] d = send_delta;
+        switch (n) {
+            case 2:
+                SoftAudioKernels.mixSendsStereo2(inL, inR, o[0], a[0], d[0],
+                        o[1], a[1], d[1], start, len);
+                break;
+            case 3:
+                SoftAudioKernels.mixSendsStereo3(inL, inR, o[0], a[0], d[0],
+                        o[1], a[1], d[1], o[2], a[2], d[2], start, len);
+                break;
+            default:
+                SoftAudioKernels.mixSendsStereo(inL, inR, o[0], a[0], d[0],
+                        o[1], a[1], d[1], o[2], a[2], d[2],
+                        o[3], a[3], d[3], start, len);
+        }
     }
 
-    void processAudioLogic(ImmutableList<SoftAudioBuffer> buffer) {
+    /*
+     * Renders frames [start, end) of the block. Gains and filter
+     * coefficients ramp from the previous segment to the current
+     * controls over the segment.
+     */
+    void processAudioLogic(ImmutableList<SoftAudioBuffer> buffer, int start, int end) {
         if (!audiostarted)
             return;
 
-        int bufferlen = 300;
+        int len = end - start;
 
         try {
             osc_buff[0] = buffer.get(SoftMainMixer.CHANNEL_LEFT_DRY).array();
             osc_buff[1] = buffer.get(SoftMainMixer.CHANNEL_RIGHT_DRY).array();
-            int ret = osc_stream.read(osc_buff, 0, bufferlen);
+            int ret = osc_stream.read(osc_buff, start, len);
             if (ret == -1) {
                 stopping = true;
                 return;
             }
-            if (ret != bufferlen) {
-                Arrays.fill(osc_buff[0], ret, bufferlen, 0f);
-                Arrays.fill(osc_buff[1], ret, bufferlen, 0f);
+            ret += start;
+            if (ret != end) {
+                Arrays.fill(osc_buff[0], ret, end, 0f);
+                Arrays.fill(osc_buff[1], ret, end, 0f);
             }
 
         } catch (IOException e) {
@@ -787,39 +878,53 @@ public final class SoftVoice {
             rightdry = null;
 
         if (!Double.isInfinite(co_filter_freq[0])) {
-            filter_left.processAudio(leftdry);
-            if (rightdry != null)
-                filter_right.processAudio(rightdry);
-        }
-
-        if (rightdry == null &&
-                last_out_mixer_left == last_out_mixer_right &&
-                out_mixer_left == out_mixer_right) {
-            mixAudioStream(leftdry, mono, last_out_mixer_left, out_mixer_left);
-        } else {
-            mixAudioStream(leftdry, left, last_out_mixer_left, out_mixer_left);
-            if (rightdry != null)
-                mixAudioStream(rightdry, right, last_out_mixer_right,
-                        out_mixer_right);
-            else
-                mixAudioStream(leftdry, right, last_out_mixer_right,
-                        out_mixer_right);
+            filter_left.processAudio(leftdry, start, len);
+            if (rightdry != null) {
+                filter_right.copyCoefficients(filter_left);
+                filter_right.processAudio(rightdry, start, len);
+            }
         }
 
+        // The audible sends are mixed in one pass over the dry samples,
+        // each with its own gain ramp over the segment
+        float l_from = last_out_mixer_left;
+        float l_to = out_mixer_left;
+        float r_from = last_out_mixer_right;
+        float r_to = out_mixer_right;
         if (rightdry == null) {
-            mixAudioStream(leftdry, eff1, last_out_mixer_effect1,
-                    out_mixer_effect1);
-            mixAudioStream(leftdry, eff2, last_out_mixer_effect2,
-                    out_mixer_effect2);
+            int n;
+            if (l_from == r_from && l_to == r_to)
+                n = addSend(0, mono, l_from, l_to, len);
+            else {
+                n = addSend(0, left, l_from, l_to, len);
+                n = addSend(n, right, r_from, r_to, len);
+            }
+            n = addSend(n, eff1, last_out_mixer_effect1, out_mixer_effect1, len);
+            n = addSend(n, eff2, last_out_mixer_effect2, out_mixer_effect2, len);
+            mixSends(leftdry.array(), n, start, len);
         } else {
-            mixAudioStream(leftdry, eff1, last_out_mixer_effect1 * 0.5f,
-                    out_mixer_effect1 * 0.5f);
-            mixAudioStream(leftdry, eff2, last_out_mixer_effect2 * 0.5f,
-                    out_mixer_effect2 * 0.5f);
-            mixAudioStream(rightdry, eff1, last_out_mixer_effect1 * 0.5f,
-                    out_mixer_effect1 * 0.5f);
-            mixAudioStream(rightdry, eff2, last_out_mixer_effect2 * 0.5f,
-                    out_mixer_effect2 * 0.5f);
+            float[] inL = leftdry.array();
+            float[] inR = rightdry.array();
+            int n_left = addSend(0, left, l_from, l_to, len);
+            int n = addSend(n_left, right, r_from, r_to, len);
+            if (n == 2) {
+                n = addSend(n, eff1, last_out_mixer_effect1 * 0.5f,
+                        out_mixer_effect1 * 0.5f, len);
+                n = addSend(n, eff2, last_out_mixer_effect2 * 0.5f,
+                        out_mixer_effect2 * 0.5f, len);
+                mixSendsStereo(inL, inR, n, start, len);
+            } else {
+                // Hard panned or silent, the dry channels are mixed apart
+                if (n == 1)
+                    mixSends(n_left == 1 ? inL : inR, 1, start, len);
+                n = addSend(0, eff1, last_out_mixer_effect1 * 0.5f,
+                        out_mixer_effect1 * 0.5f, len);
+                n = addSend(n, eff2, last_out_mixer_effect2 * 0.5f,
+                        out_mixer_effect2 * 0.5f, len);
+                for (int i = 0; i < n; i++)
+                    SoftAudioKernels.mixSendsSum(inL, inR, send_out[i],
+                            send_from[i], send_delta[i], start, len);
+            }
         }
 
         last_out_mixer_left = out_mixer_left;
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.com.sun.media.sound;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of free voices and of the order of active voices, so
+ * finding a voice for a new note does not scan the whole voice array.
+ * Voices that are on are listed in start order, released voices in
+ * release order. Voices being stolen are in neither list.
+ * Access is guarded by the synthesizer control_mutex.
+ */
+final class SoftVoiceAllocator {
+
+    private static final int UNLISTED = 0;
+    private static final int ON = 1;
+    private static final int RELEASED = 2;
+
+    private final SoftVoice[] voices;
+    // One bit per voice, set when the voice is free
+    private final long[] free;
+    // Both lists run from oldest to newest, linked by voice index
+    private final int[] older;
+    private final int[] newer;
+    private final int[] listed;
+    private final int[] oldest = {-1, -1, -1};
+    private final int[] newest = {-1, -1, -1};
+
+    SoftVoiceAllocator(SoftVoice[] voices) {
+        this.voices = voices;
+        free = new long[(voices.length + 63) >>> 6];
+        for (int i = 0; i < voices.length; i++)
+            free[i >>> 6] |= 1L << i;
+        older = new int[voices.length];
+        newer = new int[voices.length];
+        listed = new int[voices.length];
+        Arrays.fill(older, -1);
+        Arrays.fill(newer, -1);
+    }
+
+    /*
+     * Returns the lowest free voice index at or after from, or -1.
+     */
+    int findFree(int from) {
+        if (from >= voices.length)
+            return -1;
+        int w = from >>> 6;
+        long word = free[w] & (-1L << from);
+        while (true) {
+            if (word != 0)
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            if (++w == free.length)
+                return -1;
+            word = free[w];
+        }
+    }
+
+    /*
+     * Returns the voice released longest ago, else the oldest voice that
+     * is on, or -1. Voices already being stolen are not returned.
+     */
+    int findSteal() {
+        if (oldest[RELEASED] != -1)
+            return oldest[RELEASED];
+        return oldest[ON];
+    }
+
+    void voiceStarted(SoftVoice voice) {
+        int i = voice.index;
+        free[i >>> 6] &= ~(1L << i);
+        unlink(i);
+        append(i, ON);
+    }
+
+    // Called when an active voice turns off, or stops being stolen
+    void voiceReleased(SoftVoice voice) {
+        int i = voice.index;
+        if (!voice.active || voice.stealer_channel != null
+                || listed[i] == RELEASED)
+            return;
+        unlink(i);
+        append(i, RELEASED);
+    }
+
+    void voiceStolen(SoftVoice voice) {
+        unlink(voice.index);
+    }
+
+    void voiceStopped(SoftVoice voice) {
+        int i = voice.index;
+        free[i >>> 6] |= 1L << i;
+        unlink(i);
+    }
+
+    private void append(int i, int list) {
+        int prev = newest[list];
+        older[i] = prev;
+        newer[i] = -1;
+        if (prev != -1)
+            newer[prev] = i;
+        else
+            oldest[list] = i;
+        newest[list] = i;
+        listed[i] = list;
+    }
+
+    private void unlink(int i) {
+        int list = listed[i];
+        if (list == UNLISTED)
+            return;
+        if (older[i] != -1)
+            newer[older[i]] = newer[i];
+        else
+            oldest[list] = newer[i];
+        if (newer[i] != -1)
+            older[newer[i]] = older[i];
+        else
+            newest[list] = older[i];
+        older[i] = -1;
+        newer[i] = -1;
+        listed[i] = UNLISTED;
+    }
+}
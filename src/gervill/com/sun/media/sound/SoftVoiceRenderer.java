@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.com.sun.media.sound;
+
+import gervill.javax.sound.sampled.AudioFormat;
+import own.main.ImmutableList;
+
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Renders voices on a fixed pool of threads. Each worker mixes its share
+ * of the voices into private buffers, which are summed into the mixer
+ * buffers when the block is done. The calling thread acts as worker 0.
+ */
+final class SoftVoiceRenderer {
+
+    private static final int[] MIX_CHANNELS = {
+            SoftMainMixer.CHANNEL_LEFT,
+            SoftMainMixer.CHANNEL_RIGHT,
+            SoftMainMixer.CHANNEL_MONO,
+            SoftMainMixer.CHANNEL_EFFECT1,
+            SoftMainMixer.CHANNEL_EFFECT2};
+
+    private final int nrofworkers;
+    private final ImmutableList<ImmutableList<SoftAudioBuffer>> workerbuffers;
+    private final Phaser phaser;
+    private final SoftVoice[] voices;
+    private int count = 0;
+    private int start = 0;
+    private int end = 0;
+    private volatile boolean closed = false;
+    // First failure of the current block, rethrown by render
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    SoftVoiceRenderer(int nrofworkers, int maxvoices, int bufferlen, AudioFormat format) {
+        this.nrofworkers = nrofworkers;
+        voices = new SoftVoice[maxvoices];
+        workerbuffers = ImmutableList.create(nrofworkers,
+                w -> ImmutableList.create(14, i -> new SoftAudioBuffer(bufferlen, format)));
+        phaser = new Phaser(nrofworkers);
+        for (int w = 1; w < nrofworkers; w++) {
+            final int worker = w;
+            Thread thread = new Thread(() -> workerLoop(worker), "Gervill voice renderer " + w);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            thread.start();
+        }
+    }
+
+    private void workerLoop(int worker) {
+        while (true) {
+            phaser.arriveAndAwaitAdvance();
+            if (closed) {
+                phaser.arriveAndDeregister();
+                return;
+            }
+            renderPartition(worker);
+            phaser.arriveAndAwaitAdvance();
+        }
+    }
+
+    // Never throws, every worker has to arrive at the phaser
+    private void renderPartition(int worker) {
+        try {
+            ImmutableList<SoftAudioBuffer> buffers = workerbuffers.get(worker);
+            for (SoftAudioBuffer buffer : buffers)
+                buffer.clear();
+            for (int i = worker; i < count; i += nrofworkers)
+                voices[i].processAudioLogic(buffers, start, end);
+        } catch (Throwable t) {
+            if (!failure.compareAndSet(null, t))
+                failure.get().addSuppressed(t);
+        }
+    }
+
+    /*
+     * Renders frames [start, end) of the active voices of list[0, count)
+     * and adds them to the mix buffers in out.
+     */
+    synchronized void render(SoftVoice[] list, int count, int start, int end,
+                             ImmutableList<SoftAudioBuffer> out) {
+        if (closed)
+            return;
+        int n = 0;
+        for (int i = 0; i < count; i++)
+            if (list[i].active)
+                voices[n++] = list[i];
+        if (n == 0)
+            return;
+        this.count = n;
+        this.start = start;
+        this.end = end;
+
+        // Phaser advances publish the voice list to the workers
+        // and their buffers back to this thread.
+        phaser.arriveAndAwaitAdvance();
+        renderPartition(0);
+        phaser.arriveAndAwaitAdvance();
+
+        Throwable t = failure.getAndSet(null);
+        if (t != null) {
+            for (int i = 0; i < n; i++)
+                voices[i] = null;
+            if (t instanceof RuntimeException)
+                throw (RuntimeException) t;
+            if (t instanceof Error)
+                throw (Error) t;
+            throw new RuntimeException(t);
+        }
+
+        for (int w = 0; w < nrofworkers; w++) {
+            ImmutableList<SoftAudioBuffer> buffers = workerbuffers.get(w);
+            for (int c : MIX_CHANNELS) {
+                SoftAudioBuffer buffer = buffers.get(c);
+                if (buffer.isSilent())
+                    continue;
+                float[] in = buffer.array();
+                float[] mix = out.get(c).array();
+                for (int i = start; i < end; i++)
+                    mix[i] += in[i];
+            }
+        }
+        for (int i = 0; i < n; i++)
+            voices[i] = null;
+    }
+
+    synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        phaser.arriveAndDeregister();
+    }
+}
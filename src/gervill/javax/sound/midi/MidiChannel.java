@@ -108,6 +108,37 @@ public interface MidiChannel {
      */
     void noteOff(int noteNumber);
 
+    /**
+     * Schedules #noteOn(int, int) to take effect at the given frame of the
+     * synthesizer's output.  The frame is counted from when the synthesizer
+     * was opened; a frame that has already been rendered takes effect at the
+     * start of the next rendered block.  Output runs one block behind
+     * rendering, so a timestamp at least one block after the current output
+     * frame starts exactly on time.
+     * <p>
+     * Note starts, pitch, filter, gain and pan changes take effect at the
+     * exact frame. Envelopes, LFOs and portamento still advance once per
+     * block, so for example the release stage after a timed note off
+     * begins at the next block boundary.
+     *
+     * @param noteNumber the MIDI note number, from 0 to 127 (60 = Middle C)
+     * @param velocity   the speed with which the key was depressed
+     * @param timeStamp  the output frame at which the note starts
+     */
+    void noteOn(int noteNumber, int velocity, long timeStamp);
+
+    /**
+     * Schedules #noteOff(int, int) to take effect at the given frame of the
+     * synthesizer's output.
+     *
+     * @param noteNumber the MIDI note number, from 0 to 127 (60 = Middle C)
+     * @param velocity   the speed with which the key was released
+     * @param timeStamp  the output frame at which the note is released
+     *                   <p>
+     *                   see #noteOn(int, int, long)
+     */
+    void noteOff(int noteNumber, int velocity, long timeStamp);
+
     /**
      * Reacts to a change in the specified note's key pressure.
      * Polyphonic key pressure
@@ -228,6 +259,18 @@ public interface MidiChannel {
      */
     void controlChange(int controller, int value);
 
+    /**
+     * Schedules #controlChange(int, int) to take effect at the given frame
+     * of the synthesizer's output.
+     *
+     * @param controller the controller number (0 to 127)
+     * @param value      the value to which the specified controller is changed (0 to 127)
+     * @param timeStamp  the output frame at which the change happens
+     *                   <p>
+     *                   see #noteOn(int, int, long)
+     */
+    void controlChange(int controller, int value, long timeStamp);
+
     /**
      * Obtains the current value of the specified controller.  The return
      * value is represented with 7 bits. For 14-bit controllers, the MSB and
@@ -290,6 +333,18 @@ public interface MidiChannel {
      */
     void setPitchBend(int bend);
 
+    /**
+     * Schedules #setPitchBend(int) to take effect at the given frame of the
+     * synthesizer's output.
+     *
+     * @param bend      the amount of pitch change, as a nonnegative 14-bit value
+     *                  (8192 = no bend)
+     * @param timeStamp the output frame at which the change happens
+     *                  <p>
+     *                  see #noteOn(int, int, long)
+     */
+    void setPitchBend(int bend, long timeStamp);
+
     /**
      * Resets all the implemented controllers to their default values.
      * <p>
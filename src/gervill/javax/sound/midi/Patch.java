@@ -118,7 +118,18 @@ public class Patch {
         return program;
     }
 
+    public boolean isPercussion() {
+        return percussion;
+    }
+
     public int hashCode() {
         return 128 * bank + program + (percussion ? 2097152 : 0);
     }
+
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Patch))
+            return false;
+        Patch other = (Patch) obj;
+        return bank == other.bank && program == other.program && percussion == other.percussion;
+    }
 }
@@ -153,7 +153,10 @@ public class SourceDataLine implements AutoCloseable {
      */
     public void open(AudioFormat format, int bufferSize) {
         try {
-            realLine.open(new javax.sound.sampled.AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false), bufferSize);
+            realLine.open(new javax.sound.sampled.AudioFormat(
+                    new javax.sound.sampled.AudioFormat.Encoding(format.getEncoding().name()),
+                    format.getSampleRate(), format.getSampleSizeInBits(), format.getChannels(),
+                    format.getFrameSize(), format.getFrameRate(), false), bufferSize);
         } catch (LineUnavailableException e) {
             throw new RuntimeException(e.getMessage());
         }
@@ -49,6 +49,10 @@ final class DLSInstrument extends ModelInstrument {
         this.modulators = ImmutableList.create(modulators);
     }
 
+    ImmutableList<DLSRegion> getRegions() {
+        return regions;
+    }
+
     private static ModelIdentifier convertToModelDest(int dest) {
         if (dest == DLSModulator.CONN_DST_NONE)
             return null;
@@ -26,6 +26,9 @@ package gervill.soundbanks;
 
 import gervill.javax.sound.sampled.AudioFormat;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
 /**
  * This class is used to store the sample data itself.
  * A sample is encoded as PCM audio stream
@@ -48,6 +51,13 @@ final class DLSSample {
         this.sampleoptions = sampleoptions;
     }
 
+    // Returns this sample with its data read into memory
+    DLSSample load(FileChannel channel) throws IOException {
+        if (data == null || !data.isMapped())
+            return this;
+        return new DLSSample(format, data.load(channel), sampleoptions);
+    }
+
     ModelByteBuffer getDataBuffer() {
         return data;
     }
@@ -31,11 +31,14 @@ import gervill.javax.sound.sampled.AudioFormat.Encoding;
 import own.main.ImmutableList;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.function.BiPredicate;
 
 /**
  * A DLS Level 1 and Level 2 soundbank reader (from files/url/streams).
@@ -142,13 +145,64 @@ public final class DLSSoundbankParser {
     }
 
     public static ImmutableList<Instrument> parseSoundbank(File file) throws IOException {
-        try (InputStream is = new FileInputStream(file)) {
-            return parseSoundbank(is);
+        return parseSoundbank(file, false);
+    }
+
+    // When mapped is true sample data is not read, instead it is mapped
+    // from the file when a sample is played for the first time.
+    public static ImmutableList<Instrument> parseSoundbank(File file, boolean mapped) throws IOException {
+        if (!mapped)
+            return parseSoundbank(RIFFReader.read(file), null);
+        return ImmutableList.create(readInstruments(file), ModelInstrumentComparator.COMPARATOR);
+    }
+
+    // Only the instruments accepted by filter, called with the instrument
+    // name and patch, are returned. The waves of the other instruments are
+    // never read.
+    public static ImmutableList<Instrument> parseSoundbank(File file, boolean mapped, BiPredicate<String, Patch> filter) throws IOException {
+        List<Instrument> instruments = readInstruments(file);
+        instruments.removeIf(instrument -> !filter.test(instrument.getName(), instrument.getPatch()));
+        if (!mapped) {
+            Map<DLSSample, DLSSample> loaded = new IdentityHashMap<>();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                for (Instrument instrument : instruments) {
+                    for (DLSRegion region : ((DLSInstrument) instrument).getRegions()) {
+                        DLSSample sample = region.getSample();
+                        if (sample == null)
+                            continue;
+                        DLSSample copy = loaded.get(sample);
+                        if (copy == null) {
+                            copy = sample.load(channel);
+                            loaded.put(sample, copy);
+                        }
+                        region.setSample(copy);
+                    }
+                }
+            }
         }
+        return ImmutableList.create(instruments, ModelInstrumentComparator.COMPARATOR);
+    }
+
+    public static ImmutableList<Instrument> parseSoundbank(File file, boolean mapped, Set<Patch> patches) throws IOException {
+        return parseSoundbank(file, mapped, (name, patch) -> patches.contains(patch));
     }
 
     public static ImmutableList<Instrument> parseSoundbank(InputStream inputstream) throws IOException {
-        RIFFReader riff = new RIFFReader(inputstream);
+        return parseSoundbank(RIFFReader.read(inputstream), null);
+    }
+
+    private static ImmutableList<Instrument> parseSoundbank(ByteBuffer buffer, File mappedFile) throws IOException {
+        return ImmutableList.create(readInstruments(new RIFFReader(buffer), mappedFile), ModelInstrumentComparator.COMPARATOR);
+    }
+
+    // Reads the file through a channel, the sample data is mapped from file
+    private static List<Instrument> readInstruments(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return readInstruments(new RIFFReader(channel), file);
+        }
+    }
+
+    private static List<Instrument> readInstruments(RIFFReader riff, File mappedFile) throws IOException {
         if (!riff.getFormat().equals("RIFF")) {
             throw new RuntimeException("Input stream is not a valid RIFF stream!");
         }
@@ -177,7 +231,7 @@ public final class DLSSoundbankParser {
                         readLinsChunk(chunk, instruments, temp_rgnassign);
                         break;
                     case "wvpl":
-                        readWvplChunk(chunk, samples);
+                        readWvplChunk(chunk, samples, mappedFile);
                         break;
                 }
             }
@@ -187,7 +241,7 @@ public final class DLSSoundbankParser {
             entry.getKey().setSample(samples.get(entry.getValue()));
         }
 
-        return ImmutableList.create(instruments, ModelInstrumentComparator.COMPARATOR);
+        return instruments;
     }
 
     private static boolean cdlIsQuerySupported(DLSID uuid) {
@@ -418,12 +472,14 @@ public final class DLSSoundbankParser {
         if (size - 8 != 0)
             riff.skip(size - 8);
 
+        ByteBuffer records = riff.readRecords(count, 12);
         for (int i = 0; i < count; i++) {
-            int source = riff.readUnsignedShort();
-            int control = riff.readUnsignedShort();
-            int destination = riff.readUnsignedShort();
-            int transform = riff.readUnsignedShort();
-            int scale = riff.readInt();
+            int r = i * 12;
+            int source = records.getShort(r) & 0xFFFF;
+            int control = records.getShort(r + 2) & 0xFFFF;
+            int destination = records.getShort(r + 4) & 0xFFFF;
+            int transform = records.getShort(r + 6) & 0xFFFF;
+            int scale = records.getInt(r + 8);
             modulators.add(new DLSModulator(source, control, destination, transform, scale, version));
         }
     }
@@ -528,17 +584,17 @@ public final class DLSSoundbankParser {
         return new DLSSampleOptions(unitynote, finetune, loopsList);
     }
 
-    private static void readWvplChunk(RIFFReader riff, List<DLSSample> samples) throws IOException {
+    private static void readWvplChunk(RIFFReader riff, List<DLSSample> samples, File mappedFile) throws IOException {
         while (riff.hasNextChunk()) {
             RIFFReader chunk = riff.nextChunk();
             if (chunk.getFormat().equals("LIST")) {
                 if (chunk.getType().equals("wave"))
-                    readWaveChunk(chunk, samples);
+                    readWaveChunk(chunk, samples, mappedFile);
             }
         }
     }
 
-    private static void readWaveChunk(RIFFReader riff, List<DLSSample> samples) throws IOException {
+    private static void readWaveChunk(RIFFReader riff, List<DLSSample> samples, File mappedFile) throws IOException {
         AudioFormat sampleFormat = null;
         ModelByteBuffer mbb = null;
         DLSSampleOptions sampleoptions = null;
@@ -591,21 +647,7 @@ public final class DLSSoundbankParser {
                 }
 
                 if (format.equals("data")) {
-                    byte[] buffer = new byte[chunk.available()];
-
-                    int read = 0;
-                    int avail = chunk.available();
-                    while (read != avail) {
-                        if (avail - read > 65536) {
-                            chunk.readFully(buffer, read, 65536);
-                            read += 65536;
-                        } else {
-                            chunk.readFully(buffer, read, avail - read);
-                            read = avail;
-                        }
-                    }
-
-                    mbb = new ModelByteBuffer(buffer);
+                    mbb = chunk.readSampleData(mappedFile);
                 }
 
                 if (format.equals("wsmp")) {
@@ -30,17 +30,31 @@ import gervill.javax.sound.midi.Patch;
 import gervill.javax.sound.sampled.AudioFormat;
 import own.main.ImmutableList;
 
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiFunction;
 
 /**
  * Emergency Soundbank generator.
  * Used when no other default soundbank can be found.
+ * <p>
+ * The generated samples are cached in a file, see getCacheFile(), so
+ * only the first start after a version change pays for generating them.
  *
  * @author Karl Helgason
  */
 public final class EmergencySoundbank {
 
     private static final AudioFormat SAMPLE_FORMAT = new AudioFormat(44100, 16, 1, true);
+    // Bump when a generator changes, so caches written by older versions
+    // are generated again instead of loaded
+    private static final int CACHE_VERSION = 1;
+    private static final int CACHE_MAGIC = 0x47454D42; // "GEMB"
     private final static String[] general_midi_instruments = {
             "Acoustic Grand Piano",
             "Bright Acoustic Piano",
@@ -176,21 +190,20 @@ public final class EmergencySoundbank {
     }
 
     public static ImmutableList<Instrument> createSoundbank() {
-        List<SF2Layer> layers = new ArrayList<>();
-        List<SF2Sample> samples = new ArrayList<>();
+        Map<String, SF2Layer> layers = getLayers();
         List<Instrument> instruments = new ArrayList<>();
 
         /*
          *  percussion instruments
          */
 
-        SF2Layer bass_drum = new_bass_drum(layers, samples);
-        SF2Layer snare_drum = new_snare_drum(layers, samples);
-        SF2Layer tom = new_tom(layers, samples);
-        SF2Layer open_hihat = new_open_hihat(layers, samples);
-        SF2Layer closed_hihat = new_closed_hihat(layers, samples);
-        SF2Layer crash_cymbal = new_crash_cymbal(layers, samples);
-        SF2Layer side_stick = new_side_stick(layers, samples);
+        SF2Layer bass_drum = layers.get("bass_drum");
+        SF2Layer snare_drum = layers.get("snare_drum");
+        SF2Layer tom = layers.get("tom");
+        SF2Layer open_hihat = layers.get("open_hihat");
+        SF2Layer closed_hihat = layers.get("closed_hihat");
+        SF2Layer crash_cymbal = layers.get("crash_cymbal");
+        SF2Layer side_stick = layers.get("side_stick");
 
         SF2Layer[] drums = new SF2Layer[128];
         drums[35] = bass_drum;
@@ -262,39 +275,39 @@ public final class EmergencySoundbank {
          *  melodic instruments
          */
 
-        SF2Layer gpiano = new_gpiano(layers, samples);
-        SF2Layer gpiano2 = new_gpiano2(layers, samples);
-        SF2Layer gpiano_hammer = new_piano_hammer(layers, samples);
-        SF2Layer piano1 = new_piano1(layers, samples);
-        SF2Layer epiano1 = new_epiano1(layers, samples);
-        SF2Layer epiano2 = new_epiano2(layers, samples);
-
-        SF2Layer guitar = new_guitar1(layers, samples);
-        SF2Layer guitar_pick = new_guitar_pick(layers, samples);
-        SF2Layer guitar_dist = new_guitar_dist(layers, samples);
-        SF2Layer bass1 = new_bass1(layers, samples);
-        SF2Layer bass2 = new_bass2(layers, samples);
-        SF2Layer synthbass = new_synthbass(layers, samples);
-        SF2Layer string2 = new_string2(layers, samples);
-        SF2Layer orchhit = new_orchhit(layers, samples);
-        SF2Layer choir = new_choir(layers, samples);
-        SF2Layer solostring = new_solostring(layers, samples);
-        SF2Layer organ = new_organ(layers, samples);
-        SF2Layer ch_organ = new_ch_organ(layers, samples);
-        SF2Layer bell = new_bell(layers, samples);
-        SF2Layer flute = new_flute(layers, samples);
-
-        SF2Layer timpani = new_timpani(layers, samples);
-        SF2Layer melodic_toms = new_melodic_toms(layers, samples);
-        SF2Layer trumpet = new_trumpet(layers, samples);
-        SF2Layer trombone = new_trombone(layers, samples);
-        SF2Layer brass_section = new_brass_section(layers, samples);
-        SF2Layer horn = new_horn(layers, samples);
-        SF2Layer sax = new_sax(layers, samples);
-        SF2Layer oboe = new_oboe(layers, samples);
-        SF2Layer bassoon = new_bassoon(layers, samples);
-        SF2Layer clarinet = new_clarinet(layers, samples);
-        SF2Layer reverse_cymbal = new_reverse_cymbal(layers, samples);
+        SF2Layer gpiano = layers.get("gpiano");
+        SF2Layer gpiano2 = layers.get("gpiano2");
+        SF2Layer gpiano_hammer = layers.get("piano_hammer");
+        SF2Layer piano1 = layers.get("piano1");
+        SF2Layer epiano1 = layers.get("epiano1");
+        SF2Layer epiano2 = layers.get("epiano2");
+
+        SF2Layer guitar = layers.get("guitar1");
+        SF2Layer guitar_pick = layers.get("guitar_pick");
+        SF2Layer guitar_dist = layers.get("guitar_dist");
+        SF2Layer bass1 = layers.get("bass1");
+        SF2Layer bass2 = layers.get("bass2");
+        SF2Layer synthbass = layers.get("synthbass");
+        SF2Layer string2 = layers.get("string2");
+        SF2Layer orchhit = layers.get("orchhit");
+        SF2Layer choir = layers.get("choir");
+        SF2Layer solostring = layers.get("solostring");
+        SF2Layer organ = layers.get("organ");
+        SF2Layer ch_organ = layers.get("ch_organ");
+        SF2Layer bell = layers.get("bell");
+        SF2Layer flute = layers.get("flute");
+
+        SF2Layer timpani = layers.get("timpani");
+        SF2Layer melodic_toms = layers.get("melodic_toms");
+        SF2Layer trumpet = layers.get("trumpet");
+        SF2Layer trombone = layers.get("trombone");
+        SF2Layer brass_section = layers.get("brass_section");
+        SF2Layer horn = layers.get("horn");
+        SF2Layer sax = layers.get("sax");
+        SF2Layer oboe = layers.get("oboe");
+        SF2Layer bassoon = layers.get("bassoon");
+        SF2Layer clarinet = layers.get("clarinet");
+        SF2Layer reverse_cymbal = layers.get("reverse_cymbal");
 
         newInstrument(new Patch(0, 0), instruments, gpiano, gpiano_hammer);
         newInstrument(new Patch(0, 1), instruments, gpiano2, gpiano_hammer);
@@ -455,6 +468,236 @@ public final class EmergencySoundbank {
         return ImmutableList.create(instruments, ModelInstrumentComparator.COMPARATOR);
     }
 
+    /*
+     * Returns the layers by name. They are read from the cache file when
+     * it holds this version of them, otherwise they are generated and
+     * written to the cache for the next start.
+     */
+    private static Map<String, SF2Layer> getLayers() {
+        Map<String, BiFunction<List<SF2Layer>, List<SF2Sample>, SF2Layer>> generators = layerGenerators();
+        File cache = getCacheFile();
+        if (cache != null) {
+            try {
+                Map<String, SF2Layer> layers = readCache(cache, generators.keySet());
+                if (layers != null)
+                    return layers;
+            } catch (IOException ignored) {
+                // Damaged or written by another version, generate again
+            }
+        }
+        Map<String, SF2Layer> layers = generateLayers(generators);
+        if (cache != null) {
+            try {
+                writeCache(cache, layers);
+            } catch (IOException ignored) {
+                // The generated layers are still used
+            }
+        }
+        return layers;
+    }
+
+    /*
+     * The generators share no state, so they run at the same time on the
+     * common fork-join pool.
+     */
+    private static Map<String, SF2Layer> generateLayers(Map<String, BiFunction<List<SF2Layer>, List<SF2Sample>, SF2Layer>> generators) {
+        List<SF2Layer> layers = Collections.synchronizedList(new ArrayList<>());
+        List<SF2Sample> samples = Collections.synchronizedList(new ArrayList<>());
+        Map<String, ForkJoinTask<SF2Layer>> tasks = new LinkedHashMap<>();
+        for (Map.Entry<String, BiFunction<List<SF2Layer>, List<SF2Sample>, SF2Layer>> entry : generators.entrySet()) {
+            BiFunction<List<SF2Layer>, List<SF2Sample>, SF2Layer> generator = entry.getValue();
+            tasks.put(entry.getKey(), ForkJoinPool.commonPool().submit(
+                    () -> generator.apply(layers, samples)));
+        }
+        Map<String, SF2Layer> result = new LinkedHashMap<>();
+        for (Map.Entry<String, ForkJoinTask<SF2Layer>> entry : tasks.entrySet())
+            result.put(entry.getKey(), entry.getValue().join());
+        return result;
+    }
+
+    private static Map<String, BiFunction<List<SF2Layer>, List<SF2Sample>, SF2Layer>> layerGenerators() {
+        Map<String, BiFunction<List<SF2Layer>, List<SF2Sample>, SF2Layer>> generators = new LinkedHashMap<>();
+        generators.put("bass_drum", EmergencySoundbank::new_bass_drum);
+        generators.put("snare_drum", EmergencySoundbank::new_snare_drum);
+        generators.put("tom", EmergencySoundbank::new_tom);
+        generators.put("open_hihat", EmergencySoundbank::new_open_hihat);
+        generators.put("closed_hihat", EmergencySoundbank::new_closed_hihat);
+        generators.put("crash_cymbal", EmergencySoundbank::new_crash_cymbal);
+        generators.put("side_stick", EmergencySoundbank::new_side_stick);
+        generators.put("gpiano", EmergencySoundbank::new_gpiano);
+        generators.put("gpiano2", EmergencySoundbank::new_gpiano2);
+        generators.put("piano_hammer", EmergencySoundbank::new_piano_hammer);
+        generators.put("piano1", EmergencySoundbank::new_piano1);
+        generators.put("epiano1", EmergencySoundbank::new_epiano1);
+        generators.put("epiano2", EmergencySoundbank::new_epiano2);
+        generators.put("guitar1", EmergencySoundbank::new_guitar1);
+        generators.put("guitar_pick", EmergencySoundbank::new_guitar_pick);
+        generators.put("guitar_dist", EmergencySoundbank::new_guitar_dist);
+        generators.put("bass1", EmergencySoundbank::new_bass1);
+        generators.put("bass2", EmergencySoundbank::new_bass2);
+        generators.put("synthbass", EmergencySoundbank::new_synthbass);
+        generators.put("string2", EmergencySoundbank::new_string2);
+        generators.put("orchhit", EmergencySoundbank::new_orchhit);
+        generators.put("choir", EmergencySoundbank::new_choir);
+        generators.put("solostring", EmergencySoundbank::new_solostring);
+        generators.put("organ", EmergencySoundbank::new_organ);
+        generators.put("ch_organ", EmergencySoundbank::new_ch_organ);
+        generators.put("bell", EmergencySoundbank::new_bell);
+        generators.put("flute", EmergencySoundbank::new_flute);
+        generators.put("timpani", EmergencySoundbank::new_timpani);
+        generators.put("melodic_toms", EmergencySoundbank::new_melodic_toms);
+        generators.put("trumpet", EmergencySoundbank::new_trumpet);
+        generators.put("trombone", EmergencySoundbank::new_trombone);
+        generators.put("brass_section", EmergencySoundbank::new_brass_section);
+        generators.put("horn", EmergencySoundbank::new_horn);
+        generators.put("sax", EmergencySoundbank::new_sax);
+        generators.put("oboe", EmergencySoundbank::new_oboe);
+        generators.put("bassoon", EmergencySoundbank::new_bassoon);
+        generators.put("clarinet", EmergencySoundbank::new_clarinet);
+        generators.put("reverse_cymbal", EmergencySoundbank::new_reverse_cymbal);
+        return generators;
+    }
+
+    /*
+     * The system property gervill.emergency.cache names the cache file,
+     * "none" turns the cache off. By default it is kept in the cache
+     * directory of the user, so other users cannot replace it.
+     */
+    private static File getCacheFile() {
+        String name = System.getProperty("gervill.emergency.cache");
+        if ("none".equals(name))
+            return null;
+        if (name == null)
+            return new File(getUserCacheDirectory(),
+                    "emergency-" + CACHE_VERSION + ".cache");
+        return new File(name);
+    }
+
+    // The platform's per user cache directory, with a gervill folder
+    private static File getUserCacheDirectory() {
+        String os = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+        String home = System.getProperty("user.home");
+        if (os.startsWith("windows")) {
+            String local = System.getenv("LOCALAPPDATA");
+            if (local != null && !local.isEmpty())
+                return new File(local, "gervill");
+        } else if (os.startsWith("mac")) {
+            return new File(home, "Library/Caches/gervill");
+        } else {
+            String xdg = System.getenv("XDG_CACHE_HOME");
+            if (xdg != null && !xdg.isEmpty())
+                return new File(xdg, "gervill");
+        }
+        return new File(home, ".cache/gervill");
+    }
+
+    /*
+     * Cache layout: magic, version and header length as ints, the header,
+     * then the sample data of all layers back to back. The header has the
+     * layer count, and for each layer its name, whether it has a global
+     * region, its generators, the sample fields and the data length.
+     * The sample data is read along with the header from the one open
+     * file, so a cache replaced later by another process cannot mix with
+     * it. Returns null when there is no cache file yet.
+     */
+    private static Map<String, SF2Layer> readCache(File cache, Set<String> names) throws IOException {
+        if (!cache.isFile())
+            return null;
+        Map<String, SF2Layer> layers = new LinkedHashMap<>();
+        try (FileInputStream file = new FileInputStream(cache);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+            if (in.readInt() != CACHE_MAGIC || in.readInt() != CACHE_VERSION)
+                throw new IOException("Not a cache of this version");
+            long offset = 12 + (in.readInt() & 0xFFFFFFFFL);
+            long size = file.getChannel().size() - offset;
+            if (size < 0 || size > Integer.MAX_VALUE)
+                throw new IOException("Truncated cache");
+            // Filled once the header is read
+            byte[] bytes = new byte[(int) size];
+            ModelByteBuffer data = new ModelByteBuffer(bytes);
+            long pos = 0;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                SF2Region globalRegion = in.readBoolean() ? new SF2Region() : null;
+                Map<Integer, Short> generators = new HashMap<>();
+                int generatorCount = in.readInt();
+                for (int j = 0; j < generatorCount; j++)
+                    generators.put(in.readInt(), in.readShort());
+                long startLoop = in.readLong();
+                long endLoop = in.readLong();
+                long sampleRate = in.readLong();
+                int originalPitch = in.readInt();
+                byte pitchCorrection = in.readByte();
+                long len = in.readLong();
+                if (len < 0 || pos + len > size)
+                    throw new IOException("Truncated cache");
+                SF2Sample sample = new SF2Sample(data.subbuffer(pos, pos + len), null,
+                        startLoop, endLoop, sampleRate, originalPitch, pitchCorrection);
+                pos += len;
+                layers.put(name, newLayer(globalRegion, sample, generators));
+            }
+            if (pos != size || !layers.keySet().equals(names))
+                throw new IOException("Cache does not match the generators");
+            in.readFully(bytes);
+        }
+        return layers;
+    }
+
+    /*
+     * Writes to a temporary file next to the cache and renames it, so
+     * other processes never see a partly written cache.
+     */
+    private static void writeCache(File cache, Map<String, SF2Layer> layers) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeInt(layers.size());
+        for (Map.Entry<String, SF2Layer> entry : layers.entrySet()) {
+            SF2Layer layer = entry.getValue();
+            SF2LayerRegion region = layer.getRegions().get(0);
+            SF2Sample sample = region.getSample();
+            out.writeUTF(entry.getKey());
+            out.writeBoolean(layer.getGlobalRegion() != null);
+            out.writeInt(region.getGenerators().size());
+            for (Map.Entry<Integer, Short> generator : region.getGenerators().entrySet()) {
+                out.writeInt(generator.getKey());
+                out.writeShort(generator.getValue());
+            }
+            out.writeLong(sample.getStartLoop());
+            out.writeLong(sample.getEndLoop());
+            out.writeLong((long) sample.getFormat().getSampleRate());
+            out.writeInt(sample.getOriginalPitch());
+            out.writeByte(sample.getPitchCorrection());
+            out.writeLong(sample.getDataBuffer().capacity());
+        }
+        out.flush();
+
+        File dir = cache.getAbsoluteFile().getParentFile();
+        if (dir != null)
+            dir.mkdirs();
+        File temp = File.createTempFile("gervill", ".tmp", dir);
+        try {
+            try (DataOutputStream file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                file.writeInt(CACHE_MAGIC);
+                file.writeInt(CACHE_VERSION);
+                file.writeInt(header.size());
+                header.writeTo(file);
+                for (SF2Layer layer : layers.values()) {
+                    ModelByteBuffer data = layer.getRegions().get(0).getSample().getDataBuffer();
+                    file.write(data.array(), (int) data.arrayOffset(), (int) data.capacity());
+                }
+            }
+            try {
+                Files.move(temp.toPath(), cache.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
     private static SF2Layer new_bell(List<SF2Layer> layers, List<SF2Sample> samples) {
         Random random = new Random(102030201);
         int x = 8;
@@ -621,7 +864,7 @@ public final class EmergencySoundbank {
             Random random = new Random(3049912);
             for (int i = 0; i < data.length; i += 2)
                 data[i] = (2.0 * (random.nextDouble() - 0.5));
-            fft(data);
+            fftReal(data);
             // Remove all negative frequency
             for (int i = fftlen / 2; i < data.length; i++)
                 data[i] = 0;
@@ -792,7 +1035,7 @@ public final class EmergencySoundbank {
             Random random = new Random(3049912);
             for (int i = 0; i < data.length; i += 2)
                 data[i] = (2.0 * (random.nextDouble() - 0.5));
-            fft(data);
+            fftReal(data);
             // Remove all negative frequency
             for (int i = fftlen / 2; i < data.length; i++)
                 data[i] = 0;
@@ -1841,7 +2084,7 @@ public final class EmergencySoundbank {
             for (int i = 0; i < data.length; i += 2) {
                 data[i] = (2.0 * (random.nextDouble() - 0.5)) * 0.1;
             }
-            fft(data);
+            fftReal(data);
             // Remove all negative frequency
             for (int i = fftlen / 2; i < data.length; i++)
                 data[i] = 0;
@@ -1910,7 +2153,7 @@ public final class EmergencySoundbank {
             Random random = new Random(3049912);
             for (int i = 0; i < data.length; i += 2)
                 data[i] = (2.0 * (random.nextDouble() - 0.5)) * 0.1;
-            fft(data);
+            fftReal(data);
             // Remove all negative frequency
             for (int i = fftlen / 2; i < data.length; i++)
                 data[i] = 0;
@@ -2016,7 +2259,7 @@ public final class EmergencySoundbank {
             Random random = new Random(3049912);
             for (int i = 0; i < data.length; i += 2)
                 data[i] = (2.0 * (random.nextDouble() - 0.5)) * 0.1;
-            fft(data);
+            fftReal(data);
             // Remove all negative frequency
             for (int i = fftlen / 2; i < data.length; i++)
                 data[i] = 0;
@@ -2086,7 +2329,7 @@ public final class EmergencySoundbank {
             Random random = new Random(3049912);
             for (int i = 0; i < data.length; i += 2)
                 data[i] = (2.0 * (random.nextDouble() - 0.5)) * 0.1;
-            fft(data);
+            fftReal(data);
             // Remove all negative frequency
             for (int i = fftlen / 2; i < data.length; i++)
                 data[i] = 0;
@@ -2154,7 +2397,7 @@ public final class EmergencySoundbank {
             Random random = new Random(3049912);
             for (int i = 0; i < data.length; i += 2)
                 data[i] = (2.0 * (random.nextDouble() - 0.5)) * 0.1;
-            fft(data);
+            fftReal(data);
             // Remove all negative frequency
             for (int i = fftlen / 2; i < data.length; i++)
                 data[i] = 0;
@@ -2207,7 +2450,7 @@ public final class EmergencySoundbank {
             Random random = new Random(3049912);
             for (int i = 0; i < data.length; i += 2)
                 data[i] = (2.0 * (random.nextDouble() - 0.5)) * 0.1;
-            fft(data);
+            fftReal(data);
             // Remove all negative frequency
             for (int i = fftlen / 2; i < data.length; i++)
                 data[i] = 0;
@@ -2323,7 +2566,7 @@ public final class EmergencySoundbank {
             Random random = new Random(3049912);
             for (int i = 0; i < data.length; i += 2)
                 data[i] = (2.0 * (random.nextDouble() - 0.5)) * 0.1;
-            fft(data);
+            fftReal(data);
             // Remove all negative frequency
             for (int i = fftlen / 2; i < data.length; i++)
                 data[i] = 0;
@@ -2373,8 +2616,7 @@ public final class EmergencySoundbank {
         double basefreq = (base / fftsize) * SAMPLE_FORMAT.getSampleRate() * 0.5;
 
         randomPhase(data);
-        ifft(data);
-        data = realPart(data);
+        data = ifftRealPart(data);
         normalize(data, 0.9);
         float[] fdata = toFloat(data);
         fdata = loopExtend(fdata, fdata.length + 512);
@@ -2396,8 +2638,7 @@ public final class EmergencySoundbank {
         double basefreq = (base / fftsize) * SAMPLE_FORMAT.getSampleRate() * 0.5;
 
         randomPhase(data);
-        ifft(data);
-        data = realPart(data);
+        data = ifftRealPart(data);
 
         for (int i = 0; i < data.length; i++) {
             data[i] = (1 - Math.exp(-Math.abs(data[i] * 10000.0)))
@@ -2469,9 +2710,50 @@ public final class EmergencySoundbank {
         new FFT(data.length / 2, -1).transform(data);
     }
 
+    // fft of data whose imaginary parts are all zero, through a real
+    // transform of half the size
+    private static void fftReal(double[] data) {
+        int fftlen = data.length / 2;
+        double[] x = new double[fftlen];
+        for (int i = 0; i < fftlen; i++)
+            x[i] = data[i * 2];
+        new FFT(fftlen / 2, -1).transformReal(x);
+        // Unpack, the upper half of the spectrum is the conjugate mirror
+        data[0] = x[0];
+        data[1] = 0;
+        data[fftlen] = x[1];
+        data[fftlen + 1] = 0;
+        for (int k = 1; k < fftlen / 2; k++) {
+            data[k * 2] = x[k * 2];
+            data[k * 2 + 1] = x[k * 2 + 1];
+            data[(fftlen - k) * 2] = x[k * 2];
+            data[(fftlen - k) * 2 + 1] = -x[k * 2 + 1];
+        }
+    }
+
+    // realPart(ifft(data)) through a real transform of the conjugate
+    // symmetric part of data, which is all the real part depends on
+    private static double[] ifftRealPart(double[] data) {
+        int fftlen = data.length / 2;
+        double[] x = new double[fftlen];
+        x[0] = data[0];
+        x[1] = data[fftlen];
+        for (int k = 1; k < fftlen / 2; k++) {
+            int m = fftlen - k;
+            x[k * 2] = (data[k * 2] + data[m * 2]) * 0.5;
+            x[k * 2 + 1] = (data[k * 2 + 1] - data[m * 2 + 1]) * 0.5;
+        }
+        new FFT(fftlen / 2, 1).transformReal(x);
+        return x;
+    }
+
     private static void complexGaussianDist(double[] cdata, double m,
                                             double s, double v) {
-        for (int x = 0; x < cdata.length / 4; x++) {
+        // Further than 40 deviations from m, exp underflows to zero and
+        // the bin would be left as it is
+        int start = (int) Math.max(0, Math.ceil(m - 40 * s));
+        int end = (int) Math.min(cdata.length / 4, Math.floor(m + 40 * s) + 1);
+        for (int x = start; x < end; x++) {
             cdata[x * 2] += v * (1.0 / (s * Math.sqrt(2 * Math.PI))
                     * Math.exp((-1.0 / 2.0) * Math.pow((x - m) / s, 2.0)));
         }
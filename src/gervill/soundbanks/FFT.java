@@ -24,43 +24,95 @@
  */
 package gervill.soundbanks;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Fast Fourier Transformer.
+ * <p>
+ * Besides complex transforms it does real transforms of 2 * fftFrameSize
+ * samples through a complex transform of half that length. Their spectrum
+ * is packed in 2 * fftFrameSize values: the real DC and Nyquist bins
+ * first, then real and imaginary parts of bins 1 to fftFrameSize - 1.
+ * <p>
+ * Twiddle factors and bit reversal tables are computed once per size and
+ * direction and shared by all instances. Instances keep no state between
+ * transforms.
  *
  * @author Karl Helgason
  */
-final class FFT {
+public final class FFT {
+
+    // Plans by sign * fftFrameSize
+    private static final Map<Integer, Plan> plans = new HashMap<>();
 
     private final double[] w;
     private final int fftFrameSize;
     private final int sign;
     private final int[] bitm_array;
     private final int fftFrameSize2;
+    private final Plan plan;
 
     // Sign = -1 is FFT, 1 is IFFT (inverse FFT)
     // Data = Interlaced double array to be transformed.
-    // The order is: real (sin), complex (cos)
+    // The order is: real, imaginary
     // Framesize must be power of 2
     public FFT(int fftFrameSize, int sign) {
-        w = computeTwiddleFactors(fftFrameSize, sign);
+        plan = getPlan(fftFrameSize, sign);
+        w = plan.w;
+        bitm_array = plan.bitm_array;
 
         this.fftFrameSize = fftFrameSize;
         this.sign = sign;
         fftFrameSize2 = fftFrameSize << 1;
+    }
 
-        // Pre-process Bit-Reversal
-        bitm_array = new int[fftFrameSize2];
-        for (int i = 2; i < fftFrameSize2; i += 2) {
-            int j;
-            int bitm;
-            for (bitm = 2, j = 0; bitm < fftFrameSize2; bitm <<= 1) {
-                if ((i & bitm) != 0)
-                    j++;
-                j <<= 1;
-            }
-            bitm_array[i] = j;
+    private static synchronized Plan getPlan(int fftFrameSize, int sign) {
+        Integer key = sign * fftFrameSize;
+        Plan plan = plans.get(key);
+        if (plan == null) {
+            plan = new Plan(fftFrameSize, sign);
+            plans.put(key, plan);
         }
+        return plan;
+    }
 
+    private static final class Plan {
+
+        private final double[] w;
+        private final int[] bitm_array;
+        // cos and sign * sin of pi * k / fftFrameSize, k <= fftFrameSize / 2,
+        // for splitting real transforms
+        private final double[] real_cos;
+        private final double[] real_sin;
+
+        Plan(int fftFrameSize, int sign) {
+            w = computeTwiddleFactors(fftFrameSize, sign);
+
+            int fftFrameSize2 = fftFrameSize << 1;
+
+            // Pre-process Bit-Reversal
+            bitm_array = new int[fftFrameSize2];
+            for (int i = 2; i < fftFrameSize2; i += 2) {
+                int j;
+                int bitm;
+                for (bitm = 2, j = 0; bitm < fftFrameSize2; bitm <<= 1) {
+                    if ((i & bitm) != 0)
+                        j++;
+                    j <<= 1;
+                }
+                bitm_array[i] = j;
+            }
+
+            int half = fftFrameSize / 2;
+            real_cos = new double[half + 1];
+            real_sin = new double[half + 1];
+            for (int k = 0; k <= half; k++) {
+                double arg = Math.PI * k / fftFrameSize;
+                real_cos[k] = Math.cos(arg);
+                real_sin[k] = sign * Math.sin(arg);
+            }
+        }
     }
 
     private static double[] computeTwiddleFactors(int fftFrameSize,
@@ -683,6 +735,85 @@ final class FFT {
         calc(fftFrameSize, data, sign, w);
     }
 
+    // Transforms each frame in place
+    public void transform(double[][] frames) {
+        for (double[] frame : frames)
+            transform(frame);
+    }
+
+    // Real transform of 2 * fftFrameSize values. Sign = -1 transforms
+    // samples to a packed spectrum, 1 a packed spectrum back to samples.
+    // Like the complex transform, the inverse is not normalized.
+    public void transformReal(double[] data) {
+        if (sign == -1) {
+            transform(data);
+            splitReal(data);
+        } else {
+            joinReal(data);
+            transform(data);
+        }
+    }
+
+    // Turns the transform of samples packed as complex values
+    // (x[2n] + i x[2n + 1]) into the packed real spectrum
+    private void splitReal(double[] data) {
+        int n = fftFrameSize;
+        double[] cos = plan.real_cos;
+        double[] sin = plan.real_sin;
+
+        double r0 = data[0];
+        double i0 = data[1];
+        data[0] = r0 + i0;
+        data[1] = r0 - i0;
+
+        for (int k = 1, m = n - 1; k <= m; k++, m--) {
+            double a = data[k * 2];
+            double b = data[k * 2 + 1];
+            double c = data[m * 2];
+            double d = data[m * 2 + 1];
+            // Even and odd sample spectra
+            double er = (a + c) * 0.5;
+            double ei = (b - d) * 0.5;
+            double or = (b + d) * 0.5;
+            double oi = (c - a) * 0.5;
+            double tr = or * cos[k] - oi * sin[k];
+            double ti = or * sin[k] + oi * cos[k];
+            data[k * 2] = er + tr;
+            data[k * 2 + 1] = ei + ti;
+            data[m * 2] = er - tr;
+            data[m * 2 + 1] = ti - ei;
+        }
+    }
+
+    // Inverse of splitReal, scaled by 2
+    private void joinReal(double[] data) {
+        int n = fftFrameSize;
+        double[] cos = plan.real_cos;
+        double[] sin = plan.real_sin;
+
+        double x0 = data[0];
+        double xn = data[1];
+        data[0] = x0 + xn;
+        data[1] = x0 - xn;
+
+        for (int k = 1, m = n - 1; k <= m; k++, m--) {
+            double a = data[k * 2];
+            double b = data[k * 2 + 1];
+            double c = data[m * 2];
+            double d = data[m * 2 + 1];
+            double er = a + c;
+            double ei = b - d;
+            double tr = a - c;
+            double ti = b + d;
+            double or = tr * cos[k] - ti * sin[k];
+            double oi = tr * sin[k] + ti * cos[k];
+            data[k * 2] = er - oi;
+            data[k * 2 + 1] = ei + or;
+            data[m * 2] = er + oi;
+            data[m * 2 + 1] = or - ei;
+        }
+    }
+
     private void bitreversal(double[] data) {
         if (fftFrameSize < 4)
             return;
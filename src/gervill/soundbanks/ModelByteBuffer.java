@@ -24,19 +24,29 @@
  */
 package gervill.soundbanks;
 
-import own.main.ImmutableList;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * This class is a pointer to a binary array either in memory or on disk.
+ * The backing array is shared between all subbuffers and must be treated
+ * as read-only.
  *
  * @author Karl Helgason
  */
 final class ModelByteBuffer {
 
     private final ModelByteBuffer root;
-    private final ImmutableList<Byte> buffer;
+    private final byte[] buffer;
+    private final File file;
+    private final long fileoffset;
     private final long offset;
     private final long len;
+    private ByteBuffer mapped = null;
 
     private ModelByteBuffer(ModelByteBuffer parent,
                             long beginIndex, long endIndex, boolean independent) {
@@ -54,19 +64,43 @@ final class ModelByteBuffer {
         len = endIndex - beginIndex;
         if (independent) {
             buffer = parent.root.buffer;
+            file = parent.root.file;
+            fileoffset = parent.root.fileoffset;
             offset = arrayOffset(parent.root, beginIndex);
             root = this;
         } else {
             root = parent.root;
             buffer = null;
+            file = null;
+            fileoffset = 0;
             offset = beginIndex;
         }
     }
 
     ModelByteBuffer(byte[] buffer) {
-        this.buffer = ImmutableList.create(buffer);
+        this(buffer, 0, buffer.length);
+    }
+
+    ModelByteBuffer(byte[] buffer, int offset, int len) {
+        this.buffer = buffer;
+        this.file = null;
+        this.fileoffset = 0;
+        this.offset = offset;
+        this.len = len;
+        root = this;
+    }
+
+    /*
+     * Refers to len bytes at fileoffset in file without reading them.
+     * The region is mapped into memory the first time it is accessed,
+     * see mappedBuffer().
+     */
+    ModelByteBuffer(File file, long fileoffset, long len) {
+        this.buffer = null;
+        this.file = file;
+        this.fileoffset = fileoffset;
         this.offset = 0;
-        this.len = buffer.length;
+        this.len = len;
         root = this;
     }
 
@@ -79,10 +113,59 @@ final class ModelByteBuffer {
         return new ModelByteBuffer(this, beginIndex, endIndex, independent);
     }
 
-    ImmutableList<Byte> array() {
+    byte[] array() {
         return root.buffer;
     }
 
+    boolean isMapped() {
+        return root.file != null;
+    }
+
+    // Returns the mapped region of the root buffer, valid from
+    // mappedOffset() for capacity() bytes.
+    ByteBuffer mappedBuffer() throws IOException {
+        return root.map();
+    }
+
+    long mappedOffset() {
+        return arrayOffset() - root.offset;
+    }
+
+    private synchronized ByteBuffer map() throws IOException {
+        if (mapped == null) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                        fileoffset + offset, len);
+            }
+        }
+        return mapped;
+    }
+
+    // Reads a mapped buffer into memory through channel, which must be open
+    // on the mapped file. Other buffers are returned as is.
+    ModelByteBuffer load(FileChannel channel) throws IOException {
+        if (!isMapped())
+            return this;
+        if (len > Integer.MAX_VALUE)
+            throw new IOException("Buffer is too large to be loaded into memory");
+        ByteBuffer data = ByteBuffer.allocate((int) len);
+        long position = filePointer();
+        while (data.hasRemaining()) {
+            if (channel.read(data, position + data.position()) < 0)
+                throw new EOFException();
+        }
+        return new ModelByteBuffer(data.array());
+    }
+
+    File file() {
+        return root.file;
+    }
+
+    // Position of this buffer in the mapped file
+    long filePointer() {
+        return root.fileoffset + arrayOffset();
+    }
+
     long arrayOffset(ModelByteBuffer root, long offset) {
         if (root != this)
             return root.arrayOffset() + offset;
@@ -25,13 +25,16 @@
 package gervill.soundbanks;
 
 import gervill.com.sun.media.sound.AudioFloatInputStream;
+import gervill.com.sun.media.sound.ModelInstrument;
+import gervill.com.sun.media.sound.ModelPerformer;
+import gervill.javax.sound.midi.Instrument;
 import gervill.javax.sound.sampled.AudioFormat;
 import gervill.javax.sound.sampled.AudioFormat.Encoding;
 import gervill.javax.sound.sampled.AudioInputStream;
-import own.main.ImmutableList;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Wavetable oscillator for pre-loaded data.
@@ -51,6 +54,14 @@ public final class ModelByteBufferWavetable {
     private final float pitchcorrection;
     private final float attenuation;
     private final int loopType;
+    private final StreamedSample streamed;
+    // Samples decoded by SampleCache and their place in its order. Written
+    // under the SampleCache lock, the data first when cleared and last
+    // when set.
+    private volatile float[] cached;
+    private volatile SampleCache.Entry cacheEntry;
+    // Queued for decoding, guarded by the SampleCache lock
+    boolean cachePending;
 
     ModelByteBufferWavetable(ModelByteBuffer buffer, AudioFormat format, float pitchcorrection, float attenuation, int loopStart, int loopLength, int loopType, ModelByteBuffer buffer8) {
         this.format = format;
@@ -61,22 +72,135 @@ public final class ModelByteBufferWavetable {
         this.loopLength = loopLength;
         this.loopType = loopType;
         this.buffer8 = buffer8;
+        streamed = buffer != null && format != null && buffer8 == null
+                ? StreamedSample.create(buffer, format, loopStart, loopType) : null;
+    }
+
+    /*
+     * Keep up to bytes of played wavetables decoded to floats, so voices
+     * replaying them skip sample conversion. A wavetable is decoded by a
+     * background thread the first time it is played, until then it plays
+     * from its sample data. Wavetables larger than the budget are never
+     * cached. Least recently played wavetables are dropped first, 0 (the
+     * default) turns caching off.
+     */
+    public static void setSampleCacheBudget(long bytes) {
+        SampleCache.setBudget(bytes);
+    }
+
+    /*
+     * Drops the decoded samples of the given instruments from the sample
+     * cache, for example when their soundbank is no longer used. Samples
+     * of soundbanks that are collected leave the cache on their own.
+     */
+    public static void dropCachedSamples(Iterable<? extends Instrument> instruments) {
+        for (Instrument instrument : instruments) {
+            if (!(instrument instanceof ModelInstrument))
+                continue;
+            for (ModelPerformer performer : ((ModelInstrument) instrument).getPerformers())
+                for (ModelByteBufferWavetable osc : performer.getOscillators())
+                    SampleCache.remove(osc);
+        }
+    }
+
+    /*
+     * Play the samples of soundbanks parsed with mapped sample data from
+     * disk. Only the first headMillis of each sample and its loop are read
+     * into memory, a background thread reads the rest ahead while it plays.
+     * The head should last longer than a render buffer at the highest pitch
+     * played, data which isn't read in time is played as silence. Applies
+     * to wavetables created afterwards, so call it before loading
+     * instruments. 0 (the default) turns streaming off.
+     */
+    public static void setStreamingHead(int headMillis) {
+        SampleStreamer.setHeadMillis(headMillis);
+    }
+
+    // Number of reads which found no streamed data and played silence
+    public static long getStreamingUnderruns() {
+        return SampleStreamer.getUnderruns();
+    }
+
+    SampleCache.Entry getCacheEntry() {
+        return cacheEntry;
+    }
+
+    void setCached(float[] data, SampleCache.Entry entry) {
+        if (data == null) {
+            cached = null;
+            cacheEntry = entry;
+        } else {
+            cacheEntry = entry;
+            cached = data;
+        }
     }
 
     AudioFormat getFormat() {
         return format;
     }
 
-    public AudioFloatInputStream openStream() {
+    ModelByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    ModelByteBuffer getBuffer8() {
+        return buffer8;
+    }
+
+    public AudioFloatInputStream openStream() throws IOException {
+        return openStream(null);
+    }
+
+    // previous is a stream returned earlier by this method on any
+    // wavetable which is no longer used, it may be recycled.
+    public AudioFloatInputStream openStream(AudioFloatInputStream previous) throws IOException {
         if (buffer == null || format == null)
             return null;
-        if (buffer.array() == null) {
+        if (streamed != null)
+            return streamed.openStream(previous);
+        if (previous instanceof StreamedSample.Reader)
+            previous.close();
+        if (SampleCache.isEnabled()) {
+            float[] data = cached;
+            if (data != null) {
+                SampleCache.touch(cacheEntry);
+                return AudioFloatInputStream.getInputStream(format, data, previous);
+            }
+            SampleCache.request(this);
+        }
+        return openBufferStream(previous);
+    }
+
+    // Size in bytes of the samples decoded to floats
+    long decodedSize() {
+        int framesize_pc = format.getFrameSize() / format.getChannels();
+        return buffer.capacity() / framesize_pc * 4;
+    }
+
+    float[] decode() throws IOException {
+        float[] data = new float[(int) (decodedSize() / 4)];
+        AudioFloatInputStream stream = openBufferStream(null);
+        int pos = 0;
+        while (pos < data.length) {
+            int ret = stream.read(data, pos, data.length - pos);
+            if (ret == -1)
+                break;
+            pos += ret;
+        }
+        stream.close();
+        return data;
+    }
+
+    private AudioFloatInputStream openBufferStream(AudioFloatInputStream previous) throws IOException {
+        if (buffer.array() == null && !buffer.isMapped()) {
             throw new NullPointerException("buffer.array() is null");
         }
         if (buffer8 != null) {
             if (format.getEncoding().equals(Encoding.PCM_SIGNED)
                     || format.getEncoding().equals(Encoding.PCM_UNSIGNED)) {
-                InputStream is = new Buffer8PlusInputStream();
+                InputStream is = buffer.isMapped()
+                        ? new MappedBuffer8PlusInputStream()
+                        : new Buffer8PlusInputStream();
                 AudioFormat format2 = new AudioFormat(
                         format.getEncoding(),
                         format.getSampleRate(),
@@ -91,8 +215,13 @@ public final class ModelByteBufferWavetable {
                 return AudioFloatInputStream.getInputStream(ais);
             }
         }
+        if (buffer.isMapped()) {
+            return AudioFloatInputStream.getInputStream(format,
+                    buffer.mappedBuffer(), (int) buffer.mappedOffset(),
+                    (int) buffer.capacity(), previous);
+        }
         return AudioFloatInputStream.getInputStream(format, buffer.array(),
-                (int) buffer.arrayOffset(), (int) buffer.capacity());
+                (int) buffer.arrayOffset(), (int) buffer.capacity(), previous);
     }
 
     public int getChannels() {
@@ -122,7 +251,7 @@ public final class ModelByteBufferWavetable {
 
     private class Buffer8PlusInputStream extends InputStream {
 
-        private final int framesize_pc;
+        final int framesize_pc;
         int pos = 0;
         int pos2 = 0;
         int markpos = 0;
@@ -138,14 +267,14 @@ public final class ModelByteBufferWavetable {
                 return -1;
             if (len > avail)
                 len = avail;
-            ImmutableList<Byte> buff1 = buffer.array();
-            ImmutableList<Byte> buff2 = buffer8.array();
+            byte[] buff1 = buffer.array();
+            byte[] buff2 = buffer8.array();
             pos += buffer.arrayOffset();
             pos2 += buffer8.arrayOffset();
             for (int i = 0; i < len; i += (framesize_pc + 1)) {
-                b[i] = buff2.get(pos2);
+                b[i] = buff2[pos2];
                 for (int j = 0; j < framesize_pc; j++) {
-                    b[i + 1 + j] = buff1.get(pos + j);
+                    b[i + 1 + j] = buff1[pos + j];
                 }
                 pos += framesize_pc;
                 pos2 += 1;
@@ -198,4 +327,37 @@ public final class ModelByteBufferWavetable {
         }
     }
 
+    private final class MappedBuffer8PlusInputStream
+            extends Buffer8PlusInputStream {
+
+        private final ByteBuffer buff1;
+        private final ByteBuffer buff2;
+        private final int off1;
+        private final int off2;
+
+        MappedBuffer8PlusInputStream() throws IOException {
+            buff1 = buffer.mappedBuffer();
+            buff2 = buffer8.mappedBuffer();
+            off1 = (int) buffer.mappedOffset();
+            off2 = (int) buffer8.mappedOffset();
+        }
+
+        public int read(byte[] b, int off, int len) {
+            int avail = available();
+            if (avail <= 0)
+                return -1;
+            if (len > avail)
+                len = avail;
+            for (int i = 0; i < len; i += (framesize_pc + 1)) {
+                b[i] = buff2.get(off2 + pos2);
+                for (int j = 0; j < framesize_pc; j++) {
+                    b[i + 1 + j] = buff1.get(off1 + pos + j);
+                }
+                pos += framesize_pc;
+                pos2 += 1;
+            }
+            return len;
+        }
+    }
+
 }
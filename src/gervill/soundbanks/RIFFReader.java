@@ -25,73 +25,198 @@
 package gervill.soundbanks;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 /**
- * Resource Interchange File Format (RIFF) stream decoder.
+ * Resource Interchange File Format (RIFF) decoder.
+ * <p>
+ * Works on a little endian ByteBuffer holding the whole file. Child
+ * chunks are slices of their parent, so nothing is copied while walking
+ * the tree, and fixed size record tables can be decoded in bulk. A file
+ * can also be walked through its channel, which only reads the chunks
+ * that are decoded.
  *
  * @author Karl Helgason
  */
-final class RIFFReader extends InputStream {
+final class RIFFReader {
 
-    private final RIFFReader root;
+    // Null until a chunk read through channel is first read from
+    private ByteBuffer data;
+    private final FileChannel channel;
+    // Position of the chunk contents in the file
+    private final long offset;
+    private final long length;
+    // Read position of a chunk that has not been loaded into data
+    private long position = 0;
     private final String fourcc;
-    private final InputStream stream;
     private String riff_type = null;
-    private long avail;
-    private RIFFReader lastiterator = null;
 
-    RIFFReader(InputStream stream) throws IOException {
-        avail = Integer.MAX_VALUE;
-        root = stream instanceof RIFFReader ? (((RIFFReader) stream).root) : this;
+    RIFFReader(ByteBuffer buffer) throws IOException {
+        this(buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN), 0);
+    }
 
-        this.stream = stream;
+    /*
+     * Reads the file through channel, which must stay open while the
+     * chunks are read. A chunk is only read into memory when something
+     * other than a subchunk or readSampleData is read from it, so sample
+     * data is never loaded and the file may be larger than 2 GB.
+     */
+    RIFFReader(FileChannel channel) throws IOException {
+        this(channel, 0, channel.size());
+    }
 
+    private RIFFReader(FileChannel channel, long start, long end) throws IOException {
+        this.channel = channel;
+        // The chunk header and the list type, if any
+        ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
         // Check for RIFF null paddings,
-        int b;
-        do {
-            b = read();
-            if (b == -1) {
-                fourcc = ""; // don't put null value into fourcc,
-                // because it is expected to
-                // always contain a string value
-                riff_type = null;
-                avail = 0;
+        long pos = start;
+        while (true) {
+            if (pos == end) {
+                fourcc = "";
+                offset = end;
+                length = 0;
                 return;
             }
-        } while (b == 0);
+            header.clear().limit((int) Math.min(header.capacity(), end - pos));
+            readFully(channel, header, pos);
+            if (header.get(0) != 0)
+                break;
+            pos++;
+        }
+        if (end - pos < 8)
+            throw new EOFException();
+
+        this.fourcc = new String(header.array(), 0, 4, StandardCharsets.US_ASCII);
+        long size = header.getInt(4) & 0xFFFFFFFFL;
+        offset = pos + 8;
+        length = Math.min(size, end - offset);
+
+        if (getFormat().equals("RIFF") || getFormat().equals("LIST")) {
+            if (length < 4)
+                throw new EOFException();
+            this.riff_type = new String(header.array(), 8, 4, StandardCharsets.US_ASCII);
+            position = 4;
+        }
+    }
+
+    private RIFFReader(ByteBuffer parent, long parentOffset) throws IOException {
+        channel = null;
+        // Check for RIFF null paddings,
+        while (parent.hasRemaining() && parent.get(parent.position()) == 0)
+            parent.position(parent.position() + 1);
+        if (!parent.hasRemaining()) {
+            fourcc = ""; // don't put null value into fourcc,
+            // because it is expected to
+            // always contain a string value
+            data = parent.slice();
+            offset = parentOffset + parent.position();
+            length = 0;
+            return;
+        }
+        if (parent.remaining() < 8)
+            throw new EOFException();
 
         byte[] fourcc = new byte[4];
-        fourcc[0] = (byte) b;
-        readFully(fourcc, 1, 3);
+        parent.get(fourcc);
         this.fourcc = new String(fourcc, StandardCharsets.US_ASCII);
-        avail = readUnsignedInt();
+        long size = parent.getInt() & 0xFFFFFFFFL;
+        int len = (int) Math.min(size, parent.remaining());
+        offset = parentOffset + parent.position();
+        length = len;
+        data = slice(parent, len);
 
         if (getFormat().equals("RIFF") || getFormat().equals("LIST")) {
-            if (avail > Integer.MAX_VALUE) {
-                throw new RuntimeException("Chunk size too big");
-            }
             byte[] format = new byte[4];
             readFully(format);
             this.riff_type = new String(format, StandardCharsets.US_ASCII);
         }
     }
 
-    boolean hasNextChunk() throws IOException {
-        if (lastiterator != null)
-            lastiterator.finish();
-        return avail != 0;
+    /*
+     * Returns the whole stream in a buffer. The sample data of a
+     * soundbank read this way refers into the buffer's array.
+     */
+    static ByteBuffer read(InputStream stream) throws IOException {
+        byte[] buffer = new byte[65536];
+        int len = 0;
+        while (true) {
+            if (len == buffer.length)
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            int ret = stream.read(buffer, len, buffer.length - len);
+            if (ret == -1)
+                break;
+            len += ret;
+        }
+        // Trimmed so the samples do not keep the unused capacity alive
+        if (len < buffer.length)
+            buffer = Arrays.copyOf(buffer, len);
+        return ByteBuffer.wrap(buffer);
+    }
+
+    // Returns the file read into an array
+    static ByteBuffer read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("File too big");
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            readFully(channel, buffer, 0);
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    // Fills buffer from the file, index 0 of buffer is at fileOffset
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long fileOffset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, fileOffset + buffer.position()) == -1)
+                throw new EOFException();
+        }
+    }
+
+    // Reads the rest of a chunk read through channel into memory
+    private ByteBuffer data() throws IOException {
+        if (data == null) {
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("Chunk too big");
+            ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.position((int) position);
+            readFully(channel, buffer, offset);
+            buffer.position((int) position);
+            data = buffer;
+        }
+        return data;
+    }
+
+    // Returns the next len bytes of buffer and moves past them
+    private static ByteBuffer slice(ByteBuffer buffer, int len) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(len);
+        buffer.position(buffer.position() + len);
+        return slice.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    boolean hasNextChunk() {
+        return remaining() != 0;
     }
 
     RIFFReader nextChunk() throws IOException {
-        if (lastiterator != null)
-            lastiterator.finish();
-        if (avail == 0)
+        if (remaining() == 0)
             return null;
-        lastiterator = new RIFFReader(this);
-        return lastiterator;
+        if (data != null)
+            return new RIFFReader(data, offset);
+        RIFFReader chunk = new RIFFReader(channel, offset + position, offset + length);
+        position = chunk.offset + chunk.length - offset;
+        return chunk;
     }
 
     String getFormat() {
@@ -102,101 +227,113 @@ final class RIFFReader extends InputStream {
         return riff_type;
     }
 
-    public int read() throws IOException {
-        if (avail == 0) {
-            return -1;
-        }
-        int b = stream.read();
-        if (b == -1) {
-            avail = 0;
-            return -1;
-        }
-        avail--;
-        return b;
+    // File position of the next byte to read
+    long getFilePointer() {
+        return offset + (data == null ? position : data.position());
+    }
+
+    private long remaining() {
+        return data == null ? length - position : data.remaining();
     }
 
-    public int read(byte[] b, int offset, int len) throws IOException {
-        if (avail == 0) {
+    int available() {
+        return (int) Math.min(remaining(), Integer.MAX_VALUE);
+    }
+
+    void finish() {
+        if (data == null)
+            position = length;
+        else
+            data.position(data.limit());
+    }
+
+    long skip(long n) {
+        if (n <= 0)
+            return 0;
+        long len = Math.min(n, remaining());
+        if (data == null)
+            position += len;
+        else
+            data.position(data.position() + (int) len);
+        return len;
+    }
+
+    private void need(long len) throws IOException {
+        if (len > remaining())
+            throw new EOFException();
+        data();
+    }
+
+    // Read 8 bit unsigned integer, or -1 at the end of the chunk
+    int read() throws IOException {
+        if (remaining() == 0)
             return -1;
-        }
-        if (len > avail) {
-            int rlen = stream.read(b, offset, (int) avail);
-            avail = 0;
-            return rlen;
-        } else {
-            int ret = stream.read(b, offset, len);
-            if (ret == -1) {
-                avail = 0;
-                return -1;
-            }
-            avail -= ret;
-            return ret;
-        }
+        return data().get() & 0xFF;
     }
 
-    final void readFully(byte[] b) throws IOException {
+    void readFully(byte[] b) throws IOException {
         readFully(b, 0, b.length);
     }
 
-    final void readFully(byte[] b, int off, int len) throws IOException {
-        if (len < 0)
-            throw new IndexOutOfBoundsException();
-        while (len > 0) {
-            int s = read(b, off, len);
-            if (s < 0)
-                throw new EOFException();
-            if (s == 0)
-                Thread.yield();
-            off += s;
-            len -= s;
-        }
+    void readFully(byte[] b, int off, int len) throws IOException {
+        need(len);
+        data.get(b, off, len);
     }
 
-    @Override
-    public long skip(final long n) throws IOException {
-        if (n <= 0 || avail == 0) {
-            return 0;
-        }
-        // will not skip more than
-        long remaining = Math.min(n, avail);
-        while (remaining > 0) {
-            // Some input streams like FileInputStream can return more bytes,
-            // when EOF is reached.
-            long ret = Math.min(stream.skip(remaining), remaining);
-            if (ret == 0) {
-                // EOF or not? we need to check.
-                Thread.yield();
-                if (stream.read() == -1) {
-                    avail = 0;
-                    break;
-                }
-                ret = 1;
-            }
-            remaining -= ret;
-            avail -= ret;
-        }
-        return n - remaining;
+    /*
+     * Returns the next count records of size bytes as a little endian
+     * buffer, for decoding a table with absolute gets.
+     */
+    ByteBuffer readRecords(long count, int size) throws IOException {
+        need(count * size);
+        return slice(data, (int) (count * size));
     }
 
-    @Override
-    public int available() {
-        return (int) avail;
+    // Read count 16 bit integers in one go
+    short[] readShorts(long count) throws IOException {
+        need(count * 2);
+        short[] values = new short[(int) count];
+        data.asShortBuffer().get(values);
+        data.position(data.position() + values.length * 2);
+        return values;
     }
 
-    void finish() throws IOException {
-        if (avail != 0) {
-            skip(avail);
+    /*
+     * Returns the rest of the chunk as sample data. It is mapped from
+     * mappedFile when that is given, otherwise it refers into the array
+     * the file was read into.
+     */
+    ModelByteBuffer readSampleData(File mappedFile) throws IOException {
+        ModelByteBuffer buffer;
+        if (mappedFile != null) {
+            buffer = new ModelByteBuffer(mappedFile, getFilePointer(), remaining());
+        } else if (data().hasArray()) {
+            buffer = new ModelByteBuffer(data.array(),
+                    data.arrayOffset() + data.position(), available());
+        } else {
+            byte[] copy = new byte[available()];
+            data.duplicate().get(copy);
+            buffer = new ModelByteBuffer(copy);
         }
+        finish();
+        return buffer;
     }
 
-    // Read ASCII chars from stream
-    String readString(final int len) throws IOException {
-        final byte[] buff;
-        try {
-            buff = new byte[len];
-        } catch (final OutOfMemoryError oom) {
-            throw new IOException("Length too big", oom);
+    // ASCII chars at index in buffer, up to the first zero
+    static String getString(ByteBuffer buffer, int index, int len) {
+        byte[] buff = new byte[len];
+        for (int i = 0; i < len; i++) {
+            buff[i] = buffer.get(index + i);
+            if (buff[i] == 0)
+                return new String(buff, 0, i, StandardCharsets.US_ASCII);
         }
+        return new String(buff, StandardCharsets.US_ASCII);
+    }
+
+    // Read ASCII chars
+    String readString(final int len) throws IOException {
+        need(len);
+        final byte[] buff = new byte[len];
         readFully(buff);
         for (int i = 0; i < buff.length; i++) {
             if (buff[i] == 0) {
@@ -206,82 +343,39 @@ final class RIFFReader extends InputStream {
         return new String(buff, StandardCharsets.US_ASCII);
     }
 
-    // Read 8 bit signed integer from stream
+    // Read 8 bit signed integer
     byte readByte() throws IOException {
-        int ch = read();
-        if (ch < 0)
-            throw new EOFException();
-        return (byte) ch;
+        need(1);
+        return data.get();
     }
 
-    // Read 16 bit signed integer from stream
+    // Read 16 bit signed integer
     short readShort() throws IOException {
-        int ch1 = read();
-        int ch2 = read();
-        if (ch1 < 0)
-            throw new EOFException();
-        if (ch2 < 0)
-            throw new EOFException();
-        return (short) (ch1 | (ch2 << 8));
+        need(2);
+        return data.getShort();
     }
 
-    // Read 32 bit signed integer from stream
+    // Read 32 bit signed integer
     int readInt() throws IOException {
-        int ch1 = read();
-        int ch2 = read();
-        int ch3 = read();
-        int ch4 = read();
-        if (ch1 < 0)
-            throw new EOFException();
-        if (ch2 < 0)
-            throw new EOFException();
-        if (ch3 < 0)
-            throw new EOFException();
-        if (ch4 < 0)
-            throw new EOFException();
-        return ch1 + (ch2 << 8) | (ch3 << 16) | (ch4 << 24);
+        need(4);
+        return data.getInt();
     }
 
-    // Read 8 bit unsigned integer from stream
+    // Read 8 bit unsigned integer
     int readUnsignedByte() throws IOException {
-        int ch = read();
-        if (ch < 0)
-            throw new EOFException();
-        return ch;
+        need(1);
+        return data.get() & 0xFF;
     }
 
-    // Read 16 bit unsigned integer from stream
+    // Read 16 bit unsigned integer
     int readUnsignedShort() throws IOException {
-        int ch1 = read();
-        int ch2 = read();
-        if (ch1 < 0)
-            throw new EOFException();
-        if (ch2 < 0)
-            throw new EOFException();
-        return ch1 | (ch2 << 8);
+        need(2);
+        return data.getShort() & 0xFFFF;
     }
 
-    // Read 32 bit unsigned integer from stream
+    // Read 32 bit unsigned integer
     long readUnsignedInt() throws IOException {
-        long ch1 = read();
-        long ch2 = read();
-        long ch3 = read();
-        long ch4 = read();
-        if (ch1 < 0)
-            throw new EOFException();
-        if (ch2 < 0)
-            throw new EOFException();
-        if (ch3 < 0)
-            throw new EOFException();
-        if (ch4 < 0)
-            throw new EOFException();
-        return ch1 + (ch2 << 8) | (ch3 << 16) | (ch4 << 24);
-    }
-
-    @Override
-    public void close() throws IOException {
-        finish();
-        if (this == root)
-            stream.close();
+        need(4);
+        return data.getInt() & 0xFFFFFFFFL;
     }
 }
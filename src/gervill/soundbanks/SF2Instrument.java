@@ -39,6 +39,14 @@ import java.util.Map;
  */
 final class SF2Instrument extends ModelInstrument {
 
+    // Lowers the filter cutoff for velocities below 64
+    static final ModelTransform VELOCITY_TO_FILTER = value -> {
+        if (value < 0.5)
+            return 1 - value * 2;
+        else
+            return 0;
+    };
+
     private final List<SF2InstrumentRegion> regions;
     private SF2Region globalregion;
 
@@ -769,12 +777,7 @@ final class SF2Instrument extends ModelInstrument {
                 connectionBlocks.add(
                         new ModelConnectionBlock(
                                 new ModelSource(ModelSource.SOURCE_NOTEON_VELOCITY,
-                                        value -> {
-                                            if (value < 0.5)
-                                                return 1 - value * 2;
-                                            else
-                                                return 0;
-                                        }),
+                                        VELOCITY_TO_FILTER),
                                 -2400,
                                 new ModelDestination(
                                         ModelDestination.DESTINATION_FILTER_FREQ)));
@@ -26,6 +26,9 @@ package gervill.soundbanks;
 
 import gervill.javax.sound.sampled.AudioFormat;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
 /**
  * Soundfont sample storage.
  *
@@ -60,6 +63,14 @@ final class SF2Sample {
         this(data, endLoop, sampleRate, originalPitch, (byte) 0);
     }
 
+    // Returns this sample with its data read into memory
+    SF2Sample load(FileChannel channel) throws IOException {
+        if (!data.isMapped() && (data24 == null || !data24.isMapped()))
+            return this;
+        return new SF2Sample(data.load(channel), data24 == null ? null : data24.load(channel), startLoop, endLoop,
+                (long) audioFormat.getSampleRate(), originalPitch, pitchCorrection);
+    }
+
     ModelByteBuffer getDataBuffer() {
         return data;
     }
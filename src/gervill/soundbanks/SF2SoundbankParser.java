@@ -29,13 +29,19 @@ import gervill.javax.sound.midi.Patch;
 import own.main.ImmutableList;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
 
 /**
  * A SoundFont 2.04 soundbank reader.
@@ -55,13 +61,65 @@ public final class SF2SoundbankParser {
     }
 
     public static ImmutableList<Instrument> parseSoundbank(File file) throws IOException {
-        try (InputStream is = new FileInputStream(file)) {
-            return parseSoundbank(is);
+        return parseSoundbank(file, false);
+    }
+
+    // When mapped is true sample data is not read, instead it is mapped
+    // from the file when a sample is played for the first time.
+    public static ImmutableList<Instrument> parseSoundbank(File file, boolean mapped) throws IOException {
+        if (!mapped)
+            return parseSoundbank(RIFFReader.read(file), null);
+        return ImmutableList.create(readInstruments(file), ModelInstrumentComparator.COMPARATOR);
+    }
+
+    // Only the presets accepted by filter, called with the preset name and
+    // patch, are returned. The sample data of the other presets is never read.
+    public static ImmutableList<Instrument> parseSoundbank(File file, boolean mapped, BiPredicate<String, Patch> filter) throws IOException {
+        List<Instrument> instruments = readInstruments(file);
+        instruments.removeIf(instrument -> !filter.test(instrument.getName(), instrument.getPatch()));
+        if (!mapped) {
+            Map<SF2Sample, SF2Sample> loaded = new IdentityHashMap<>();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                for (Instrument instrument : instruments) {
+                    for (SF2InstrumentRegion region : ((SF2Instrument) instrument).getRegions()) {
+                        for (SF2LayerRegion layerregion : region.getLayer().getRegions()) {
+                            SF2Sample sample = layerregion.getSample();
+                            if (sample == null)
+                                continue;
+                            SF2Sample copy = loaded.get(sample);
+                            if (copy == null) {
+                                copy = sample.load(channel);
+                                loaded.put(sample, copy);
+                            }
+                            layerregion.setSample(copy);
+                        }
+                    }
+                }
+            }
         }
+        return ImmutableList.create(instruments, ModelInstrumentComparator.COMPARATOR);
+    }
+
+    public static ImmutableList<Instrument> parseSoundbank(File file, boolean mapped, Set<Patch> patches) throws IOException {
+        return parseSoundbank(file, mapped, (name, patch) -> patches.contains(patch));
     }
 
     public static ImmutableList<Instrument> parseSoundbank(InputStream inputstream) throws IOException {
-        RIFFReader riff = new RIFFReader(inputstream);
+        return parseSoundbank(RIFFReader.read(inputstream), null);
+    }
+
+    private static ImmutableList<Instrument> parseSoundbank(ByteBuffer buffer, File mappedFile) throws IOException {
+        return ImmutableList.create(readInstruments(new RIFFReader(buffer), mappedFile), ModelInstrumentComparator.COMPARATOR);
+    }
+
+    // Reads the file through a channel, the sample data is mapped from file
+    private static List<Instrument> readInstruments(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return readInstruments(new RIFFReader(channel), file);
+        }
+    }
+
+    private static List<Instrument> readInstruments(RIFFReader riff, File mappedFile) throws IOException {
         if (!riff.getFormat().equals("RIFF")) {
             throw new RuntimeException("Input stream is not a valid RIFF stream!");
         }
@@ -80,7 +138,7 @@ public final class SF2SoundbankParser {
                         chunk.finish();
                         break;
                     case "sdta":
-                        readSdtaChunk(chunk, datas);
+                        readSdtaChunk(chunk, datas, mappedFile);
                         break;
                     case "pdta":
                         readPdtaChunk(chunk, datas[0], datas[1], instruments);
@@ -89,48 +147,18 @@ public final class SF2SoundbankParser {
             }
         }
 
-        return ImmutableList.create(instruments, ModelInstrumentComparator.COMPARATOR);
+        return instruments;
     }
 
-    private static void readSdtaChunk(RIFFReader riff, ModelByteBuffer[] datas) throws IOException {
+    private static void readSdtaChunk(RIFFReader riff, ModelByteBuffer[] datas, File mappedFile) throws IOException {
 
         while (riff.hasNextChunk()) {
             RIFFReader chunk = riff.nextChunk();
             String format = chunk.getFormat();
             if (format.equals("smpl")) {
-                byte[] sampleData = new byte[chunk.available()];
-
-                int read = 0;
-                int avail = chunk.available();
-                while (read != avail) {
-                    if (avail - read > 65536) {
-                        chunk.readFully(sampleData, read, 65536);
-                        read += 65536;
-                    } else {
-                        chunk.readFully(sampleData, read, avail - read);
-                        read = avail;
-                    }
-
-                }
-                datas[0] = new ModelByteBuffer(sampleData);
-                //chunk.read(sampleData);
+                datas[0] = chunk.readSampleData(mappedFile);
             } else if (format.equals("sm24")) {
-                byte[] sampleData24 = new byte[chunk.available()];
-                //chunk.read(sampleData24);
-
-                int read = 0;
-                int avail = chunk.available();
-                while (read != avail) {
-                    if (avail - read > 65536) {
-                        chunk.readFully(sampleData24, read, 65536);
-                        read += 65536;
-                    } else {
-                        chunk.readFully(sampleData24, read, avail - read);
-                        read = avail;
-                    }
-
-                }
-                datas[1] = new ModelByteBuffer(sampleData24);
+                datas[1] = chunk.readSampleData(mappedFile);
             }
         }
     }
@@ -160,12 +188,13 @@ public final class SF2SoundbankParser {
                     if (chunk.available() % 38 != 0)
                         throw new RuntimeException();
                     int count = chunk.available() / 38;
+                    ByteBuffer records = chunk.readRecords(count, 38);
                     for (int i = 0; i < count; i++) {
-                        String name = chunk.readString(20);
-                        int program = chunk.readUnsignedShort();
-                        int bank = chunk.readUnsignedShort();
-                        presets_bagNdx.add(chunk.readUnsignedShort());
-                        chunk.skip(12);
+                        int r = i * 38;
+                        String name = RIFFReader.getString(records, r, 20);
+                        int program = records.getShort(r + 20) & 0xFFFF;
+                        int bank = records.getShort(r + 22) & 0xFFFF;
+                        presets_bagNdx.add(records.getShort(r + 24) & 0xFFFF);
                         if (i != count - 1) {
                             Patch patch = bank == 128 ? new Patch(0, program, true) : new Patch(bank << 7, program, false);
                             instruments.add(new SF2Instrument(name, patch));
@@ -178,11 +207,13 @@ public final class SF2SoundbankParser {
                     if (chunk.available() % 4 != 0)
                         throw new RuntimeException();
                     int count = chunk.available() / 4;
+                    short[] bags = chunk.readShorts(count * 2);
+                    int b = 0;
 
                     // Skip first record
                     {
-                        int gencount = chunk.readUnsignedShort();
-                        int modcount = chunk.readUnsignedShort();
+                        int gencount = bags[b++] & 0xFFFF;
+                        int modcount = bags[b++] & 0xFFFF;
                         while (presets_splits_gen.size() < gencount)
                             presets_splits_gen.add(null);
                         while (presets_splits_mod.size() < modcount)
@@ -198,8 +229,8 @@ public final class SF2SoundbankParser {
                     for (int i = 0; i < offset; i++) {
                         if (count == 0)
                             throw new RuntimeException();
-                        int gencount = chunk.readUnsignedShort();
-                        int modcount = chunk.readUnsignedShort();
+                        int gencount = bags[b++] & 0xFFFF;
+                        int modcount = bags[b++] & 0xFFFF;
                         while (presets_splits_gen.size() < gencount)
                             presets_splits_gen.add(null);
                         while (presets_splits_mod.size() < modcount)
@@ -214,8 +245,8 @@ public final class SF2SoundbankParser {
                         for (int ii = 0; ii < zone_count; ii++) {
                             if (count == 0)
                                 throw new RuntimeException();
-                            int gencount = chunk.readUnsignedShort();
-                            int modcount = chunk.readUnsignedShort();
+                            int gencount = bags[b++] & 0xFFFF;
+                            int modcount = bags[b++] & 0xFFFF;
                             SF2InstrumentRegion split = new SF2InstrumentRegion();
                             preset.getRegions().add(split);
                             while (presets_splits_gen.size() < gencount)
@@ -227,37 +258,43 @@ public final class SF2SoundbankParser {
                     }
                     break;
                 }
-                case "pmod":
+                case "pmod": {
                     // Preset Modulators / Split Modulators
+                    short[] mods = chunk.readShorts(presets_splits_mod.size() * 5L);
+                    int m = 0;
                     for (SF2InstrumentRegion sf2InstrumentRegion : presets_splits_mod) {
-                        int sourceOperator = chunk.readUnsignedShort();
-                        int destinationOperator = chunk.readUnsignedShort();
-                        short amount = chunk.readShort();
-                        int amountSourceOperator = chunk.readUnsignedShort();
-                        int transportOperator = chunk.readUnsignedShort();
+                        int sourceOperator = mods[m++] & 0xFFFF;
+                        int destinationOperator = mods[m++] & 0xFFFF;
+                        short amount = mods[m++];
+                        int amountSourceOperator = mods[m++] & 0xFFFF;
+                        int transportOperator = mods[m++] & 0xFFFF;
                         if (sf2InstrumentRegion != null) {
                             sf2InstrumentRegion.getModulators().add(new SF2Modulator(sourceOperator, destinationOperator, amount, amountSourceOperator, transportOperator));
                         }
                     }
                     break;
-                case "pgen":
+                }
+                case "pgen": {
                     // Preset Generators / Split Generators
+                    short[] gens = chunk.readShorts(presets_splits_gen.size() * 2L);
+                    int g = 0;
                     for (SF2InstrumentRegion sf2InstrumentRegion : presets_splits_gen) {
-                        int operator = chunk.readUnsignedShort();
-                        short amount = chunk.readShort();
+                        int operator = gens[g++] & 0xFFFF;
+                        short amount = gens[g++];
                         if (sf2InstrumentRegion != null)
                             sf2InstrumentRegion.getGenerators().put(operator, amount);
                     }
                     break;
+                }
                 case "inst": {
                     // Instrument Header / Layers
                     if (chunk.available() % 22 != 0)
                         throw new RuntimeException();
                     int count = chunk.available() / 22;
+                    ByteBuffer records = chunk.readRecords(count, 22);
                     for (int i = 0; i < count; i++) {
-                        chunk.skip(20);
                         SF2Layer layer = new SF2Layer();
-                        instruments_bagNdx.add(chunk.readUnsignedShort());
+                        instruments_bagNdx.add(records.getShort(i * 22 + 20) & 0xFFFF);
                         if (i != count - 1)
                             layers.add(layer);
                     }
@@ -268,11 +305,13 @@ public final class SF2SoundbankParser {
                     if (chunk.available() % 4 != 0)
                         throw new RuntimeException();
                     int count = chunk.available() / 4;
+                    short[] bags = chunk.readShorts(count * 2);
+                    int b = 0;
 
                     // Skip first record
                     {
-                        int gencount = chunk.readUnsignedShort();
-                        int modcount = chunk.readUnsignedShort();
+                        int gencount = bags[b++] & 0xFFFF;
+                        int modcount = bags[b++] & 0xFFFF;
                         while (instruments_splits_gen.size() < gencount)
                             instruments_splits_gen.add(null);
                         while (instruments_splits_mod.size() < modcount)
@@ -288,8 +327,8 @@ public final class SF2SoundbankParser {
                     for (int i = 0; i < offset; i++) {
                         if (count == 0)
                             throw new RuntimeException();
-                        int gencount = chunk.readUnsignedShort();
-                        int modcount = chunk.readUnsignedShort();
+                        int gencount = bags[b++] & 0xFFFF;
+                        int modcount = bags[b++] & 0xFFFF;
                         while (instruments_splits_gen.size() < gencount)
                             instruments_splits_gen.add(null);
                         while (instruments_splits_mod.size() < modcount)
@@ -303,8 +342,8 @@ public final class SF2SoundbankParser {
                         for (int ii = 0; ii < zone_count; ii++) {
                             if (count == 0)
                                 throw new RuntimeException();
-                            int gencount = chunk.readUnsignedShort();
-                            int modcount = chunk.readUnsignedShort();
+                            int gencount = bags[b++] & 0xFFFF;
+                            int modcount = bags[b++] & 0xFFFF;
                             SF2LayerRegion split = new SF2LayerRegion();
                             layer.getRegions().add(split);
                             while (instruments_splits_gen.size() < gencount)
@@ -317,14 +356,16 @@ public final class SF2SoundbankParser {
 
                     break;
                 }
-                case "imod":
+                case "imod": {
                     // Instrument Modulators / Split Modulators
+                    short[] mods = chunk.readShorts(instruments_splits_mod.size() * 5L);
+                    int m = 0;
                     for (int i = 0; i < instruments_splits_mod.size(); i++) {
-                        int sourceOperator = chunk.readUnsignedShort();
-                        int destinationOperator = chunk.readUnsignedShort();
-                        short amount = chunk.readShort();
-                        int amountSourceOperator = chunk.readUnsignedShort();
-                        int transportOperator = chunk.readUnsignedShort();
+                        int sourceOperator = mods[m++] & 0xFFFF;
+                        int destinationOperator = mods[m++] & 0xFFFF;
+                        short amount = mods[m++];
+                        int amountSourceOperator = mods[m++] & 0xFFFF;
+                        int transportOperator = mods[m++] & 0xFFFF;
                         if (i >= instruments_splits_gen.size()) {
                             throw new RuntimeException();
                         }
@@ -333,36 +374,39 @@ public final class SF2SoundbankParser {
                             split.getModulators().add(new SF2Modulator(sourceOperator, destinationOperator, amount, amountSourceOperator, transportOperator));
                     }
                     break;
-                case "igen":
+                }
+                case "igen": {
                     // Instrument Generators / Split Generators
+                    short[] gens = chunk.readShorts(instruments_splits_gen.size() * 2L);
+                    int g = 0;
                     for (SF2LayerRegion sf2LayerRegion : instruments_splits_gen) {
-                        int operator = chunk.readUnsignedShort();
-                        short amount = chunk.readShort();
+                        int operator = gens[g++] & 0xFFFF;
+                        short amount = gens[g++];
                         if (sf2LayerRegion != null)
                             sf2LayerRegion.getGenerators().put(operator, amount);
                     }
                     break;
+                }
                 case "shdr": {
                     // Sample Headers
                     if (chunk.available() % 46 != 0)
                         throw new RuntimeException();
                     int count = chunk.available() / 46;
+                    ByteBuffer records = chunk.readRecords(count, 46);
                     for (int i = 0; i < count; i++) {
-
-                        chunk.skip(20);
-                        long start = chunk.readUnsignedInt();
-                        long end = chunk.readUnsignedInt();
+                        int r = i * 46;
+                        long start = records.getInt(r + 20) & 0xFFFFFFFFL;
+                        long end = records.getInt(r + 24) & 0xFFFFFFFFL;
                         ModelByteBuffer data = sampleData == null ? null : sampleData.subbuffer(start * 2, end * 2, true);
                         ModelByteBuffer data24 = sampleData24 == null ? null : sampleData24.subbuffer(start, end, true);
-                        long startLoop = Math.max(-1, chunk.readUnsignedInt() - start);
-                        long endLoop = Math.max(-1, chunk.readUnsignedInt() - start);
-                        long sampleRate = chunk.readUnsignedInt();
-                        int originalPitch = chunk.readUnsignedByte();
-                        byte pitchCorrection = chunk.readByte();
+                        long startLoop = Math.max(-1, (records.getInt(r + 28) & 0xFFFFFFFFL) - start);
+                        long endLoop = Math.max(-1, (records.getInt(r + 32) & 0xFFFFFFFFL) - start);
+                        long sampleRate = records.getInt(r + 36) & 0xFFFFFFFFL;
+                        int originalPitch = records.get(r + 40) & 0xFF;
+                        byte pitchCorrection = records.get(r + 41);
 
                         SF2Sample sample = new SF2Sample(data, data24, startLoop, endLoop, sampleRate, originalPitch, pitchCorrection);
 
-                        chunk.skip(4);
                         if (i != count - 1)
                             samples.add(sample);
                     }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.soundbanks;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Least recently used cache of wavetables decoded to float samples.
+ * The cache is disabled until it is given a memory budget. Missing
+ * wavetables are decoded by a background thread, the render threads
+ * never decode.
+ * <p>
+ * Decoded samples are kept by the wavetables themselves. The cache only
+ * holds weak links to them in least recently used order, with the
+ * decoded size, so a soundbank that is no longer referenced is
+ * collected with its decoded samples and its size leaves the budget.
+ */
+final class SampleCache {
+
+    /*
+     * A cached wavetable, linked in least recently used order from head
+     * to tail. Unlinked entries point at themselves.
+     */
+    static final class Entry extends WeakReference<ModelByteBufferWavetable> {
+
+        final long size;
+        Entry prev = this;
+        Entry next = this;
+
+        Entry(ModelByteBufferWavetable wavetable, long size) {
+            super(wavetable, collected);
+            this.size = size;
+        }
+
+        boolean isLinked() {
+            return next != this;
+        }
+    }
+
+    private static final ReferenceQueue<ModelByteBufferWavetable> collected
+            = new ReferenceQueue<>();
+    // Sentinel of the list, head.next is the least recently used entry
+    private static final Entry head = new Entry(null, 0);
+    private static final ConcurrentLinkedQueue<ModelByteBufferWavetable> requests
+            = new ConcurrentLinkedQueue<>();
+    private static long budget = 0;
+    private static long used = 0;
+    private static Thread thread = null;
+
+    private SampleCache() {
+    }
+
+    static synchronized void setBudget(long bytes) {
+        budget = Math.max(bytes, 0);
+        trim();
+        if (budget > 0 && thread == null) {
+            thread = new Thread(SampleCache::run, "Gervill sample decoder");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    static synchronized boolean isEnabled() {
+        return budget > 0;
+    }
+
+    // Marks the entry of a wavetable played from the cache as most recent
+    static synchronized void touch(Entry entry) {
+        if (entry == null || !entry.isLinked())
+            return;
+        unlink(entry);
+        link(entry);
+    }
+
+    /*
+     * Queues wavetable for decoding into the cache, unless it is queued
+     * already or would not fit into the budget. Never blocks on decoding.
+     */
+    static synchronized void request(ModelByteBufferWavetable wavetable) {
+        expunge();
+        if (wavetable.decodedSize() > budget || wavetable.cachePending)
+            return;
+        wavetable.cachePending = true;
+        requests.add(wavetable);
+        LockSupport.unpark(thread);
+    }
+
+    static synchronized void put(ModelByteBufferWavetable wavetable, float[] data) {
+        long size = data.length * 4L;
+        if (size > budget)
+            return;
+        remove(wavetable);
+        Entry entry = new Entry(wavetable, size);
+        link(entry);
+        used += size;
+        wavetable.setCached(data, entry);
+        trim();
+    }
+
+    // Drops the decoded samples of a wavetable, if it has any
+    static synchronized void remove(ModelByteBufferWavetable wavetable) {
+        Entry entry = wavetable.getCacheEntry();
+        if (entry == null)
+            return;
+        wavetable.setCached(null, null);
+        if (entry.isLinked()) {
+            unlink(entry);
+            used -= entry.size;
+        }
+    }
+
+    private static synchronized void done(ModelByteBufferWavetable wavetable) {
+        wavetable.cachePending = false;
+    }
+
+    private static void link(Entry entry) {
+        entry.prev = head.prev;
+        entry.next = head;
+        head.prev.next = entry;
+        head.prev = entry;
+    }
+
+    private static void unlink(Entry entry) {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev = entry;
+        entry.next = entry;
+    }
+
+    // Takes the sizes of collected wavetables out of the budget
+    private static void expunge() {
+        Reference<? extends ModelByteBufferWavetable> ref;
+        while ((ref = collected.poll()) != null) {
+            Entry entry = (Entry) ref;
+            if (entry.isLinked()) {
+                unlink(entry);
+                used -= entry.size;
+            }
+        }
+    }
+
+    private static void trim() {
+        expunge();
+        while (used > budget && head.next != head) {
+            Entry entry = head.next;
+            ModelByteBufferWavetable wavetable = entry.get();
+            if (wavetable != null && wavetable.getCacheEntry() == entry)
+                wavetable.setCached(null, null);
+            unlink(entry);
+            used -= entry.size;
+        }
+    }
+
+    private static void run() {
+        while (true) {
+            ModelByteBufferWavetable wavetable = requests.poll();
+            if (wavetable == null) {
+                LockSupport.park();
+                continue;
+            }
+            try {
+                put(wavetable, wavetable.decode());
+            } catch (IOException e) {
+                // The wavetable keeps playing from its sample data
+            } finally {
+                done(wavetable);
+            }
+        }
+    }
+}
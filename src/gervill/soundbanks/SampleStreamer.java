@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.soundbanks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads streamed samples ahead of the voices playing them. A single
+ * thread fills the ring buffers of the playing streams from the soundbank
+ * files, the stream which runs out of data first is served first.
+ * <p>
+ * The channel on a soundbank file is open while streamed samples of the
+ * file are in use. Readers keep their sample, so the channel is closed
+ * by the streamer thread once the last sample and its streams have been
+ * collected.
+ */
+final class SampleStreamer {
+
+    // Open channel on a file and the number of samples using it
+    private static final class Source {
+
+        final FileChannel channel;
+        int users = 0;
+
+        Source(FileChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    // A streamed sample using the channel on file
+    private static final class User extends WeakReference<StreamedSample> {
+
+        final File file;
+
+        User(StreamedSample sample, File file) {
+            super(sample, collected);
+            this.file = file;
+        }
+    }
+
+    // Most bytes read for one stream before the queue is looked at again
+    private static final int CHUNK_SIZE = 32768;
+    // How often an idle streamer thread closes unused channels
+    private static final long EXPUNGE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private static final ConcurrentLinkedQueue<StreamedSample.Reader> requests
+            = new ConcurrentLinkedQueue<>();
+    private static final ReferenceQueue<StreamedSample> collected = new ReferenceQueue<>();
+    // Guarded by the class, users keeps the references reachable
+    private static final Map<File, Source> sources = new HashMap<>();
+    private static final Set<User> users = new HashSet<>();
+    private static final AtomicLong underruns = new AtomicLong();
+    private static volatile int headMillis = 0;
+    private static volatile Thread thread = null;
+
+    private SampleStreamer() {
+    }
+
+    static synchronized void setHeadMillis(int millis) {
+        headMillis = Math.max(millis, 0);
+        if (headMillis > 0 && thread == null) {
+            Thread t = new Thread(SampleStreamer::run, "Gervill sample streamer");
+            t.setDaemon(true);
+            t.setPriority(Thread.MAX_PRIORITY);
+            t.start();
+            thread = t;
+        }
+    }
+
+    static int getHeadMillis() {
+        return headMillis;
+    }
+
+    static long getUnderruns() {
+        return underruns.get();
+    }
+
+    static void underrun() {
+        underruns.incrementAndGet();
+    }
+
+    /*
+     * Read only channel on file for sample, shared by the samples of the
+     * file. It stays open until sample and every other sample given the
+     * channel have been collected.
+     */
+    static synchronized FileChannel channel(File file, StreamedSample sample) throws IOException {
+        expunge();
+        Source source = sources.get(file);
+        if (source == null) {
+            source = new Source(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+            sources.put(file, source);
+        }
+        source.users++;
+        users.add(new User(sample, file));
+        return source.channel;
+    }
+
+    // Closes the channels no longer used by any sample
+    private static synchronized void expunge() {
+        Reference<? extends StreamedSample> ref;
+        while ((ref = collected.poll()) != null) {
+            User user = (User) ref;
+            users.remove(user);
+            Source source = sources.get(user.file);
+            if (--source.users == 0) {
+                sources.remove(user.file);
+                try {
+                    source.channel.close();
+                } catch (IOException e) {
+                    // Nothing is read from it anymore
+                }
+            }
+        }
+    }
+
+    // Queues reader for filling, called from the render threads and never
+    // blocks. reader.deadline must be set before.
+    static void request(StreamedSample.Reader reader) {
+        requests.add(reader);
+        LockSupport.unpark(thread);
+    }
+
+    private static void run() {
+        PriorityQueue<StreamedSample.Reader> queue = new PriorityQueue<>(
+                Comparator.comparingLong((StreamedSample.Reader reader) -> reader.deadline));
+        while (true) {
+            StreamedSample.Reader reader;
+            while ((reader = requests.poll()) != null)
+                queue.add(reader);
+            reader = queue.poll();
+            if (reader == null) {
+                expunge();
+                LockSupport.parkNanos(EXPUNGE_INTERVAL);
+                continue;
+            }
+            try {
+                if (reader.fill(CHUNK_SIZE))
+                    queue.add(reader);
+            } catch (IOException e) {
+                // The stream plays silence from here on
+                reader.close();
+            }
+        }
+    }
+}
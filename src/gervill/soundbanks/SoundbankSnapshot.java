@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.soundbanks;
+
+import gervill.com.sun.media.sound.ModelConnectionBlock;
+import gervill.com.sun.media.sound.ModelDestination;
+import gervill.com.sun.media.sound.ModelIdentifier;
+import gervill.com.sun.media.sound.ModelInstrument;
+import gervill.com.sun.media.sound.ModelPerformer;
+import gervill.com.sun.media.sound.ModelSource;
+import gervill.com.sun.media.sound.ModelStandardTransform;
+import gervill.com.sun.media.sound.ModelTransform;
+import gervill.javax.sound.midi.Instrument;
+import gervill.javax.sound.midi.Patch;
+import gervill.javax.sound.sampled.AudioFormat;
+import gervill.javax.sound.sampled.AudioFormat.Encoding;
+import own.main.ImmutableList;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshots of parsed SF2 and DLS soundbanks.
+ * <p>
+ * A snapshot holds the built performers of every instrument, with the
+ * sample data referred to by its position in the soundbank file.
+ * Loading one skips parsing the soundbank and building the performers.
+ * As with parseSoundbank(file, true), samples are mapped from the
+ * soundbank file when they are first played.
+ * <p>
+ * A snapshot is only used with the soundbank it was written for. It
+ * holds the soundbank's size and a CRC32 of everything in it except the
+ * sample data, which is read from the soundbank anyway.
+ */
+public final class SoundbankSnapshot {
+
+    private static final int MAGIC = 0x47565353; // "GVSS"
+    private static final int VERSION = 2;
+    // Transforms that are not ModelStandardTransform, stored by index
+    private static final ModelTransform[] SHARED_TRANSFORMS = {
+            SF2Instrument.VELOCITY_TO_FILTER
+    };
+
+    private SoundbankSnapshot() {
+    }
+
+    /**
+     * Returns the instruments of a SF2 or DLS soundbank. They are read
+     * from the snapshot file when it was written for this soundbank,
+     * otherwise the soundbank is parsed and the snapshot written for the
+     * next time.
+     *
+     * @param soundbank the soundbank file
+     * @param snapshot  the snapshot file, need not exist
+     * @return the instruments, sorted as the parsers sort them
+     * @throws IOException if the soundbank can not be read
+     */
+    public static ImmutableList<Instrument> load(File soundbank, File snapshot) throws IOException {
+        if (snapshot.isFile()) {
+            try {
+                ImmutableList<Instrument> instruments = read(soundbank, snapshot);
+                if (instruments != null)
+                    return instruments;
+            } catch (IOException | RuntimeException ignored) {
+                // Damaged or written by another version, parse again
+            }
+        }
+        ImmutableList<Instrument> instruments = parse(soundbank);
+        try {
+            write(soundbank, instruments, snapshot);
+        } catch (IOException ignored) {
+            // The parsed instruments are still used
+        }
+        return instruments;
+    }
+
+    private static ImmutableList<Instrument> parse(File soundbank) throws IOException {
+        byte[] header = new byte[12];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(soundbank))) {
+            in.readFully(header);
+        }
+        if (new String(header, 8, 4, StandardCharsets.US_ASCII).equals("DLS "))
+            return DLSSoundbankParser.parseSoundbank(soundbank, true);
+        return SF2SoundbankParser.parseSoundbank(soundbank, true);
+    }
+
+    /*
+     * Layout: magic, version, soundbank size and hash, the identifier
+     * table, the position and size of the sample chunks, then the
+     * instruments. Sources and destinations refer to identifiers by
+     * index, since a bank uses few of them many times.
+     * Returns null when the snapshot is for another soundbank.
+     */
+    private static ImmutableList<Instrument> read(File soundbank, File snapshot) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.getInt() != MAGIC || in.getInt() != VERSION)
+            return null;
+        long size = in.getLong();
+        long hash = in.getLong();
+        if (size != soundbank.length())
+            return null;
+
+        ModelIdentifier[] identifiers = new ModelIdentifier[in.getInt()];
+        for (int i = 0; i < identifiers.length; i++)
+            identifiers[i] = new ModelIdentifier(readString(in), readString(in), in.getInt());
+
+        List<ModelByteBuffer> chunks = new ArrayList<>();
+        int chunkCount = in.getInt();
+        for (int i = 0; i < chunkCount; i++)
+            chunks.add(new ModelByteBuffer(soundbank, in.getLong(), in.getLong()));
+
+        List<long[]> ranges = new ArrayList<>();
+        int count = in.getInt();
+        List<Instrument> instruments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = readString(in);
+            Patch patch = new Patch(in.getInt(), in.getInt(), in.get() != 0);
+            ModelPerformer[] performers = new ModelPerformer[in.getInt()];
+            for (int j = 0; j < performers.length; j++)
+                performers[j] = readPerformer(in, soundbank, chunks, identifiers, ranges);
+            instruments.add(new SnapshotInstrument(patch, name, performers));
+        }
+        if (in.hasRemaining() || hash(soundbank, ranges) != hash)
+            return null;
+        return ImmutableList.create(instruments);
+    }
+
+    private static ModelPerformer readPerformer(ByteBuffer in, File soundbank, List<ModelByteBuffer> chunks,
+                                                ModelIdentifier[] identifiers, List<long[]> ranges) {
+        int keyFrom = in.getInt();
+        int keyTo = in.getInt();
+        int velFrom = in.getInt();
+        int velTo = in.getInt();
+        int exclusiveClass = in.getInt();
+        boolean selfNonExclusive = in.get() != 0;
+
+        List<ModelByteBufferWavetable> oscillators = new ArrayList<>();
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            AudioFormat format = new AudioFormat(Encoding.valueOf(readString(in)),
+                    in.getFloat(), in.getInt(), in.getInt(), in.getInt(), in.getFloat());
+            float pitchcorrection = in.getFloat();
+            float attenuation = in.getFloat();
+            int loopStart = in.getInt();
+            int loopLength = in.getInt();
+            int loopType = in.getInt();
+            ModelByteBuffer buffer = readBuffer(in, soundbank, chunks, ranges);
+            ModelByteBuffer buffer8 = readBuffer(in, soundbank, chunks, ranges);
+            oscillators.add(new ModelByteBufferWavetable(buffer, format, pitchcorrection,
+                    attenuation, loopStart, loopLength, loopType, buffer8));
+        }
+
+        List<ModelConnectionBlock> connectionBlocks = new ArrayList<>();
+        count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            double scale = in.getDouble();
+            ModelDestination destination = new ModelDestination(identifiers[in.getInt()], readTransform(in));
+            List<ModelSource> sources = new ArrayList<>();
+            int sourceCount = in.getInt();
+            for (int j = 0; j < sourceCount; j++)
+                sources.add(new ModelSource(identifiers[in.getInt()], readTransform(in)));
+            connectionBlocks.add(new ModelConnectionBlock(scale, destination, sources));
+        }
+
+        return new ModelPerformer(keyFrom, keyTo, velFrom, velTo, exclusiveClass,
+                selfNonExclusive, oscillators, connectionBlocks);
+    }
+
+    /*
+     * A sample is returned as a subbuffer of the sample chunk holding it,
+     * so the chunk is mapped once for all its samples. Samples outside
+     * the chunks, or in a chunk too large to be mapped at once, are
+     * mapped by themselves.
+     */
+    private static ModelByteBuffer readBuffer(ByteBuffer in, File soundbank, List<ModelByteBuffer> chunks, List<long[]> ranges) {
+        long offset = in.getLong();
+        if (offset == -1)
+            return null;
+        long len = in.getLong();
+        ranges.add(new long[]{offset, len});
+        int low = 0;
+        int high = chunks.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            ModelByteBuffer chunk = chunks.get(mid);
+            long start = chunk.filePointer();
+            if (offset < start) {
+                high = mid - 1;
+            } else if (offset >= start + chunk.capacity()) {
+                low = mid + 1;
+            } else {
+                if (offset + len > start + chunk.capacity() || chunk.capacity() > Integer.MAX_VALUE)
+                    break;
+                return chunk.subbuffer(offset - start, offset - start + len);
+            }
+        }
+        return new ModelByteBuffer(soundbank, offset, len);
+    }
+
+    // The smpl and sm24 chunks of a SF2 file or the data chunks of a DLS
+    // file, in file order
+    private static List<ModelByteBuffer> sampleChunks(File soundbank) throws IOException {
+        List<ModelByteBuffer> chunks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(soundbank.toPath(), StandardOpenOption.READ)) {
+            addSampleChunks(new RIFFReader(channel), soundbank, chunks);
+        }
+        return chunks;
+    }
+
+    private static void addSampleChunks(RIFFReader riff, File soundbank, List<ModelByteBuffer> chunks) throws IOException {
+        while (riff.hasNextChunk()) {
+            RIFFReader chunk = riff.nextChunk();
+            switch (chunk.getFormat()) {
+                case "LIST":
+                    String type = chunk.getType();
+                    if (type.equals("sdta") || type.equals("wvpl") || type.equals("wave"))
+                        addSampleChunks(chunk, soundbank, chunks);
+                    break;
+                case "smpl":
+                case "sm24":
+                case "data":
+                    chunks.add(chunk.readSampleData(soundbank));
+                    break;
+            }
+        }
+    }
+
+    private static ModelTransform readTransform(ByteBuffer in) {
+        byte kind = in.get();
+        if (kind == 0)
+            return null;
+        if (kind == 2)
+            return SHARED_TRANSFORMS[in.getInt()];
+        boolean direction = in.get() != 0;
+        boolean polarity = in.get() != 0;
+        return new ModelStandardTransform(direction, polarity, in.getInt());
+    }
+
+    private static String readString(ByteBuffer in) {
+        int len = in.getInt();
+        if (len == -1)
+            return null;
+        byte[] bytes = new byte[len];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Writes to a temporary file next to the snapshot and renames it, so
+     * other processes never see a partly written snapshot.
+     */
+    private static void write(File soundbank, ImmutableList<Instrument> instruments, File snapshot) throws IOException {
+        List<ModelIdentifier> identifiers = new ArrayList<>();
+        List<long[]> ranges = new ArrayList<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(instruments.size());
+        for (Instrument instrument : instruments) {
+            if (!(instrument instanceof ModelInstrument))
+                throw new IOException("Instrument can not be stored: " + instrument.getName());
+            writeString(out, instrument.getName());
+            out.writeInt(instrument.getPatch().getBank());
+            out.writeInt(instrument.getPatch().getProgram());
+            out.writeBoolean(instrument.getPatch().isPercussion());
+            ImmutableList<ModelPerformer> performers = ((ModelInstrument) instrument).getPerformers();
+            out.writeInt(performers.size());
+            for (ModelPerformer performer : performers)
+                writePerformer(out, performer, identifiers, ranges);
+        }
+        out.flush();
+
+        File dir = snapshot.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile("gervill", ".tmp", dir);
+        try {
+            try (DataOutputStream file = new DataOutputStream(new FileOutputStream(temp))) {
+                file.writeInt(MAGIC);
+                file.writeInt(VERSION);
+                file.writeLong(soundbank.length());
+                file.writeLong(hash(soundbank, ranges));
+                file.writeInt(identifiers.size());
+                for (ModelIdentifier identifier : identifiers) {
+                    writeString(file, identifier.getObject());
+                    writeString(file, identifier.getVariable());
+                    file.writeInt(identifier.getInstance());
+                }
+                List<ModelByteBuffer> chunks = sampleChunks(soundbank);
+                file.writeInt(chunks.size());
+                for (ModelByteBuffer chunk : chunks) {
+                    file.writeLong(chunk.filePointer());
+                    file.writeLong(chunk.capacity());
+                }
+                body.writeTo(file);
+            }
+            try {
+                Files.move(temp.toPath(), snapshot.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private static void writePerformer(DataOutputStream out, ModelPerformer performer, List<ModelIdentifier> identifiers, List<long[]> ranges) throws IOException {
+        out.writeInt(performer.getKeyFrom());
+        out.writeInt(performer.getKeyTo());
+        out.writeInt(performer.getVelFrom());
+        out.writeInt(performer.getVelTo());
+        out.writeInt(performer.getExclusiveClass());
+        out.writeBoolean(performer.isSelfNonExclusive());
+
+        out.writeInt(performer.getOscillators().size());
+        for (ModelByteBufferWavetable osc : performer.getOscillators()) {
+            AudioFormat format = osc.getFormat();
+            writeString(out, format.getEncoding().name());
+            out.writeFloat(format.getSampleRate());
+            out.writeInt(format.getSampleSizeInBits());
+            out.writeInt(format.getChannels());
+            out.writeInt(format.getFrameSize());
+            out.writeFloat(format.getFrameRate());
+            out.writeFloat(osc.getPitchcorrection());
+            out.writeFloat(osc.getAttenuation());
+            out.writeInt((int) osc.getLoopStart());
+            out.writeInt((int) osc.getLoopLength());
+            out.writeInt(osc.getLoopType());
+            writeBuffer(out, osc.getBuffer(), ranges);
+            writeBuffer(out, osc.getBuffer8(), ranges);
+        }
+
+        out.writeInt(performer.getConnectionBlocks().size());
+        for (ModelConnectionBlock block : performer.getConnectionBlocks()) {
+            out.writeDouble(block.getScale());
+            out.writeInt(identifierIndex(identifiers, block.getDestination().getIdentifier()));
+            writeTransform(out, block.getDestination().getTransform());
+            out.writeInt(block.getSources().size());
+            for (ModelSource source : block.getSources()) {
+                out.writeInt(identifierIndex(identifiers, source.getIdentifier()));
+                writeTransform(out, source.getTransform());
+            }
+        }
+    }
+
+    // Samples are stored as their position in the soundbank file
+    private static void writeBuffer(DataOutputStream out, ModelByteBuffer buffer, List<long[]> ranges) throws IOException {
+        if (buffer == null) {
+            out.writeLong(-1);
+            return;
+        }
+        if (!buffer.isMapped())
+            throw new IOException("Sample data is not mapped from the soundbank");
+        out.writeLong(buffer.filePointer());
+        out.writeLong(buffer.capacity());
+        ranges.add(new long[]{buffer.filePointer(), buffer.capacity()});
+    }
+
+    private static void writeTransform(DataOutputStream out, ModelTransform transform) throws IOException {
+        if (transform == null) {
+            out.writeByte(0);
+            return;
+        }
+        for (int i = 0; i < SHARED_TRANSFORMS.length; i++) {
+            if (transform == SHARED_TRANSFORMS[i]) {
+                out.writeByte(2);
+                out.writeInt(i);
+                return;
+            }
+        }
+        if (!(transform instanceof ModelStandardTransform))
+            throw new IOException("Transform can not be stored: " + transform);
+        ModelStandardTransform standard = (ModelStandardTransform) transform;
+        out.writeByte(1);
+        out.writeBoolean(standard.getDirection());
+        out.writeBoolean(standard.getPolarity());
+        out.writeInt(standard.getTransform());
+    }
+
+    // ModelIdentifier has no hashCode, the table is searched instead
+    private static int identifierIndex(List<ModelIdentifier> identifiers, ModelIdentifier identifier) {
+        int index = identifiers.indexOf(identifier);
+        if (index == -1) {
+            index = identifiers.size();
+            identifiers.add(identifier);
+        }
+        return index;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /*
+     * CRC32 of the soundbank file without the sample data ranges, which
+     * may overlap.
+     */
+    private static long hash(File soundbank, List<long[]> ranges) throws IOException {
+        List<long[]> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(range -> range[0]));
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(65536);
+        try (FileChannel channel = FileChannel.open(soundbank.toPath(), StandardOpenOption.READ)) {
+            long pos = 0;
+            for (long[] range : sorted) {
+                update(crc, channel, buffer, pos, range[0]);
+                pos = Math.max(pos, range[0] + range[1]);
+            }
+            update(crc, channel, buffer, pos, channel.size());
+        }
+        return crc.getValue();
+    }
+
+    private static void update(CRC32 crc, FileChannel channel, ByteBuffer buffer, long from, long to) throws IOException {
+        while (from < to) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), to - from));
+            int read = channel.read(buffer, from);
+            if (read == -1)
+                throw new EOFException();
+            buffer.flip();
+            crc.update(buffer);
+            from += read;
+        }
+    }
+
+    private static final class SnapshotInstrument extends ModelInstrument {
+
+        private final ModelPerformer[] performers;
+
+        SnapshotInstrument(Patch patch, String name, ModelPerformer[] performers) {
+            super(patch, name);
+            this.performers = performers;
+        }
+
+        @Override
+        protected ModelPerformer[] buildPerformers() {
+            return performers;
+        }
+    }
+}
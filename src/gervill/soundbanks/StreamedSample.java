@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.soundbanks;
+
+import gervill.com.sun.media.sound.AudioFloatConverter;
+import gervill.com.sun.media.sound.AudioFloatInputStream;
+import gervill.javax.sound.sampled.AudioFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sample data played from the soundbank file. Only the head of the sample
+ * and its loop are kept in memory, the part in between is read ahead by
+ * SampleStreamer into a ring buffer of each stream playing it.
+ * <p>
+ * Wavetables of regions that play the same part of a file in the same
+ * way share one streamed sample, and with it the head and loop in memory.
+ */
+final class StreamedSample {
+
+    // What a streamed sample reads and how, the key of shared samples
+    private static final class Key {
+
+        private final File file;
+        private final long filePointer;
+        private final int length;
+        private final int headSize;
+        private final int tailStart;
+        private final int ringSize;
+        private final AudioFormat.Encoding encoding;
+        private final int sampleSizeInBits;
+        private final int channels;
+        private final int frameSize;
+        private final float frameRate;
+
+        Key(ModelByteBuffer buffer, AudioFormat format, int headSize, int tailStart, int ringSize) {
+            file = buffer.file();
+            filePointer = buffer.filePointer();
+            length = (int) buffer.capacity();
+            this.headSize = headSize;
+            this.tailStart = tailStart;
+            this.ringSize = ringSize;
+            encoding = format.getEncoding();
+            sampleSizeInBits = format.getSampleSizeInBits();
+            channels = format.getChannels();
+            frameSize = format.getFrameSize();
+            frameRate = format.getFrameRate();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return file.equals(k.file) && filePointer == k.filePointer
+                    && length == k.length && headSize == k.headSize
+                    && tailStart == k.tailStart && ringSize == k.ringSize
+                    && encoding == k.encoding
+                    && sampleSizeInBits == k.sampleSizeInBits
+                    && channels == k.channels && frameSize == k.frameSize
+                    && Float.compare(frameRate, k.frameRate) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = file.hashCode();
+            h = 31 * h + Long.hashCode(filePointer);
+            h = 31 * h + length;
+            h = 31 * h + tailStart;
+            return 31 * h + headSize;
+        }
+    }
+
+    // A shared sample, removed from shared once it is collected
+    private static final class Shared extends WeakReference<StreamedSample> {
+
+        final Key key;
+
+        Shared(StreamedSample sample, Key key) {
+            super(sample, released);
+            this.key = key;
+        }
+    }
+
+    // Frames kept in memory before the loop start, the resampler marks
+    // the stream up to two sectors before it
+    private static final int LOOP_MARGIN = 1024;
+    // Fewer bytes than this between head and loop are not streamed
+    private static final int MIN_STREAMED_SIZE = 16384;
+    private static final int MIN_RING_SIZE = 65536;
+
+    private static final ReferenceQueue<StreamedSample> released = new ReferenceQueue<>();
+    // Guarded by the class
+    private static final Map<Key, Shared> shared = new HashMap<>();
+
+    private final AudioFormat format;
+    private final FileChannel channel;
+    private final long filePointer;
+    private final int length;
+    private final byte[] head;
+    private final byte[] tail;
+    private final int tailStart;
+    private final int ringSize;
+    private final double bytesPerNano;
+
+    private StreamedSample(ModelByteBuffer buffer, AudioFormat format, int headSize, int tailStart, int ringSize) throws IOException {
+        this.format = format;
+        this.channel = SampleStreamer.channel(buffer.file(), this);
+        this.filePointer = buffer.filePointer();
+        this.length = (int) buffer.capacity();
+        this.tailStart = tailStart;
+        this.ringSize = ringSize;
+        bytesPerNano = format.getFrameRate() * format.getFrameSize() / 1e9;
+        head = new byte[headSize];
+        readFile(head, 0, headSize, 0);
+        tail = new byte[length - tailStart];
+        readFile(tail, 0, tail.length, tailStart);
+    }
+
+    /*
+     * Returns null when the sample is better played from the buffer,
+     * because streaming is off, it isn't mapped from a file, it is too
+     * short or its head and loop can't be read.
+     */
+    static synchronized StreamedSample create(ModelByteBuffer buffer, AudioFormat format, float loopStart, int loopType) {
+        int headMillis = SampleStreamer.getHeadMillis();
+        if (headMillis == 0 || !buffer.isMapped() || buffer.capacity() > Integer.MAX_VALUE
+                || AudioFloatConverter.getConverter(format) == null)
+            return null;
+        int framesize = format.getFrameSize();
+        int length = (int) (buffer.capacity() - buffer.capacity() % framesize);
+        int headSize = Math.min((int) (format.getFrameRate() * headMillis / 1000) * framesize, length);
+        int tailStart = length;
+        if (loopType != ModelByteBufferWavetable.LOOP_TYPE_OFF)
+            tailStart = Math.max(Math.min(((int) loopStart - LOOP_MARGIN) * framesize, length), headSize);
+        if (tailStart - headSize < MIN_STREAMED_SIZE)
+            return null;
+        int ringSize = Math.max(headSize * 4, MIN_RING_SIZE);
+        ringSize = Math.min(ringSize - ringSize % framesize, tailStart - headSize);
+        buffer = buffer.subbuffer(0, length, true);
+
+        Reference<? extends StreamedSample> ref;
+        while ((ref = released.poll()) != null) {
+            Shared s = (Shared) ref;
+            shared.remove(s.key, s);
+        }
+        Key key = new Key(buffer, format, headSize, tailStart, ringSize);
+        Shared s = shared.get(key);
+        StreamedSample sample = s == null ? null : s.get();
+        if (sample != null)
+            return sample;
+        try {
+            sample = new StreamedSample(buffer, format, headSize, tailStart, ringSize);
+        } catch (IOException e) {
+            // The wavetable plays from its buffer instead
+            return null;
+        }
+        shared.put(key, new Shared(sample, key));
+        return sample;
+    }
+
+    AudioFormat getFormat() {
+        return format;
+    }
+
+    // previous is a stream no longer used, its ring buffer may be reused
+    AudioFloatInputStream openStream(AudioFloatInputStream previous) {
+        byte[] ring = null;
+        if (previous instanceof Reader)
+            ring = ((Reader) previous).release(ringSize);
+        return new Reader(ring == null ? new byte[ringSize] : ring);
+    }
+
+    // Reads bytes [pos, pos + len) of the sample from the file
+    private void readFile(byte[] b, int off, int len, long pos) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+        while (bb.hasRemaining()) {
+            if (channel.read(bb, filePointer + pos + bb.position() - off) < 0)
+                throw new IOException("Unexpected end of soundbank file");
+        }
+    }
+
+    /*
+     * A stream over the sample. The bytes from head.length to tailStart
+     * come from the ring, which holds [readPos, written). The render
+     * thread advances readPos and SampleStreamer advances written, a
+     * reset of the stream restarts the ring at the new position.
+     */
+    final class Reader extends AudioFloatInputStream {
+
+        private final AudioFloatConverter converter = AudioFloatConverter.getConverter(format);
+        private final int framesize_pc = format.getFrameSize() / format.getChannels();
+        private final byte[] ring;
+        private int pos = 0;
+        private int markpos = 0;
+        private volatile int readPos = head.length;
+        private volatile int written = head.length;
+        // Guarded by this
+        private int generation = 0;
+        private boolean busy = false;
+        private boolean closed = false;
+        // Set while the reader waits in SampleStreamer
+        private volatile boolean queued = false;
+        // Bytes played per nanosecond at the current pitch
+        private volatile double rate = bytesPerNano;
+        long deadline;
+
+        Reader(byte[] ring) {
+            this.ring = ring;
+            requestFill();
+        }
+
+        public AudioFormat getFormat() {
+            return format;
+        }
+
+        public int read(float[] b, int off, int len) {
+            if (pos >= length)
+                return -1;
+            int n = Math.min(len, (length - pos) / framesize_pc);
+            int done = 0;
+            while (done < n) {
+                int count;
+                if (pos < head.length) {
+                    count = Math.min(n - done, (head.length - pos) / framesize_pc);
+                    converter.toFloatArray(head, pos, b, off + done, count);
+                } else if (pos >= tailStart) {
+                    count = n - done;
+                    converter.toFloatArray(tail, pos - tailStart, b, off + done, count);
+                } else {
+                    count = readRing(b, off + done, Math.min(n - done, (tailStart - pos) / framesize_pc));
+                }
+                pos += count * framesize_pc;
+                done += count;
+            }
+            moved();
+            return n;
+        }
+
+        // Plays silence when the data isn't there yet, the render thread
+        // never waits for the disk
+        private int readRing(float[] b, int off, int count) {
+            int avail = (written - pos) / framesize_pc;
+            if (avail <= 0) {
+                Arrays.fill(b, off, off + count, 0f);
+                SampleStreamer.underrun();
+                return count;
+            }
+            count = Math.min(count, avail);
+            int index = (pos - head.length) % ringSize;
+            int first = Math.min(count, (ringSize - index) / framesize_pc);
+            converter.toFloatArray(ring, index, b, off, first);
+            if (first < count)
+                converter.toFloatArray(ring, 0, b, off + first, count - first);
+            return count;
+        }
+
+        public void setReadRate(double rate) {
+            if (rate > 0)
+                this.rate = bytesPerNano * rate;
+        }
+
+        public void skip(long len) {
+            if (len <= 0 || pos >= length)
+                return;
+            pos = (int) Math.min(pos + len * framesize_pc, length);
+            moved();
+        }
+
+        public void mark(int readlimit) {
+            markpos = pos;
+        }
+
+        public void reset() {
+            pos = markpos;
+            if (pos < tailStart) {
+                synchronized (this) {
+                    generation++;
+                    readPos = Math.max(pos, head.length);
+                    written = readPos;
+                }
+            }
+            moved();
+        }
+
+        public void close() {
+            synchronized (this) {
+                closed = true;
+            }
+        }
+
+        // Closes the reader, returns its ring when it has size and no
+        // read is in progress
+        private synchronized byte[] release(int size) {
+            closed = true;
+            return busy || ring.length != size ? null : ring;
+        }
+
+        private void moved() {
+            if (pos > readPos && readPos < tailStart)
+                readPos = Math.min(pos, tailStart);
+            requestFill();
+        }
+
+        private void requestFill() {
+            int filled = written;
+            if (queued || filled >= tailStart || filled - readPos > ringSize / 2)
+                return;
+            deadline = System.nanoTime() + (long) (Math.max(filled - pos, 0) / rate);
+            queued = true;
+            SampleStreamer.request(this);
+        }
+
+        /*
+         * Called by SampleStreamer, reads up to chunk bytes ahead. Returns
+         * true when more should be read, deadline is then updated.
+         */
+        boolean fill(int chunk) throws IOException {
+            int gen;
+            int start;
+            int end;
+            synchronized (this) {
+                int from = readPos;
+                start = Math.max(written, from);
+                end = Math.min(Math.min(tailStart, from + ringSize), start + chunk);
+                if (closed || start >= end) {
+                    queued = false;
+                    return false;
+                }
+                gen = generation;
+                busy = true;
+            }
+            try {
+                int index = (start - head.length) % ringSize;
+                int first = Math.min(end - start, ringSize - index);
+                readFile(ring, index, first, start);
+                if (first < end - start)
+                    readFile(ring, 0, end - start - first, start + first);
+            } finally {
+                synchronized (this) {
+                    busy = false;
+                    if (gen == generation)
+                        written = end;
+                }
+            }
+            synchronized (this) {
+                int from = readPos;
+                if (closed || written >= Math.min(tailStart, from + ringSize)) {
+                    queued = false;
+                    return false;
+                }
+                deadline = System.nanoTime() + (long) ((written - from) / rate);
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.soundbanks;
+
+import gervill.com.sun.media.sound.AudioFloatConverter;
+import gervill.com.sun.media.sound.SoftImpulseResponse;
+import gervill.javax.sound.sampled.AudioFormat;
+import gervill.javax.sound.sampled.AudioFormat.Encoding;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads impulse responses for the convolution reverb from RIFF WAVE files.
+ * Integer PCM of 8 to 32 bits and 32 or 64 bit float data are supported,
+ * also when stored in the extensible format.
+ */
+public final class WaveFileParser {
+
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    public static SoftImpulseResponse parseImpulseResponse(URL url) throws IOException {
+        try (InputStream is = url.openStream()) {
+            return parseImpulseResponse(is);
+        }
+    }
+
+    public static SoftImpulseResponse parseImpulseResponse(File file) throws IOException {
+        return parseImpulseResponse(RIFFReader.read(file));
+    }
+
+    public static SoftImpulseResponse parseImpulseResponse(InputStream inputstream) throws IOException {
+        return parseImpulseResponse(RIFFReader.read(inputstream));
+    }
+
+    private static SoftImpulseResponse parseImpulseResponse(ByteBuffer buffer) throws IOException {
+        RIFFReader riff = new RIFFReader(buffer);
+        if (!riff.getFormat().equals("RIFF")) {
+            throw new RuntimeException("Input stream is not a valid RIFF stream!");
+        }
+        if (!riff.getType().equals("WAVE")) {
+            throw new RuntimeException("Input stream is not a valid WAVE file!");
+        }
+
+        AudioFormat format = null;
+        byte[] data = null;
+        while (riff.hasNextChunk()) {
+            RIFFReader chunk = riff.nextChunk();
+            if (chunk.getFormat().equals("fmt ")) {
+                format = readFmtChunk(chunk);
+            } else if (chunk.getFormat().equals("data")) {
+                data = new byte[chunk.available()];
+                chunk.readFully(data);
+            }
+        }
+        if (format == null || data == null)
+            throw new RuntimeException("WAVE file has no fmt or data chunk!");
+
+        AudioFloatConverter converter = AudioFloatConverter.getConverter(format);
+        if (converter == null)
+            throw new RuntimeException("Unsupported sample format: " + format);
+        int channels = format.getChannels();
+        if (channels != 1 && channels != 2)
+            throw new RuntimeException("Only mono and stereo impulse responses are supported!");
+        int frames = data.length / format.getFrameSize();
+        float[] interleaved = new float[frames * channels];
+        converter.toFloatArray(data, interleaved, 0, interleaved.length);
+
+        float[][] samples = new float[channels][frames];
+        for (int i = 0; i < frames; i++)
+            for (int c = 0; c < channels; c++)
+                samples[c][i] = interleaved[i * channels + c];
+        return new SoftImpulseResponse(samples, format.getSampleRate());
+    }
+
+    private static AudioFormat readFmtChunk(RIFFReader chunk) throws IOException {
+        int sampleformat = chunk.readUnsignedShort();
+        int channels = chunk.readUnsignedShort();
+        long samplerate = chunk.readUnsignedInt();
+        // bytes per sec
+        chunk.readUnsignedInt();
+        // block align, framesize
+        int framesize = chunk.readUnsignedShort();
+        int bits = chunk.readUnsignedShort();
+        if (sampleformat == WAVE_FORMAT_EXTENSIBLE) {
+            // cbSize, valid bits per sample, channel mask and the first
+            // two bytes of the sub format GUID, which hold the format tag
+            chunk.readUnsignedShort();
+            chunk.readUnsignedShort();
+            chunk.readUnsignedInt();
+            sampleformat = chunk.readUnsignedShort();
+        }
+        if (sampleformat == WAVE_FORMAT_PCM) {
+            return new AudioFormat(bits == 8 ? Encoding.PCM_UNSIGNED : Encoding.PCM_SIGNED,
+                    samplerate, bits, channels, framesize, samplerate);
+        }
+        if (sampleformat == WAVE_FORMAT_IEEE_FLOAT) {
+            return new AudioFormat(Encoding.PCM_FLOAT,
+                    samplerate, bits, channels, framesize, samplerate);
+        }
+        throw new RuntimeException("Only PCM and float WAVE files are supported!");
+    }
+}
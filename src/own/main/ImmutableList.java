@@ -63,28 +63,6 @@ public class ImmutableList<T> implements Iterable<T> {
         return new ImmutableList<>(myList);
     }
 
-    public static ImmutableList<Byte> create(byte[] arr) {
-        List<Byte> myList = new ArrayList<>(arr.length);
-        for (byte theByte : arr) {
-            myList.add(theByte);
-        }
-        return new ImmutableList<>(myList);
-    }
-
-    public static byte[] toArray(ImmutableList<Byte> bytes) {
-        byte[] arr = new byte[bytes.length];
-        for (int i = 0; i < bytes.length; i++) {
-            arr[i] = bytes.get(i);
-        }
-        return arr;
-    }
-
-    public static void copy(ImmutableList<Byte> src, int srcPos, byte[] dest, int destPos, int length) {
-        for (int i = 0; i < length; i++) {
-            dest[destPos + i] = src.get(srcPos + i);
-        }
-    }
-
     public ImmutableList<T> append(T elem) {
         List<T> copy = new ArrayList<>(myList);
         copy.add(elem);
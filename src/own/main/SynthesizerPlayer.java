@@ -1,17 +1,26 @@
 package own.main;
 
+import gervill.com.sun.media.sound.SoftEngineConfig;
+import gervill.com.sun.media.sound.SoftImpulseResponse;
 import gervill.com.sun.media.sound.SoftSynthesizer;
 import gervill.javax.sound.midi.Instrument;
 import gervill.javax.sound.midi.MidiChannel;
 import gervill.javax.sound.midi.Patch;
+import gervill.javax.sound.sampled.AudioFormat;
+import gervill.javax.sound.sampled.AudioInputStream;
 import gervill.soundbanks.DLSSoundbankParser;
+import gervill.soundbanks.FFT;
+import gervill.soundbanks.ModelByteBufferWavetable;
 import gervill.soundbanks.SF2SoundbankParser;
+import gervill.soundbanks.SoundbankSnapshot;
+import gervill.soundbanks.WaveFileParser;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.text.MessageFormat;
+import java.util.Collections;
 
 public class SynthesizerPlayer {
 
@@ -191,6 +200,20 @@ public class SynthesizerPlayer {
             channel.setPolyPressure(15, 40);
             channel.setSolo(true);
 
+            long frame = synthesizer.getFramePosition();
+            channel.noteOn(15, 30, frame + 100);
+            channel.noteOff(15, 30, frame + 200);
+            channel.controlChange(89, 2, frame + 300);
+            channel.setPitchBend(30, frame + 400);
+
+            // Queued channel events, applied by the render thread
+            MidiChannel queued = synthesizer.getQueuedChannels()[0];
+            queued.noteOn(15, 30);
+            queued.controlChange(89, 2);
+            queued.instrumentChange(instrument);
+            System.out.println(synthesizer.getDroppedEventCount());
+            System.out.println(synthesizer.getFailedEventCount() + " " + synthesizer.getLastEventFailure());
+
             // Instrument
             System.out.println(instrument.getName());
             System.out.println(instrument.getPatch().getBank());
@@ -200,6 +223,14 @@ public class SynthesizerPlayer {
                 System.out.println(instrument.getName());
             }
 
+            // Sample cache
+            ModelByteBufferWavetable.setSampleCacheBudget(64 << 20);
+            ModelByteBufferWavetable.dropCachedSamples(soundbankInstruments);
+
+            // Streamed samples
+            ModelByteBufferWavetable.setStreamingHead(250);
+            System.out.println(ModelByteBufferWavetable.getStreamingUnderruns());
+
             // Synthesizer
             System.out.println(synthesizer.loadInstrument(instrument));
             synthesizer.unloadInstrument(instrument);
@@ -214,10 +245,16 @@ public class SynthesizerPlayer {
 
                     soundbankInstruments = SF2SoundbankParser.parseSoundbank(fis);
                     soundbankInstruments = SF2SoundbankParser.parseSoundbank(file);
+                    soundbankInstruments = SF2SoundbankParser.parseSoundbank(file, true);
+                    soundbankInstruments = SF2SoundbankParser.parseSoundbank(file, false, Collections.singleton(new Patch(0, 0)));
+                    soundbankInstruments = SF2SoundbankParser.parseSoundbank(file, true, (name, patch) -> patch.isPercussion());
                     soundbankInstruments = SF2SoundbankParser.parseSoundbank(url);
 
                     soundbankInstruments = DLSSoundbankParser.parseSoundbank(fis);
                     soundbankInstruments = DLSSoundbankParser.parseSoundbank(file);
+                    soundbankInstruments = DLSSoundbankParser.parseSoundbank(file, true);
+                    soundbankInstruments = DLSSoundbankParser.parseSoundbank(file, false, Collections.singleton(new Patch(0, 0)));
+                    soundbankInstruments = DLSSoundbankParser.parseSoundbank(file, true, (name, patch) -> name.startsWith("Piano"));
                     soundbankInstruments = DLSSoundbankParser.parseSoundbank(url);
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -225,6 +262,54 @@ public class SynthesizerPlayer {
             }
 
             synthesizer.close();
+
+            // Offline rendering
+            try {
+                AudioInputStream stream = synthesizer.openStream();
+                byte[] buffer = new byte[1200];
+                System.out.println(stream.read(buffer, buffer.length));
+                stream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            // Engine configuration: 48 kHz float output in 64 frame blocks
+            synthesizer.open(new SoftEngineConfig(new AudioFormat(AudioFormat.Encoding.PCM_FLOAT,
+                    48000, 32, 2, 8, 48000), 64));
+            synthesizer.close();
+
+            // Voices rendered on four threads, up to 512 voices
+            synthesizer.open(new SoftEngineConfig(new AudioFormat(44100, 16, 2, true), 300, 4, 512));
+            System.out.println(synthesizer.getMaxPolyphony());
+            synthesizer.close();
+
+            // Real and batched transforms
+            FFT fft = new FFT(512, -1);
+            fft.transformReal(new double[1024]);
+            fft.transform(new double[4][1024]);
+
+            // Convolution reverb from a WAV impulse response, on its own thread
+            try {
+                SoftImpulseResponse ir = WaveFileParser.parseImpulseResponse(new File("hall.wav"));
+                ir = WaveFileParser.parseImpulseResponse(new URL("https://google.com"));
+                ir = WaveFileParser.parseImpulseResponse(new FileInputStream("hall.wav"));
+                System.out.println(ir.getChannels() + " " + ir.getLength() + " " + ir.getSampleRate());
+                SoftEngineConfig config = new SoftEngineConfig(new AudioFormat(44100, 16, 2, true),
+                        300, 1, 64, ir, true);
+                System.out.println(config.getImpulseResponse() + " " + config.isReverbThread());
+                synthesizer.open(config);
+                synthesizer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            // Parsed soundbank kept in a snapshot for faster restarts
+            try {
+                soundbankInstruments = SoundbankSnapshot.load(new File("gm.sf2"), new File("gm.sf2.snapshot"));
+                System.out.println(soundbankInstruments.get(0).getPatch().isPercussion());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 }
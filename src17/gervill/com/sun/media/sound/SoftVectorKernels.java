@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.com.sun.media.sound;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API versions of the SoftAudioKernels kernels, for Java 17 and
+ * later with {@code --add-modules jdk.incubator.vector}. Each lane does
+ * the same float operations in the same order as the scalar loops, and
+ * the remaining samples of a block go through the scalar loops, so the
+ * output is bit for bit identical.
+ */
+final class SoftVectorKernels implements SoftAudioKernels.Vectorized {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    public void mixSends(float[] in,
+                         float[] out1, float a1, float[] out2, float a2,
+                         float[] out3, float a3, float[] out4, float a4,
+                         int off, int len) {
+        int end = off + len;
+        int i = off;
+        for (int vend = off + SPECIES.loopBound(len); i < vend; i += SPECIES.length()) {
+            FloatVector v = FloatVector.fromArray(SPECIES, in, i);
+            FloatVector.fromArray(SPECIES, out1, i).add(v.mul(a1)).intoArray(out1, i);
+            FloatVector.fromArray(SPECIES, out2, i).add(v.mul(a2)).intoArray(out2, i);
+            FloatVector.fromArray(SPECIES, out3, i).add(v.mul(a3)).intoArray(out3, i);
+            FloatVector.fromArray(SPECIES, out4, i).add(v.mul(a4)).intoArray(out4, i);
+        }
+        for (; i < end; i++) {
+            float v = in[i];
+            out1[i] += v * a1;
+            out2[i] += v * a2;
+            out3[i] += v * a3;
+            out4[i] += v * a4;
+        }
+    }
+
+    public void mixSendsStereo(float[] inL, float[] inR,
+                               float[] out1, float a1, float[] out2, float a2,
+                               float[] out3, float a3, float[] out4, float a4,
+                               int off, int len) {
+        int end = off + len;
+        int i = off;
+        for (int vend = off + SPECIES.loopBound(len); i < vend; i += SPECIES.length()) {
+            FloatVector l = FloatVector.fromArray(SPECIES, inL, i);
+            FloatVector r = FloatVector.fromArray(SPECIES, inR, i);
+            FloatVector.fromArray(SPECIES, out1, i).add(l.mul(a1)).intoArray(out1, i);
+            FloatVector.fromArray(SPECIES, out2, i).add(r.mul(a2)).intoArray(out2, i);
+            FloatVector.fromArray(SPECIES, out3, i).add(l.mul(a3)).add(r.mul(a3))
+                    .intoArray(out3, i);
+            FloatVector.fromArray(SPECIES, out4, i).add(l.mul(a4)).add(r.mul(a4))
+                    .intoArray(out4, i);
+        }
+        for (; i < end; i++) {
+            float l = inL[i];
+            float r = inR[i];
+            out1[i] += l * a1;
+            out2[i] += r * a2;
+            out3[i] = out3[i] + l * a3 + r * a3;
+            out4[i] = out4[i] + l * a4 + r * a4;
+        }
+    }
+
+    public void addTo2(float[] b, float[] a, float[] c, int len) {
+        int i = 0;
+        for (int vend = SPECIES.loopBound(len); i < vend; i += SPECIES.length()) {
+            FloatVector v = FloatVector.fromArray(SPECIES, b, i);
+            FloatVector.fromArray(SPECIES, a, i).add(v).intoArray(a, i);
+            FloatVector.fromArray(SPECIES, c, i).add(v).intoArray(c, i);
+        }
+        for (; i < len; i++) {
+            float v = b[i];
+            a[i] += v;
+            c[i] += v;
+        }
+    }
+
+    public void scale(float[] buf, float amp, int len) {
+        int i = 0;
+        for (int vend = SPECIES.loopBound(len); i < vend; i += SPECIES.length())
+            FloatVector.fromArray(SPECIES, buf, i).mul(amp).intoArray(buf, i);
+        for (; i < len; i++)
+            buf[i] *= amp;
+    }
+
+    /*
+     * Lanes only take a larger value, as the scalar comparison does, so
+     * NaN samples are ignored and every lane stays a non-negative number.
+     */
+    public float peak(float[] a, float[] b, int len) {
+        FloatVector m = FloatVector.zero(SPECIES);
+        int i = 0;
+        for (int vend = SPECIES.loopBound(len); i < vend; i += SPECIES.length()) {
+            FloatVector x = FloatVector.fromArray(SPECIES, a, i).abs();
+            m = m.blend(x, x.compare(VectorOperators.GT, m));
+            FloatVector y = FloatVector.fromArray(SPECIES, b, i).abs();
+            m = m.blend(y, y.compare(VectorOperators.GT, m));
+        }
+        float m0 = m.reduceLanes(VectorOperators.MAX);
+        for (; i < len; i++)
+            m0 = SoftAudioKernels.max(m0, Math.abs(a[i]), Math.abs(b[i]));
+        return m0;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.com.sun.media.sound;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Runs every SoftAudioKernels kernel in the scalar, unrolled and, when it
+ * can be loaded, vector mode over the same random blocks, and checks that
+ * the results are bit for bit identical. The blocks cover every length up
+ * to a few vectors, offsets, and samples that are zero, negative zero,
+ * subnormal, infinite or NaN. The send mixes with fewer outputs are
+ * checked against the four output mixes with the other outputs sent to
+ * scratch. Exits with an AssertionError on the first difference.
+ */
+public final class SoftAudioKernelsCheck {
+
+    private static final int MAX_LEN = 200;
+    private static final int ROUNDS = 20;
+
+    private final Random random = new Random(1);
+    private final int[] modes;
+    private int checked = 0;
+
+    private SoftAudioKernelsCheck(int[] modes) {
+        this.modes = modes;
+    }
+
+    public static void main(String[] args) {
+        int[] modes = SoftAudioKernels.VECTORIZED != null
+                ? new int[]{SoftAudioKernels.SCALAR, SoftAudioKernels.UNROLLED,
+                SoftAudioKernels.VECTOR}
+                : new int[]{SoftAudioKernels.SCALAR, SoftAudioKernels.UNROLLED};
+        SoftAudioKernelsCheck check = new SoftAudioKernelsCheck(modes);
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int len = 0; len <= MAX_LEN; len++) {
+                check.mixSends(len, round % 2 == 0);
+                check.mixSendsStereo(len, round % 2 == 0);
+                check.fewerSends(len, round % 2 == 0);
+                check.addTo2(len);
+                check.scale(len);
+                check.peak(len);
+                check.toFloat16SL(len);
+                check.toByte16SL(len);
+            }
+        }
+        System.out.println("SoftAudioKernels: " + check.checked + " blocks identical in "
+                + (modes.length == 3 ? "scalar, unrolled and vector" : "scalar and unrolled")
+                + " mode and with fewer sends");
+    }
+
+    private float sample() {
+        switch (random.nextInt(40)) {
+            case 0:
+                return 0f;
+            case 1:
+                return -0f;
+            case 2:
+                return Float.MIN_VALUE * random.nextInt(1000);
+            case 3:
+                return Float.POSITIVE_INFINITY;
+            case 4:
+                return Float.NEGATIVE_INFINITY;
+            case 5:
+                return Float.NaN;
+            case 6:
+                return random.nextFloat() * 4 - 2;
+            default:
+                return random.nextFloat() * 2 - 1;
+        }
+    }
+
+    private float[] block(int len) {
+        float[] a = new float[len];
+        for (int i = 0; i < len; i++)
+            a[i] = sample();
+        return a;
+    }
+
+    private float gain() {
+        return random.nextFloat() * 2 - 0.5f;
+    }
+
+    private float[][] copies(float[] a) {
+        float[][] c = new float[modes.length][];
+        for (int m = 0; m < modes.length; m++)
+            c[m] = a.clone();
+        return c;
+    }
+
+    private void mixSends(int len, boolean ramp) {
+        int off = len == 0 ? 0 : random.nextInt(8);
+        float[] in = block(off + len);
+        float[][][] out = new float[4][][];
+        for (int k = 0; k < 4; k++)
+            out[k] = copies(block(off + len));
+        float[] a = {gain(), gain(), gain(), gain()};
+        float[] d = new float[4];
+        if (ramp)
+            for (int k = 0; k < 4; k++)
+                d[k] = (gain() - a[k]) / Math.max(len, 1);
+        for (int m = 0; m < modes.length; m++)
+            SoftAudioKernels.mixSends(in,
+                    out[0][m], a[0], d[0], out[1][m], a[1], d[1],
+                    out[2][m], a[2], d[2], out[3][m], a[3], d[3],
+                    off, len, modes[m]);
+        for (int k = 0; k < 4; k++)
+            same("mixSends", len, out[k]);
+    }
+
+    private void mixSendsStereo(int len, boolean ramp) {
+        int off = len == 0 ? 0 : random.nextInt(8);
+        float[] inL = block(off + len);
+        float[] inR = block(off + len);
+        float[][][] out = new float[4][][];
+        for (int k = 0; k < 4; k++)
+            out[k] = copies(block(off + len));
+        float[] a = {gain(), gain(), gain(), gain()};
+        float[] d = new float[4];
+        if (ramp)
+            for (int k = 0; k < 4; k++)
+                d[k] = (gain() - a[k]) / Math.max(len, 1);
+        for (int m = 0; m < modes.length; m++)
+            SoftAudioKernels.mixSendsStereo(inL, inR,
+                    out[0][m], a[0], d[0], out[1][m], a[1], d[1],
+                    out[2][m], a[2], d[2], out[3][m], a[3], d[3],
+                    off, len, modes[m]);
+        for (int k = 0; k < 4; k++)
+            same("mixSendsStereo", len, out[k]);
+    }
+
+    private void fewerSends(int len, boolean ramp) {
+        int off = len == 0 ? 0 : random.nextInt(8);
+        float[] inL = block(off + len);
+        float[] inR = block(off + len);
+        float[][] out = new float[4][];
+        for (int k = 0; k < 4; k++)
+            out[k] = block(off + len);
+        float[] a = {gain(), gain(), gain(), gain()};
+        float[] d = new float[4];
+        if (ramp)
+            for (int k = 0; k < 4; k++)
+                d[k] = (gain() - a[k]) / Math.max(len, 1);
+
+        for (int n = 1; n <= 3; n++) {
+            float[][] expected = sends(out, n, len, off);
+            float[][] actual = sends(out, n, len, off);
+            SoftAudioKernels.mixSends(inL,
+                    expected[0], a[0], d[0], expected[1], a[1], d[1],
+                    expected[2], a[2], d[2], expected[3], a[3], d[3], off, len);
+            if (n == 1)
+                SoftAudioKernels.mixSends1(inL, actual[0], a[0], d[0], off, len);
+            else if (n == 2)
+                SoftAudioKernels.mixSends2(inL, actual[0], a[0], d[0],
+                        actual[1], a[1], d[1], off, len);
+            else
+                SoftAudioKernels.mixSends3(inL, actual[0], a[0], d[0],
+                        actual[1], a[1], d[1], actual[2], a[2], d[2], off, len);
+            sameSends("mixSends" + n, len, n, expected, actual);
+        }
+
+        for (int n = 2; n <= 3; n++) {
+            float[][] expected = sends(out, n, len, off);
+            float[][] actual = sends(out, n, len, off);
+            SoftAudioKernels.mixSendsStereo(inL, inR,
+                    expected[0], a[0], d[0], expected[1], a[1], d[1],
+                    expected[2], a[2], d[2], expected[3], a[3], d[3], off, len);
+            if (n == 2)
+                SoftAudioKernels.mixSendsStereo2(inL, inR, actual[0], a[0], d[0],
+                        actual[1], a[1], d[1], off, len);
+            else
+                SoftAudioKernels.mixSendsStereo3(inL, inR, actual[0], a[0], d[0],
+                        actual[1], a[1], d[1], actual[2], a[2], d[2], off, len);
+            sameSends("mixSendsStereo" + n, len, n, expected, actual);
+        }
+
+        // An effect send of a stereo source is the third output
+        float[][] expected = sends(out, 0, len, off);
+        float[][] actual = sends(out, 0, len, off);
+        expected[2] = out[2].clone();
+        actual[0] = out[2].clone();
+        SoftAudioKernels.mixSendsStereo(inL, inR,
+                expected[0], a[0], d[0], expected[1], a[1], d[1],
+                expected[2], a[2], d[2], expected[3], a[3], d[3], off, len);
+        SoftAudioKernels.mixSendsSum(inL, inR, actual[0], a[2], d[2], off, len);
+        expected[0] = expected[2];
+        sameSends("mixSendsSum", len, 1, expected, actual);
+    }
+
+    // Copies of the first n outputs followed by scratch outputs
+    private static float[][] sends(float[][] out, int n, int len, int off) {
+        float[][] s = new float[4][];
+        for (int k = 0; k < 4; k++)
+            s[k] = k < n ? out[k].clone() : new float[off + len];
+        return s;
+    }
+
+    // Compares the first n outputs of two send mixes, as bits
+    private void sameSends(String kernel, int len, int n,
+                           float[][] expected, float[][] actual) {
+        for (int k = 0; k < n; k++)
+            for (int i = 0; i < expected[k].length; i++)
+                if (Float.floatToIntBits(expected[k][i])
+                        != Float.floatToIntBits(actual[k][i]))
+                    throw new AssertionError(kernel + " differs from the four send"
+                            + " mix for " + len + " samples at " + i + " of output "
+                            + k + ": " + expected[k][i] + " != " + actual[k][i]);
+        checked++;
+    }
+
+    private void addTo2(int len) {
+        float[] b = block(len);
+        float[][] a = copies(block(len));
+        float[][] c = copies(block(len));
+        for (int m = 0; m < modes.length; m++)
+            SoftAudioKernels.addTo2(b, a[m], c[m], len, modes[m]);
+        same("addTo2", len, a);
+        same("addTo2", len, c);
+    }
+
+    private void scale(int len) {
+        float amp = gain();
+        float[][] buf = copies(block(len));
+        for (int m = 0; m < modes.length; m++)
+            SoftAudioKernels.scale(buf[m], amp, len, modes[m]);
+        same("scale", len, buf);
+    }
+
+    private void peak(int len) {
+        float[] a = block(len);
+        float[] b = block(len);
+        // Infinite samples would hide every other maximum
+        for (int i = 0; i < len; i++) {
+            if (Float.isInfinite(a[i]))
+                a[i] = random.nextFloat();
+            if (Float.isInfinite(b[i]))
+                b[i] = -random.nextFloat();
+        }
+        float[][] max = new float[modes.length][1];
+        for (int m = 0; m < modes.length; m++)
+            max[m][0] = SoftAudioKernels.peak(a, b, len, modes[m]);
+        same("peak", len, max);
+    }
+
+    private void toFloat16SL(int len) {
+        int ix = random.nextInt(8);
+        byte[] in = new byte[ix + len * 2];
+        random.nextBytes(in);
+        int ox = random.nextInt(8);
+        float[][] out = copies(block(ox + len));
+        for (int m = 0; m < modes.length; m++)
+            SoftAudioKernels.toFloat16SL(in, ix, out[m], ox, len, modes[m]);
+        same("toFloat16SL", len, out);
+    }
+
+    private void toByte16SL(int len) {
+        int ix = random.nextInt(8);
+        float[] in = block(ix + len);
+        int ox = random.nextInt(8);
+        byte[][] out = new byte[modes.length][ox + len * 2];
+        for (int m = 0; m < modes.length; m++)
+            SoftAudioKernels.toByte16SL(in, ix, len, out[m], ox, modes[m]);
+        for (int m = 1; m < modes.length; m++)
+            if (!Arrays.equals(out[0], out[m]))
+                throw new AssertionError("toByte16SL differs in mode " + modes[m]
+                        + " for " + len + " samples");
+        checked++;
+    }
+
+    // Compares the results of every mode with the scalar mode, as bits
+    private void same(String kernel, int len, float[][] results) {
+        float[] expected = results[0];
+        for (int m = 1; m < modes.length; m++) {
+            float[] actual = results[m];
+            for (int i = 0; i < expected.length; i++)
+                if (Float.floatToIntBits(expected[i]) != Float.floatToIntBits(actual[i]))
+                    throw new AssertionError(kernel + " differs in mode " + modes[m]
+                            + " for " + len + " samples at " + i + ": "
+                            + expected[i] + " != " + actual[i]);
+        }
+        checked++;
+    }
+}
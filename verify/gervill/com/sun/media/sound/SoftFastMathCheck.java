@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2007, 2013, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package gervill.com.sun.media.sound;
+
+import java.util.Random;
+
+/**
+ * Checks SoftFastMath against Math: arguments just below zero, where the
+ * exp2 table position rounds up to its last entry, and sweeps over the
+ * control ranges asserting the documented error bounds. Exits with an
+ * AssertionError on the first argument out of bounds.
+ */
+public final class SoftFastMathCheck {
+
+    private static final int SAMPLES = 1000000;
+
+    private final Random random = new Random(1);
+    private double worstExp2 = 0;
+    private double worstSin = 0;
+    private double worstLog = 0;
+
+    public static void main(String[] args) {
+        SoftFastMathCheck check = new SoftFastMathCheck();
+        check.tinyNegative();
+        check.sweep();
+        System.out.println("SoftFastMath: worst exp2 relative error " + check.worstExp2
+                + ", sin " + check.worstSin + ", log " + check.worstLog);
+    }
+
+    private void tinyNegative() {
+        double[] xs = {-1e-20, -1.2e-17, -Double.MIN_VALUE, -1e-300,
+                -1 - 1e-16, -2 - 4e-16, -11 - 2e-15};
+        for (double x : xs) {
+            exp2(x);
+            // Cents and centibels just below zero reach exp2 the same way
+            relative("centsToRatio", x, SoftFastMath.centsToRatio(x),
+                    Math.pow(2, x / 1200.0));
+            relative("centibelsToGain", x, SoftFastMath.centibelsToGain(x),
+                    Math.pow(10, x / 200.0));
+        }
+    }
+
+    private void sweep() {
+        for (int n = 0; n < SAMPLES; n++) {
+            exp2(random.nextDouble() * 200 - 100);
+            exp2(random.nextInt(40) - 20 + (random.nextBoolean() ? 1e-15 : -1e-15));
+            double cents = random.nextDouble() * 24000 - 12000;
+            relative("centsToRatio", cents, SoftFastMath.centsToRatio(cents),
+                    Math.pow(2, cents / 1200.0));
+            double centibels = random.nextDouble() * 1440 - 960;
+            relative("centibelsToGain", centibels, SoftFastMath.centibelsToGain(centibels),
+                    Math.pow(10, centibels / 200.0));
+            double e = random.nextDouble() * 100 - 50;
+            relative("exp", e, SoftFastMath.exp(e), Math.exp(e));
+
+            double x = random.nextDouble() * 200 - 100;
+            worstSin = absolute("sin", x, SoftFastMath.sin(x), Math.sin(x), 3e-7, worstSin);
+            worstSin = absolute("cos", x, SoftFastMath.cos(x), Math.cos(x), 3e-7, worstSin);
+
+            double y = Math.pow(10, random.nextDouble() * 40 - 20);
+            worstLog = absolute("log", y, SoftFastMath.log(y), Math.log(y), 1.2e-7, worstLog);
+        }
+        // Table entries and the points halfway between them
+        for (int i = 0; i <= 2 * 2048; i++)
+            exp2(i / 4096.0 - 1);
+        for (int i = 0; i <= 2 * 1024; i++) {
+            double y = 1 + i / 2048.0;
+            worstLog = absolute("log", y, SoftFastMath.log(y), Math.log(y), 1.2e-7, worstLog);
+        }
+    }
+
+    private void exp2(double x) {
+        relative("exp2", x, SoftFastMath.exp2(x), Math.pow(2, x));
+    }
+
+    private void relative(String function, double x, double actual, double expected) {
+        double error = Math.abs(actual - expected) / expected;
+        if (!(error < 1.5e-8))
+            throw new AssertionError(function + "(" + x + ") = " + actual
+                    + ", expected " + expected);
+        if (error > worstExp2)
+            worstExp2 = error;
+    }
+
+    private static double absolute(String function, double x, double actual, double expected,
+                                   double bound, double worst) {
+        double error = Math.abs(actual - expected);
+        if (!(error < bound))
+            throw new AssertionError(function + "(" + x + ") = " + actual
+                    + ", expected " + expected);
+        return Math.max(worst, error);
+    }
+}